@@ -0,0 +1,45 @@
+#!/usr/bin/env bash
+# Build the class data archive used by fast-startup runs of the kog-shell application jar.
+#
+#   scripts/build-startup-archive.sh target/kog-shell.jar [output-dir]
+#
+# The Spring Boot jar is extracted (classes inside nested jars cannot be archived), then a training run answers
+# one prompt against the offline stub model with every bean created eagerly, so the archive covers startup and
+# the first exchange. On JDK 24+ this builds an AOT cache (JEP 483), otherwise an AppCDS archive; set MODE=cds
+# or MODE=aot to choose. Run it after the jar is repackaged, e.g. from exec-maven-plugin in the package phase.
+# If the jar was built with Spring AOT processing, pass JAVA_OPTS=-Dspring.aot.enabled=true here and at runtime.
+set -euo pipefail
+
+JAR=${1:?usage: $0 <application.jar> [output-dir]}
+OUT=${2:-target/startup}
+JAVA=${JAVA:-java}
+MODE=${MODE:-auto}
+read -r -a OPTS <<<"${JAVA_OPTS:-}"
+
+if [ "$MODE" = auto ]; then
+  VERSION=$("$JAVA" -XshowSettings:properties -version 2>&1 | sed -n 's/^ *java.specification.version = //p')
+  if [ "${VERSION%%.*}" -ge 24 ]; then MODE=aot; else MODE=cds; fi
+fi
+
+rm -rf "$OUT"
+"$JAVA" -Djarmode=tools -jar "$JAR" extract --destination "$OUT/app"
+APP="$OUT/app/$(basename "$JAR")"
+
+TRAINING=(--spring.profiles.active=fast-startup --spring.main.lazy-initialization=false
+  --spring.ai.openai.api-key="${SPRING_AI_OPENAI_API_KEY:-training}"
+  --kog.stub.enabled=true --kog.stub.first-token-latency=0ms --kog.stub.tokens-per-second=1000000
+  --kog.loadtest.enabled=true --kog.loadtest.concurrency=1 --kog.loadtest.requests=1 --kog.loadtest.warmup-requests=0)
+
+if [ "$MODE" = aot ]; then
+  "$JAVA" "${OPTS[@]}" -XX:AOTMode=record -XX:AOTConfiguration="$OUT/app.aotconf" -jar "$APP" "${TRAINING[@]}"
+  "$JAVA" "${OPTS[@]}" -XX:AOTMode=create -XX:AOTConfiguration="$OUT/app.aotconf" -XX:AOTCache="$OUT/app.aot" -jar "$APP"
+  FLAG="-XX:AOTCache=$OUT/app.aot"
+else
+  "$JAVA" "${OPTS[@]}" -XX:ArchiveClassesAtExit="$OUT/app.jsa" -jar "$APP" "${TRAINING[@]}"
+  FLAG="-XX:SharedArchiveFile=$OUT/app.jsa"
+fi
+
+# A task that ends within seconds never profits from C2; compiling with C1 only starts answering sooner
+FLAGS="-XX:TieredStopAtLevel=1 $FLAG"
+echo "$FLAGS" >"$OUT/jvm-flags"
+echo "Run with: $JAVA $FLAGS -jar $APP --spring.profiles.active=fast-startup"
@@ -0,0 +1,56 @@
+#!/usr/bin/env bash
+# Cold-start benchmark of the kog-shell application jar. Each run starts a fresh JVM that answers one prompt
+# from the offline stub model and exits; we report the median of
+#   first prompt - wall time from launch until the answered process exits
+#   ready        - JVM start to context refresh (before runners), as logged by StartupReport
+#   rss          - resident memory at ready, as logged by StartupReport
+# for the default configuration, the fast-startup profile and, when build-startup-archive.sh has been run into
+# STARTUP_DIR (default target/startup), the fast-startup profile with the archive.
+#
+#   scripts/startup-benchmark.sh target/kog-shell.jar [runs]
+set -euo pipefail
+
+JAR=${1:?usage: $0 <application.jar> [runs]}
+RUNS=${2:-10}
+JAVA=${JAVA:-java}
+DIR=${STARTUP_DIR:-target/startup}
+read -r -a OPTS <<<"${JAVA_OPTS:-}"
+
+PROMPT=(--spring.ai.openai.api-key="${SPRING_AI_OPENAI_API_KEY:-benchmark}"
+  --kog.stub.enabled=true --kog.stub.first-token-latency=0ms --kog.stub.tokens-per-second=1000000
+  --kog.loadtest.enabled=true --kog.loadtest.concurrency=1 --kog.loadtest.requests=1 --kog.loadtest.warmup-requests=0)
+
+median() {
+  sort -n | awk 'NF { v[++n] = $1 } END { print n ? v[int((n + 1) / 2)] : "-" }'
+}
+
+measure() {
+  local name=$1
+  shift
+  local first=() ready=() rss=() start end output
+  for ((i = 0; i < RUNS; i++)); do
+    start=$(date +%s%N)
+    if ! output=$("$@" "${PROMPT[@]}" 2>&1); then
+      echo "$name: run failed" >&2
+      echo "$output" | tail -20 >&2
+      exit 1
+    fi
+    end=$(date +%s%N)
+    first+=($(((end - start) / 1000000)))
+    ready+=($(sed -n 's/.*Startup: ready in \([0-9]*\) ms.*/\1/p' <<<"$output" | head -1))
+    rss+=($(sed -n 's/.*Startup: .*, rss \([0-9]*\) MiB.*/\1/p' <<<"$output" | head -1))
+  done
+  printf '%-24s first prompt %6s ms   ready %6s ms   rss %5s MiB\n' "$name" \
+    "$(printf '%s\n' "${first[@]}" | median)" \
+    "$(printf '%s\n' "${ready[@]:-}" | median)" \
+    "$(printf '%s\n' "${rss[@]:-}" | median)"
+}
+
+echo "$RUNS runs each, $("$JAVA" -version 2>&1 | head -1)"
+measure default "$JAVA" "${OPTS[@]}" -jar "$JAR"
+measure fast-startup "$JAVA" "${OPTS[@]}" -jar "$JAR" --spring.profiles.active=fast-startup
+if [ -f "$DIR/jvm-flags" ]; then
+  read -r -a FLAGS <"$DIR/jvm-flags"
+  measure "fast-startup + archive" "$JAVA" "${OPTS[@]}" "${FLAGS[@]}" -jar "$DIR/app/$(basename "$JAR")" \
+    --spring.profiles.active=fast-startup
+fi
@@ -0,0 +1,74 @@
+package com.clockworkideas.kog.shell.service.tools;
+
+import com.clockworkideas.kog.shell.service.metrics.KogMetrics;
+import com.clockworkideas.kog.shell.service.session.ShellSessionRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/** Wiring and synthetic file trees shared by the benchmarks; no Spring context is started. */
+final class BenchmarkFixtures {
+
+    private BenchmarkFixtures() {
+    }
+
+    /** A {@link SystemTools} wired like the application, with the trigram index disabled. */
+    static SystemTools systemTools(ShellSessionRegistry sessions) {
+        FileWindowReader reader = new FileWindowReader();
+        ParallelFileTree tree = new ParallelFileTree(0);
+        DirectoryWatcher watcher = new DirectoryWatcher();
+        DirectoryLister lister = new DirectoryLister(watcher);
+        lister.subscribe();
+        ContentSearcher searcher = new ContentSearcher(tree);
+        SearchIndex index = new SearchIndex(watcher, tree, searcher);
+        return new SystemTools(reader, sessions, tree, lister, searcher, index, new FilePatcher(reader),
+                new AppendWriterPool(), new KogMetrics(new SimpleMeterRegistry()), new PathResolver(),
+                new DiskUsageAnalyzer(tree, watcher), new BulkFileOperations(tree), new TreeOperations());
+    }
+
+    /** A file of about {@code bytes} bytes of 80-character lines. */
+    static Path textFile(Path dir, String name, long bytes) throws IOException {
+        Path file = dir.resolve(name);
+        byte[] line = ("x".repeat(79) + "\n").getBytes(StandardCharsets.UTF_8);
+        try (var out = Files.newOutputStream(file)) {
+            for (long written = 0; written < bytes; written += line.length) {
+                out.write(line);
+            }
+        }
+        return file;
+    }
+
+    /** A tree {@code depth} directories deep with {@code width} subdirectories and {@code files} small files per directory. */
+    static Path tree(Path root, int width, int depth, int files) throws IOException {
+        Files.createDirectories(root);
+        for (int f = 0; f < files; f++) {
+            Files.writeString(root.resolve("file" + f + ".txt"), "line " + f + "\n");
+        }
+        if (depth > 0) {
+            for (int w = 0; w < width; w++) {
+                tree(root.resolve("dir" + w), width, depth - 1, files);
+            }
+        }
+        return root;
+    }
+
+    static void deleteQuietly(Path root) {
+        if (root == null || !Files.exists(root)) return;
+        try (Stream<Path> paths = Files.walk(root)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> {
+                try {
+                    Files.delete(path);
+                } catch (IOException ignored) {
+                    // best effort
+                }
+            });
+        } catch (IOException ignored) {
+            // best effort
+        }
+    }
+}
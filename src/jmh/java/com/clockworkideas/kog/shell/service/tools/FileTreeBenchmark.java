@@ -0,0 +1,69 @@
+package com.clockworkideas.kog.shell.service.tools;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Recursive delete and copy through {@link ParallelFileTree} on synthetic trees, rebuilt before every
+ * invocation. Shapes: {@code width:depth:filesPerDirectory}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class FileTreeBenchmark {
+
+    @Param({"4:3:10", "10:2:50", "2:8:4"})
+    public String shape;
+
+    private final ParallelFileTree fileTree = new ParallelFileTree(0);
+    private Path workDir;
+    private Path source;
+    private Path target;
+
+    @Setup(Level.Invocation)
+    public void setUp() throws IOException {
+        String[] parts = shape.split(":");
+        workDir = Files.createTempDirectory("kog-tree-bench");
+        source = BenchmarkFixtures.tree(workDir.resolve("src"), Integer.parseInt(parts[0]),
+                Integer.parseInt(parts[1]), Integer.parseInt(parts[2]));
+        target = workDir.resolve("dst");
+    }
+
+    @TearDown(Level.Invocation)
+    public void tearDown() {
+        BenchmarkFixtures.deleteQuietly(workDir);
+    }
+
+    @Benchmark
+    public long delete() throws IOException {
+        TreeProgress progress = new TreeProgress();
+        fileTree.delete(source, progress);
+        return progress.getEntries();
+    }
+
+    @Benchmark
+    public long copy() throws IOException {
+        TreeProgress progress = new TreeProgress();
+        fileTree.copy(source, target, false, progress);
+        return progress.getEntries();
+    }
+}
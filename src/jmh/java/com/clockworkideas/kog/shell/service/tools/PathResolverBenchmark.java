@@ -0,0 +1,102 @@
+package com.clockworkideas.kog.shell.service.tools;
+
+import com.clockworkideas.kog.shell.service.session.ShellSession;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Path expansion and resolution as done for every path argument of a tool call. {@code legacy*} is the
+ * regex-based expansion {@link PathResolver} replaced, kept here as the reference point.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PathResolverBenchmark {
+
+    @Param({"src/main/java/Foo.java", "../docs/./guide.md", "$HOME/kog_tmp", "${PROJECT}/build", "~/notes.txt", "/var/log/syslog"})
+    public String input;
+
+    private final PathResolver resolver = new PathResolver();
+    private ShellSession session;
+
+    @Setup
+    public void setUp() {
+        session = new ShellSession("bench", "/home/user/projects/kog-shell");
+        session.putenv("PROJECT", "/home/user/projects/kog-shell");
+    }
+
+    @Benchmark
+    public String expand() {
+        return resolver.expand(session, input);
+    }
+
+    @Benchmark
+    public String expandUncached() {
+        return PathResolver.expandUncached(session, input);
+    }
+
+    @Benchmark
+    public Path resolve() {
+        return resolver.resolve(session, input);
+    }
+
+    @Benchmark
+    public boolean resolveAndCheckBase() {
+        return resolver.isWithinBase(session, resolver.resolve(session, input));
+    }
+
+    @Benchmark
+    public String legacyExpandUncached() {
+        return legacyExpand(session, input);
+    }
+
+    @Benchmark
+    public boolean legacyResolveAndCheckBase() {
+        Path base = Paths.get(session.getCurrentDirectory()).toAbsolutePath().normalize();
+        Path candidate = Paths.get(session.expand(input, in -> legacyExpand(session, in)));
+        Path resolved = candidate.isAbsolute() ? candidate.normalize() : base.resolve(candidate).normalize();
+        return resolved.startsWith(base);
+    }
+
+    private static String legacyExpand(ShellSession session, String input) {
+        String s = input;
+        if (s.equals("~") || s.startsWith("~/")) {
+            s = System.getProperty("user.home") + s.substring(1);
+        }
+        Pattern brace = Pattern.compile("\\$\\{([A-Za-z_][A-Za-z0-9_]*)}");
+        Matcher m1 = brace.matcher(s);
+        StringBuffer sb1 = new StringBuffer();
+        while (m1.find()) {
+            m1.appendReplacement(sb1, Matcher.quoteReplacement(Objects.requireNonNullElse(session.getenv(m1.group(1)), "")));
+        }
+        m1.appendTail(sb1);
+        s = sb1.toString();
+        Pattern bare = Pattern.compile("\\$([A-Za-z_][A-Za-z0-9_]*)");
+        Matcher m2 = bare.matcher(s);
+        StringBuffer sb2 = new StringBuffer();
+        while (m2.find()) {
+            m2.appendReplacement(sb2, Matcher.quoteReplacement(Objects.requireNonNullElse(session.getenv(m2.group(1)), "")));
+        }
+        m2.appendTail(sb2);
+        return sb2.toString();
+    }
+}
@@ -0,0 +1,78 @@
+package com.clockworkideas.kog.shell.service.tools;
+
+import com.clockworkideas.kog.shell.service.session.ShellSessionRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.ai.chat.model.ToolContext;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The read-side tools end to end (session lookup, path resolution, file I/O, formatting) on a temporary
+ * directory: {@code changeDirectory}, {@code listCurrentDirectory} on a 500-entry directory and
+ * {@code readFile} across file sizes. Files above 1 MiB exercise the head-only path.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SystemToolsBenchmark {
+
+    @Param({"1024", "65536", "1048576", "16777216"})
+    public long fileSize;
+
+    private Path root;
+    private SystemTools tools;
+    private ToolContext context;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        root = Files.createTempDirectory("kog-bench");
+        Files.createDirectories(root.resolve("sub"));
+        for (int i = 0; i < 500; i++) {
+            Files.writeString(root.resolve("entry" + i + ".txt"), "entry " + i + "\n");
+        }
+        BenchmarkFixtures.textFile(root, "data.txt", fileSize);
+        ShellSessionRegistry sessions = new ShellSessionRegistry();
+        sessions.get("bench").setCurrentDirectory(root.toString());
+        tools = BenchmarkFixtures.systemTools(sessions);
+        context = new ToolContext(ShellSessionRegistry.toolContext("bench"));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchmarkFixtures.deleteQuietly(root);
+    }
+
+    @Benchmark
+    public String changeDirectory() {
+        tools.changeDirectory("sub", context);
+        return tools.changeDirectory("..", context);
+    }
+
+    @Benchmark
+    public String listCurrentDirectory() {
+        return tools.listCurrentDirectory(null, null, null, null, null, context);
+    }
+
+    @Benchmark
+    public String readFile() {
+        return tools.readFile("data.txt", context);
+    }
+}
@@ -1,16 +1,400 @@
 package com.clockworkideas.kog.shell.service;
 
+import com.clockworkideas.kog.shell.service.cache.ResponseCache;
+import com.clockworkideas.kog.shell.service.fastpath.LocalCommandDispatcher;
+import com.clockworkideas.kog.shell.service.memory.ConversationMemory;
+import com.clockworkideas.kog.shell.service.metrics.KogMetrics;
+import com.clockworkideas.kog.shell.service.ratelimit.ModelRateLimiter;
+import com.clockworkideas.kog.shell.service.session.ShellSessionRegistry;
+import com.clockworkideas.kog.shell.service.tools.ConcurrentToolDispatcher;
+import com.clockworkideas.kog.shell.service.tools.ExchangeTrace;
+import com.clockworkideas.kog.shell.service.tools.ToolRouter;
+import jakarta.annotation.PreDestroy;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.metadata.DefaultUsage;
+import org.springframework.ai.chat.metadata.Usage;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.ToolContext;
+import org.springframework.ai.model.tool.ToolCallingChatOptions;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
 
 @Service
 @Slf4j
 @RequiredArgsConstructor
 public class ChatService {
-    private final ChatClient chatClient;
+    /**
+     * Upper bound on model responses with tool calls per exchange, so a looping model cannot run forever.
+     * Reaching it fails the exchange.
+     */
+    private static final int MAX_TOOL_ROUNDS = 32;
+
+    /** Resolved on the first model request, so startup does not build the provider client. */
+    private final ObjectProvider<ChatClient> chatClient;
+    private final ShellSessionRegistry sessions;
+    private final ResponseCache responseCache;
+    private final LocalCommandDispatcher localCommands;
+    private final ToolRouter toolRouter;
+    private final KogMetrics metrics;
+    private final ConcurrentToolDispatcher toolDispatcher;
+    private final ConversationMemory memory;
+    private final ModelRateLimiter rateLimiter;
+
+    /** Batch prompts started but not yet answered; the rate limiter decides how many reach the provider. */
+    @Value("${kog.batch.max-in-flight:256}")
+    private int batchMaxInFlight = 256;
+
+    private final ExecutorService asyncExecutor = Executors.newVirtualThreadPerTaskExecutor();
+
     public String exchange(String message) {
-        return chatClient.prompt(message).call().content();
+        return exchange(ShellSessionRegistry.DEFAULT_SESSION, message);
+    }
+
+    /**
+     * Exchange within a conversation; tool calls resolve paths against that conversation's shell session.
+     * Plain shell commands are run locally without a model round-trip, and repeated prompts from the same
+     * working directory are answered from the {@link ResponseCache} while the files the answer depended on
+     * are unchanged. Earlier turns of the conversation are sent from {@link ConversationMemory}, and since
+     * they shape the answer the cache key includes a digest of them: with memory on, a cached answer is only
+     * reused for a conversation in the same state, in practice the first prompt of a fresh session (batches
+     * have no history, so they always can). A null {@code sessionId} is the default session.
+     */
+    public String exchange(String sessionId, String message) {
+        return exchange(ShellSessionRegistry.normalize(sessionId), message, true);
+    }
+
+    /** {@link #exchange(String, String)} on a virtual thread. */
+    public CompletableFuture<String> exchangeAsync(String sessionId, String message) {
+        return CompletableFuture.supplyAsync(() -> exchange(sessionId, message), asyncExecutor);
+    }
+
+    public List<ExchangeResult> exchangeBatch(List<String> prompts) {
+        return exchangeBatch(ShellSessionRegistry.DEFAULT_SESSION, prompts);
+    }
+
+    /**
+     * Answer independent prompts concurrently, each on its own virtual thread, and return the results in input
+     * order. A failed prompt yields a failed {@link ExchangeResult} rather than failing the batch. The prompts
+     * share the session's working directory but not its conversation: none sees the others or the earlier
+     * history, and none is remembered. Provider quotas are enforced by {@link ModelRateLimiter}.
+     */
+    public List<ExchangeResult> exchangeBatch(String sessionId, List<String> prompts) {
+        String session = ShellSessionRegistry.normalize(sessionId);
+        Semaphore inFlight = new Semaphore(batchMaxInFlight);
+        List<CompletableFuture<ExchangeResult>> results = new ArrayList<>(prompts.size());
+        for (int i = 0; i < prompts.size(); i++) {
+            int index = i;
+            String prompt = prompts.get(i);
+            inFlight.acquireUninterruptibly();
+            results.add(CompletableFuture.supplyAsync(() -> {
+                try {
+                    return ExchangeResult.success(index, prompt, exchange(session, prompt, false));
+                } catch (RuntimeException e) {
+                    log.debug("Batch prompt {} failed: {}", index, e.getMessage());
+                    return ExchangeResult.failure(index, prompt, e);
+                } finally {
+                    inFlight.release();
+                }
+            }, asyncExecutor));
+        }
+        return results.stream().map(CompletableFuture::join).toList();
+    }
+
+    private String exchange(String sessionId, String message, boolean conversational) {
+        Optional<String> local = localCommands.dispatch(sessionId, message);
+        if (local.isPresent()) {
+            if (conversational) memory.record(sessionId, List.of(new UserMessage(message), new AssistantMessage(local.get())));
+            return local.get();
+        }
+
+        String digest = conversational ? memory.digest(sessionId) : "";
+        String cacheKey = ResponseCache.key(message, sessions.get(sessionId).getCurrentDirectory(), digest);
+        Optional<String> cached = responseCache.lookup(cacheKey);
+        if (cached.isPresent()) {
+            if (conversational) memory.record(sessionId, List.of(new UserMessage(message), new AssistantMessage(cached.get())));
+            return cached.get();
+        }
+
+        ExchangeTrace trace = new ExchangeTrace();
+        Map<String, Object> context = toolContext(sessionId, trace);
+        List<Message> messages = new ArrayList<>(conversational ? memory.history(sessionId) : List.of());
+        int first = messages.size();
+        messages.add(new UserMessage(message));
+        ToolRouter.Route route = toolRouter.route(message);
+        UsageTotals usage = new UsageTotals();
+        long start = System.nanoTime();
+        ChatResponse response;
+        boolean failed = true;
+        try {
+            response = call(messages, context, route);
+            usage.add(usage(response));
+            // Tool calls are run here rather than inside the model client so independent calls run concurrently
+            for (int round = 0; hasToolCalls(response) && round < MAX_TOOL_ROUNDS; round++) {
+                AssistantMessage assistant = response.getResult().getOutput();
+                messages.add(assistant);
+                messages.add(toolDispatcher.execute(assistant.getToolCalls(), new ToolContext(context)));
+                response = call(messages, context, route);
+                usage.add(usage(response));
+            }
+            // Neither remembered nor cached: the exchange has no answer
+            if (hasToolCalls(response)) throw toolRoundLimitReached();
+            failed = false;
+        } finally {
+            metrics.llmCall(start, failed, usage.toUsage(), trace.getToolCalls());
+        }
+        String content = text(response);
+        if (conversational) remember(sessionId, messages.subList(first, messages.size()), content);
+        responseCache.store(cacheKey, content, trace);
+        return content;
+    }
+
+    public Flux<String> exchangeStream(String message) {
+        return exchangeStream(ShellSessionRegistry.DEFAULT_SESSION, message);
+    }
+
+    /**
+     * Streaming variant of {@link #exchange(String, String)}. Tokens are emitted as the provider produces them;
+     * when a response ends with tool calls they are run (concurrently where independent) and the follow-up
+     * response is streamed on the same Flux. Cancelling the subscription (e.g. the client disconnected)
+     * cancels the upstream provider request.
+     */
+    public Flux<String> exchangeStream(String sessionId, String message) {
+        String session = ShellSessionRegistry.normalize(sessionId);
+        return Flux.defer(() -> {
+            Optional<String> local = localCommands.dispatch(session, message);
+            if (local.isPresent()) {
+                memory.record(session, List.of(new UserMessage(message), new AssistantMessage(local.get())));
+                return Flux.just(local.get());
+            }
+            ExchangeTrace trace = new ExchangeTrace();
+            Map<String, Object> context = toolContext(session, trace);
+            List<Message> messages = new ArrayList<>(memory.history(session));
+            int first = messages.size();
+            messages.add(new UserMessage(message));
+            ToolRouter.Route route = toolRouter.route(message);
+            UsageTotals usage = new UsageTotals();
+            long start = System.nanoTime();
+            AtomicLong firstToken = new AtomicLong();
+            StringBuilder answer = new StringBuilder();
+            return streamRound(messages, context, route, usage, 0, "")
+                    .doOnNext(token -> {
+                        firstToken.compareAndSet(0L, System.nanoTime());
+                        answer.append(token);
+                    })
+                    // Only completed answers are remembered; a cancelled stream leaves the history as it was
+                    .doOnComplete(() -> remember(session, messages.subList(first, messages.size()), answer.toString()))
+                    .doFinally(signal -> {
+                        logStreamTimings(signal, start, firstToken.get());
+                        metrics.llmStream(start, firstToken.get(), signal == SignalType.ON_ERROR, usage.toUsage(), trace.getToolCalls());
+                    });
+        });
+    }
+
+    /**
+     * The text of one streamed model response, followed by the next round if it ended with tool calls.
+     * {@code shown} is the text already emitted by a round that is being repeated with every tool. The repeat's
+     * text is held until it ends: if it calls tools too it only restates {@code shown} and is dropped, and if it
+     * is the answer it is emitted without a leading copy of {@code shown}.
+     */
+    private Flux<String> streamRound(List<Message> messages, Map<String, Object> context, ToolRouter.Route route,
+                                     UsageTotals usage, int round, String shown) {
+        List<AssistantMessage.ToolCall> toolCalls = new ArrayList<>();
+        StringBuilder emitted = new StringBuilder();
+        AtomicReference<Usage> reported = new AtomicReference<>();
+        long estimate = ModelRateLimiter.estimateTokens(messages);
+        // Waiting for a permit blocks, so do it off the subscriber's thread. The permit is settled exactly once
+        // however the round ends, including a cancel that arrives while the request is still waiting for it.
+        Mono<ModelRateLimiter.Permit> admitted = Mono.<ModelRateLimiter.Permit>create(sink -> {
+                    ModelRateLimiter.Permit permit = rateLimiter.acquire(estimate);
+                    // Runs at once if the subscriber already cancelled; after success the usingWhen hooks own it
+                    sink.onCancel(permit::cancel);
+                    sink.success(permit);
+                })
+                .subscribeOn(Schedulers.boundedElastic());
+        Flux<ChatResponse> responses = Flux.usingWhen(admitted,
+                permit -> {
+                    route.requested();
+                    return chatClient.getObject().prompt()
+                            .messages(messages)
+                            .options(toolOptions())
+                            .toolCallbacks(route.callbacks())
+                            .toolContext(context)
+                            .stream()
+                            .chatResponse()
+                            .doOnNext(response -> {
+                                // Providers report usage on the last chunk only
+                                Usage chunkUsage = usage(response);
+                                if (chunkUsage != null && chunkUsage.getTotalTokens() != null && chunkUsage.getTotalTokens() > 0) {
+                                    reported.set(chunkUsage);
+                                }
+                                if (hasToolCalls(response)) {
+                                    toolCalls.addAll(response.getResult().getOutput().getToolCalls());
+                                }
+                            });
+                },
+                permit -> Mono.fromRunnable(() -> {
+                    usage.add(reported.get());
+                    permit.release(totalTokens(reported.get()));
+                }),
+                (permit, error) -> Mono.fromRunnable(() -> permit.fail(error)),
+                permit -> Mono.fromRunnable(permit::cancel));
+        Flux<String> text = responses.mapNotNull(ChatService::text).filter(token -> !token.isEmpty());
+        Flux<String> tokens = shown.isEmpty() ? text : text.collect(Collectors.joining()).flatMapMany(repeat -> {
+            if (!toolCalls.isEmpty()) return Flux.empty();
+            String answer = repeat.startsWith(shown) ? repeat.substring(shown.length()) : repeat;
+            return answer.isEmpty() ? Flux.empty() : Flux.just(answer);
+        });
+        return tokens.doOnNext(emitted::append).concatWith(Flux.defer(() -> {
+            if (toolCalls.isEmpty()) {
+                return Flux.empty();
+            }
+            if (round >= MAX_TOOL_ROUNDS) {
+                return Flux.error(toolRoundLimitReached());
+            }
+            if (!route.offers(toolCalls.stream().map(AssistantMessage.ToolCall::name).toList())) {
+                // Asked for a tool it was not offered: repeat the round with every tool
+                route.widen();
+                return streamRound(messages, context, route, usage, round + 1, emitted.toString());
+            }
+            AssistantMessage assistant = new AssistantMessage("", Map.of(), List.copyOf(toolCalls));
+            // Tools block on file I/O, so keep them off the provider's event loop
+            return Mono.fromCallable(() -> toolDispatcher.execute(assistant.getToolCalls(), new ToolContext(context)))
+                    .subscribeOn(Schedulers.boundedElastic())
+                    .flatMapMany(toolResponses -> {
+                        messages.add(assistant);
+                        messages.add(toolResponses);
+                        return streamRound(messages, context, route, usage, round + 1, "");
+                    });
+        }));
+    }
+
+    private static IllegalStateException toolRoundLimitReached() {
+        return new IllegalStateException("Tool round limit reached: the model was still calling tools after "
+                + MAX_TOOL_ROUNDS + " rounds, so there is no answer");
+    }
+
+    /** Record the prompt, the tool rounds and the answer; pending tool calls of a cut-off exchange are left out. */
+    private void remember(String sessionId, List<Message> turn, String answer) {
+        List<Message> recorded = new ArrayList<>(turn);
+        recorded.add(new AssistantMessage(answer == null ? "" : answer));
+        memory.record(sessionId, recorded);
+    }
+
+    /**
+     * One blocking model request, admitted by the rate limiter and retried after a 429, or with every tool if
+     * the model asked for one the route did not offer.
+     */
+    private ChatResponse call(List<Message> messages, Map<String, Object> context, ToolRouter.Route route) {
+        long estimate = ModelRateLimiter.estimateTokens(messages);
+        for (int attempt = 0; ; attempt++) {
+            ModelRateLimiter.Permit permit = rateLimiter.acquire(estimate);
+            try {
+                route.requested();
+                ChatResponse response = chatClient.getObject().prompt()
+                        .messages(messages)
+                        .options(toolOptions())
+                        .toolCallbacks(route.callbacks())
+                        .toolContext(context)
+                        .call()
+                        .chatResponse();
+                permit.release(totalTokens(usage(response)));
+                if (hasToolCalls(response)
+                        && !route.offers(response.getResult().getOutput().getToolCalls().stream().map(AssistantMessage.ToolCall::name).toList())) {
+                    route.widen();
+                    continue;
+                }
+                return response;
+            } catch (RuntimeException e) {
+                permit.fail(e);
+                // The limiter has paused callers for the backoff; the next acquire waits it out
+                if (!ModelRateLimiter.isRateLimited(e) || attempt >= rateLimiter.getMaxRetries()) throw e;
+            }
+        }
+    }
+
+    /** Tool definitions are still sent to the model, but the calls come back to us instead of being executed. */
+    private static ToolCallingChatOptions toolOptions() {
+        return ToolCallingChatOptions.builder().internalToolExecutionEnabled(false).build();
+    }
+
+    private static boolean hasToolCalls(ChatResponse response) {
+        return response != null && response.getResult() != null && response.getResult().getOutput() != null
+                && response.getResult().getOutput().hasToolCalls();
+    }
+
+    private static Map<String, Object> toolContext(String sessionId, ExchangeTrace trace) {
+        Map<String, Object> context = new HashMap<>(ShellSessionRegistry.toolContext(sessionId));
+        context.put(ExchangeTrace.CONTEXT_KEY, trace);
+        return context;
+    }
+
+    private static String text(ChatResponse response) {
+        if (response == null || response.getResult() == null || response.getResult().getOutput() == null) {
+            return null;
+        }
+        return response.getResult().getOutput().getText();
+    }
+
+    private static Usage usage(ChatResponse response) {
+        return response == null || response.getMetadata() == null ? null : response.getMetadata().getUsage();
+    }
+
+    private static long totalTokens(Usage usage) {
+        return usage == null || usage.getTotalTokens() == null ? 0 : usage.getTotalTokens();
+    }
+
+    /** Token usage summed over the rounds of one exchange. */
+    private static final class UsageTotals {
+        private final AtomicLong prompt = new AtomicLong();
+        private final AtomicLong completion = new AtomicLong();
+
+        void add(Usage usage) {
+            if (usage == null) return;
+            if (usage.getPromptTokens() != null) prompt.addAndGet(usage.getPromptTokens());
+            if (usage.getCompletionTokens() != null) completion.addAndGet(usage.getCompletionTokens());
+        }
+
+        Usage toUsage() {
+            return new DefaultUsage((int) prompt.get(), (int) completion.get());
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        asyncExecutor.shutdownNow();
+    }
+
+    private void logStreamTimings(SignalType signal, long start, long firstToken) {
+        long total = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        if (firstToken == 0L) {
+            log.debug("Stream ended ({}) after {} ms without emitting tokens", signal, total);
+            return;
+        }
+        long ttft = TimeUnit.NANOSECONDS.toMillis(firstToken - start);
+        log.debug("Stream ended ({}): time-to-first-token {} ms, total {} ms", signal, ttft, total);
     }
 }
@@ -0,0 +1,21 @@
+package com.clockworkideas.kog.shell.service;
+
+/**
+ * Outcome of one prompt of {@link ChatService#exchangeBatch(String, java.util.List)}: either the {@code response}
+ * or, if the exchange failed, an {@code error} message.
+ */
+public record ExchangeResult(int index, String prompt, String response, String error) {
+
+    public static ExchangeResult success(int index, String prompt, String response) {
+        return new ExchangeResult(index, prompt, response, null);
+    }
+
+    public static ExchangeResult failure(int index, String prompt, Throwable error) {
+        String message = error.getMessage() == null ? error.getClass().getSimpleName() : error.getMessage();
+        return new ExchangeResult(index, prompt, null, message);
+    }
+
+    public boolean isSuccess() {
+        return error == null;
+    }
+}
@@ -0,0 +1,229 @@
+package com.clockworkideas.kog.shell.service.cache;
+
+import com.clockworkideas.kog.shell.service.tools.ExchangeTrace;
+import com.clockworkideas.kog.shell.service.tools.ExchangeTrace.FileStamp;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Response cache in front of the LLM. Entries are keyed on the normalized prompt plus the session's
+ * working directory and are only served while every file the answer depended on still has the size and
+ * mtime it had when the answer was produced. Answers produced by mutating tool calls are never stored.
+ * <p>
+ * Eviction is LRU on size plus a TTL; answers that read the clock get the shorter {@code clock-ttl}. With
+ * {@code kog.cache.persist-file} set, entries are saved on shutdown as JSON lines and restored on startup.
+ */
+@Slf4j
+@Component
+public class ResponseCache {
+
+    private static final ObjectMapper JSON = new ObjectMapper();
+
+    @Value("${kog.cache.enabled:true}")
+    private volatile boolean enabled = true;
+
+    @Value("${kog.cache.max-entries:1000}")
+    private int maxEntries = 1000;
+
+    @Value("${kog.cache.ttl:10m}")
+    private Duration ttl = Duration.ofMinutes(10);
+
+    @Value("${kog.cache.clock-ttl:1m}")
+    private Duration clockTtl = Duration.ofMinutes(1);
+
+    /** Optional file the cache is saved to on shutdown and restored from on startup. */
+    @Value("${kog.cache.persist-file:}")
+    private String persistFile = "";
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    private record Entry(String response, long expiresAtMillis, Map<String, FileStamp> dependencies) {
+    }
+
+    /** One line of the persist file. */
+    private record Saved(String key, String response, long expiresAtMillis, Map<String, FileStamp> dependencies) {
+    }
+
+    /** Cache key for a prompt issued from {@code workingDirectory}; whitespace differences are ignored. */
+    public static String key(String prompt, String workingDirectory) {
+        String normalized = prompt == null ? "" : prompt.strip().replaceAll("\\s+", " ");
+        return normalized + '\u0000' + workingDirectory;
+    }
+
+    /** As {@link #key(String, String)}, for a prompt that follows the conversation state {@code historyDigest}. */
+    public static String key(String prompt, String workingDirectory, String historyDigest) {
+        String key = key(prompt, workingDirectory);
+        return historyDigest == null || historyDigest.isEmpty() ? key : key + '\u0000' + historyDigest;
+    }
+
+    public Optional<String> lookup(String key) {
+        if (!enabled) return Optional.empty();
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+        }
+        if (entry == null) {
+            misses.incrementAndGet();
+            return Optional.empty();
+        }
+        if (entry.expiresAtMillis() < System.currentTimeMillis() || !dependenciesUnchanged(entry)) {
+            synchronized (entries) {
+                entries.remove(key, entry);
+            }
+            evictions.incrementAndGet();
+            misses.incrementAndGet();
+            return Optional.empty();
+        }
+        hits.incrementAndGet();
+        return Optional.of(entry.response());
+    }
+
+    /** Store an answer unless the exchange mutated files or session state, read a whole subtree or live state. */
+    public void store(String key, String response, ExchangeTrace trace) {
+        if (!enabled || response == null || !trace.isCacheable()) return;
+        long lifetime = (trace.isClockDependent() ? clockTtl : ttl).toMillis();
+        Map<String, FileStamp> dependencies = new HashMap<>();
+        trace.getDependencies().forEach((path, stamp) -> dependencies.put(path.toString(), stamp));
+        Entry entry = new Entry(response, System.currentTimeMillis() + lifetime, dependencies);
+        synchronized (entries) {
+            entries.put(key, entry);
+            evictOverflow();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /** Turn lookups and stores on or off at runtime, e.g. so a load test measures uncached exchanges. */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    private boolean dependenciesUnchanged(Entry entry) {
+        for (Map.Entry<String, FileStamp> dependency : entry.dependencies().entrySet()) {
+            if (!FileStamp.of(Paths.get(dependency.getKey())).equals(dependency.getValue())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void evictOverflow() {
+        Iterator<Entry> it = entries.values().iterator();
+        while (entries.size() > maxEntries && it.hasNext()) {
+            it.next();
+            it.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    @PostConstruct
+    void restore() {
+        if (!enabled || persistFile.isBlank()) return;
+        Path file = Paths.get(persistFile);
+        if (!Files.isRegularFile(file)) return;
+        long now = System.currentTimeMillis();
+        int skipped = 0;
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String text;
+            while ((text = reader.readLine()) != null) {
+                if (text.isBlank()) continue;
+                Saved saved;
+                try {
+                    saved = JSON.readValue(text, Saved.class);
+                } catch (JsonProcessingException e) {
+                    skipped++;
+                    continue;
+                }
+                if (saved.key() == null || saved.response() == null || saved.expiresAtMillis() <= now) continue;
+                Map<String, FileStamp> dependencies = saved.dependencies() == null ? Map.of() : saved.dependencies();
+                synchronized (entries) {
+                    entries.put(saved.key(), new Entry(saved.response(), saved.expiresAtMillis(), dependencies));
+                }
+            }
+            synchronized (entries) {
+                evictOverflow();
+            }
+            if (skipped > 0) log.warn("Skipped {} unreadable lines in response cache file {}", skipped, file);
+            log.info("Restored {} cached responses from {}", size(), file);
+        } catch (IOException e) {
+            log.warn("Ignoring unreadable response cache file {}: {}", file, e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    void persist() {
+        if (!enabled || persistFile.isBlank()) return;
+        Path file = Paths.get(persistFile).toAbsolutePath();
+        try {
+            LinkedHashMap<String, Entry> snapshot;
+            synchronized (entries) {
+                snapshot = new LinkedHashMap<>(entries);
+            }
+            Files.createDirectories(file.getParent());
+            Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            // Least recently used first, so restoring in file order keeps the LRU order
+            try (BufferedWriter out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                for (Map.Entry<String, Entry> e : snapshot.entrySet()) {
+                    Entry entry = e.getValue();
+                    out.write(JSON.writeValueAsString(
+                            new Saved(e.getKey(), entry.response(), entry.expiresAtMillis(), entry.dependencies())));
+                    out.newLine();
+                }
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("Failed to persist response cache to {}: {}", file, e.getMessage());
+        }
+    }
+}
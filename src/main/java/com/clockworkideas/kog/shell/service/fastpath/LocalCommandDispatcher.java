@@ -0,0 +1,200 @@
+package com.clockworkideas.kog.shell.service.fastpath;
+
+import com.clockworkideas.kog.shell.service.session.ShellSessionRegistry;
+import com.clockworkideas.kog.shell.service.session.ShellSession;
+import com.clockworkideas.kog.shell.service.tools.PathResolver;
+import com.clockworkideas.kog.shell.service.tools.SystemTools;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.model.ToolContext;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Answers unambiguous shell commands ({@code pwd}, {@code ls}, {@code cd dir}, {@code mkdir [-p] dir},
+ * {@code date}, {@code cat file}, {@code head}/{@code tail [-n N] file}, {@code export NAME=value})
+ * by calling {@link SystemTools} directly instead of going through the model.
+ * <p>
+ * Anything that is not a plain invocation of one of those commands (pipes, redirections, globs,
+ * unknown flags, free-form text) is left to the model.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class LocalCommandDispatcher {
+
+    private static final Pattern ENV_ASSIGNMENT = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*=.*", Pattern.DOTALL);
+    // Unsigned and at most nine digits, so the count fits in an int; signed counts (head -n -5, tail -n +5) go to the model
+    private static final Pattern LINE_COUNT = Pattern.compile("\\d{1,9}");
+    private static final String SHELL_METACHARACTERS = "|&;<>()`*?[]{}!";
+
+    /** Resolved on the first local command, so startup does not build the tools and their file system helpers. */
+    private final ObjectProvider<SystemTools> systemTools;
+    private final ShellSessionRegistry sessions;
+    private final PathResolver pathResolver;
+
+    private final AtomicLong dispatched = new AtomicLong();
+    private final AtomicLong deferred = new AtomicLong();
+
+    /** Run {@code input} locally if it is a plain supported command; empty means "ask the model". */
+    public Optional<String> dispatch(String sessionId, String input) {
+        List<String> words = tokenize(input);
+        Optional<String> result = words == null || words.isEmpty()
+                ? Optional.empty()
+                : run(words, new ToolContext(ShellSessionRegistry.toolContext(sessionId)), sessionId);
+        (result.isPresent() ? dispatched : deferred).incrementAndGet();
+        return result;
+    }
+
+    public long getDispatched() {
+        return dispatched.get();
+    }
+
+    public long getDeferred() {
+        return deferred.get();
+    }
+
+    private Optional<String> run(List<String> words, ToolContext context, String sessionId) {
+        String command = words.get(0);
+        List<String> args = words.subList(1, words.size());
+        switch (command) {
+            case "pwd":
+                return args.isEmpty() ? Optional.of(systemTools.getObject().getCurrentDirectory(context)) : Optional.empty();
+            case "ls":
+                return args.isEmpty() || (args.size() == 1 && args.get(0).equals("."))
+                        ? Optional.of(systemTools.getObject().listCurrentDirectory(null, null, null, null, null, context))
+                        : Optional.empty();
+            case "date":
+                return args.isEmpty() ? Optional.of(systemTools.getObject().getCurrentDateTimeLocal(context)) : Optional.empty();
+            case "cd":
+                // "cd -" means OLDPWD, which sessions do not track; resolving "-" as a path would give the wrong answer
+                if (args.size() > 1 || (args.size() == 1 && args.get(0).equals("-"))) return Optional.empty();
+                return Optional.of(systemTools.getObject().changeDirectory(args.isEmpty() ? "~" : args.get(0), context));
+            case "mkdir":
+                return mkdir(args, context);
+            case "cat":
+                // readFile resolves its argument as given, so expand it here like every other word
+                return args.size() == 1 && !args.get(0).startsWith("-")
+                        ? Optional.of(systemTools.getObject().readFile(pathResolver.expand(sessions.get(sessionId), args.get(0)), context))
+                        : Optional.empty();
+            case "head":
+            case "tail":
+                return headOrTail(command, args, context);
+            case "export":
+                return export(args, sessionId);
+            default:
+                return Optional.empty();
+        }
+    }
+
+    private Optional<String> mkdir(List<String> args, ToolContext context) {
+        boolean parents = !args.isEmpty() && args.get(0).equals("-p");
+        List<String> dirs = parents ? args.subList(1, args.size()) : args;
+        if (dirs.isEmpty() || dirs.stream().anyMatch(d -> d.startsWith("-"))) return Optional.empty();
+        // makeDirectory creates missing parents, which plain mkdir refuses to do
+        if (!parents && dirs.stream().anyMatch(d -> stripTrailingSlashes(d).contains("/"))) return Optional.empty();
+        StringBuilder out = new StringBuilder();
+        for (String dir : dirs) {
+            if (out.length() > 0) out.append('\n');
+            out.append(systemTools.getObject().makeDirectory(dir, context));
+        }
+        return Optional.of(out.toString());
+    }
+
+    private static String stripTrailingSlashes(String path) {
+        int end = path.length();
+        while (end > 1 && path.charAt(end - 1) == '/') end--;
+        return path.substring(0, end);
+    }
+
+    /** {@code head file}, {@code head -n N file} and {@code head -N file}; likewise for tail. */
+    private Optional<String> headOrTail(String mode, List<String> args, ToolContext context) {
+        Integer count = null;
+        List<String> rest = args;
+        if (rest.size() == 3 && rest.get(0).equals("-n") && LINE_COUNT.matcher(rest.get(1)).matches()) {
+            count = Integer.parseInt(rest.get(1));
+            rest = rest.subList(2, 3);
+        } else if (rest.size() == 2 && rest.get(0).startsWith("-") && LINE_COUNT.matcher(rest.get(0).substring(1)).matches()) {
+            count = Integer.parseInt(rest.get(0).substring(1));
+            rest = rest.subList(1, 2);
+        }
+        if (rest.size() != 1 || rest.get(0).startsWith("-")) return Optional.empty();
+        return Optional.of(systemTools.getObject().readFileWindow(rest.get(0), mode, null, count == null ? 10 : count, context));
+    }
+
+    private Optional<String> export(List<String> args, String sessionId) {
+        if (args.size() != 1 || !ENV_ASSIGNMENT.matcher(args.get(0)).matches()) return Optional.empty();
+        String assignment = args.get(0);
+        int eq = assignment.indexOf('=');
+        // Expanded now, as the shell would; quoting that keeps $ or ~ literal never gets this far
+        ShellSession session = sessions.get(sessionId);
+        session.putenv(assignment.substring(0, eq), pathResolver.expand(session, assignment.substring(eq + 1)));
+        return Optional.of("Exported " + assignment.substring(0, eq));
+    }
+
+    /**
+     * Split a command line into words, honouring single quotes, double quotes and backslash escapes.
+     * Returns {@code null} if the line is not a simple command (unquoted shell metacharacters, unbalanced
+     * quotes, or more than one line). Every word has {@code $VAR} and {@code ~} expanded before use (by the tool
+     * it is passed to, or by {@link #run} where the tool does not), so a {@code $} or {@code ~} that the shell
+     * would keep literal (single-quoted, escaped, or {@code ~} in double quotes) also returns {@code null} and
+     * the command goes to the model.
+     */
+    static List<String> tokenize(String input) {
+        if (input == null) return null;
+        String line = input.strip();
+        if (line.isEmpty() || line.indexOf('\n') >= 0 || line.length() > 4096) return null;
+
+        List<String> words = new ArrayList<>();
+        StringBuilder word = new StringBuilder();
+        boolean inWord = false;
+        char quote = 0;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                } else if (c == '\\' && quote == '"' && i + 1 < line.length()) {
+                    char escaped = line.charAt(++i);
+                    if (isExpansion(escaped)) return null;
+                    word.append(escaped);
+                } else if (c == '~' || (c == '$' && quote == '\'')) {
+                    return null;
+                } else {
+                    word.append(c);
+                }
+            } else if (c == '\'' || c == '"') {
+                quote = c;
+                inWord = true;
+            } else if (c == '\\') {
+                if (i + 1 >= line.length() || isExpansion(line.charAt(i + 1))) return null;
+                word.append(line.charAt(++i));
+                inWord = true;
+            } else if (Character.isWhitespace(c)) {
+                if (inWord) {
+                    words.add(word.toString());
+                    word.setLength(0);
+                    inWord = false;
+                }
+            } else if (SHELL_METACHARACTERS.indexOf(c) >= 0 || (c == '$' && i + 1 < line.length() && line.charAt(i + 1) == '(')) {
+                return null;
+            } else {
+                word.append(c);
+                inWord = true;
+            }
+        }
+        if (quote != 0) return null;
+        if (inWord) words.add(word.toString());
+        return words;
+    }
+
+    private static boolean isExpansion(char c) {
+        return c == '$' || c == '~';
+    }
+}
@@ -0,0 +1,191 @@
+package com.clockworkideas.kog.shell.service.loadtest;
+
+import com.clockworkideas.kog.shell.service.ChatService;
+import com.clockworkideas.kog.shell.service.cache.ResponseCache;
+import com.clockworkideas.kog.shell.service.fastpath.LocalCommandDispatcher;
+import com.clockworkideas.kog.shell.service.memory.ConversationMemory;
+import com.clockworkideas.kog.shell.service.session.ShellSessionRegistry;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Drives {@link ChatService} end to end (routing, memory, rate limiting, tool execution) from a fixed number
+ * of concurrent conversations and measures what one instance sustains. Meant to run against the offline
+ * {@code ReplayChatModel}, so results reflect the shell layer rather than the provider.
+ * <p>
+ * Each worker is a virtual thread with its own session that sends prompts back to back, round-robin from
+ * the plan, until the shared request count is used up. A warm-up phase with the same concurrency runs first
+ * and is not measured.
+ * <p>
+ * Every session sends the same prompts from the same directory, so after the first few requests a blocking
+ * run would be answered almost entirely by the {@link ResponseCache}, which streaming never consults. Unless
+ * the plan asks for it, the cache is therefore off (and emptied) for the run, so blocking and streaming numbers
+ * are comparable; the report shows how many requests the cache and the local command path answered. Since it
+ * reconfigures the shared cache, the driver only exists when {@code kog.loadtest.enabled=true}.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = "kog.loadtest.enabled", havingValue = "true")
+public class LoadTestDriver {
+
+    private final ChatService chatService;
+    private final ShellSessionRegistry sessions;
+    private final ConversationMemory memory;
+    private final ResponseCache responseCache;
+    private final LocalCommandDispatcher localCommands;
+
+    public record Plan(int concurrency, int requests, int warmupRequests, List<String> prompts, boolean streaming,
+                       boolean responseCache) {
+        public Plan {
+            if (concurrency < 1 || requests < 1 || prompts.isEmpty()) {
+                throw new IllegalArgumentException("A load test needs concurrency >= 1, requests >= 1 and at least one prompt");
+            }
+            prompts = List.copyOf(prompts);
+        }
+    }
+
+    public LoadTestReport run(Plan plan) {
+        boolean cacheWasEnabled = responseCache.isEnabled();
+        responseCache.clear();
+        responseCache.setEnabled(cacheWasEnabled && plan.responseCache());
+        try {
+            if (plan.warmupRequests() > 0) {
+                log.info("Warming up with {} requests", plan.warmupRequests());
+                phase(plan, plan.warmupRequests(), "warmup");
+                responseCache.clear();
+            }
+            log.info("Running {} requests from {} concurrent sessions ({}, response cache {})", plan.requests(),
+                    plan.concurrency(), plan.streaming() ? "streaming" : "blocking",
+                    responseCache.isEnabled() ? "on" : "off");
+            ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            long allocatedBefore = allocatedBytes(threads);
+            long gcCountBefore = gcCount();
+            long gcMillisBefore = gcMillis();
+            long hitsBefore = responseCache.getHits();
+            long lookupsBefore = hitsBefore + responseCache.getMisses();
+            long localBefore = localCommands.getDispatched();
+            long start = System.nanoTime();
+            Phase phase = phase(plan, plan.requests(), "load");
+            long elapsed = System.nanoTime() - start;
+            long allocated = allocatedBefore < 0 ? -1 : allocatedBytes(threads) - allocatedBefore;
+            long hits = responseCache.getHits() - hitsBefore;
+            return new LoadTestReport(plan.concurrency(), plan.requests(), phase.errors.get(), elapsed,
+                    phase.latencies, plan.streaming() ? phase.firstTokens : null, allocated,
+                    gcCount() - gcCountBefore, gcMillis() - gcMillisBefore,
+                    hits, responseCache.getHits() + responseCache.getMisses() - lookupsBefore,
+                    localCommands.getDispatched() - localBefore);
+        } finally {
+            responseCache.setEnabled(cacheWasEnabled);
+        }
+    }
+
+    private static final class Phase {
+        final long[] latencies;
+        final long[] firstTokens;
+        final AtomicInteger next = new AtomicInteger();
+        final AtomicInteger errors = new AtomicInteger();
+
+        Phase(int requests) {
+            latencies = new long[requests];
+            firstTokens = new long[requests];
+        }
+    }
+
+    private Phase phase(Plan plan, int requests, String name) {
+        Phase phase = new Phase(requests);
+        List<String> sessionIds = new ArrayList<>();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<?>> workers = new ArrayList<>();
+            for (int w = 0; w < plan.concurrency(); w++) {
+                String sessionId = name + "-" + w;
+                sessionIds.add(sessionId);
+                workers.add(executor.submit(() -> work(plan, phase, requests, sessionId)));
+            }
+            for (Future<?> worker : workers) {
+                worker.get();
+            }
+        } catch (Exception e) {
+            throw new IllegalStateException("Load test worker failed", e);
+        } finally {
+            for (String sessionId : sessionIds) {
+                memory.clear(sessionId);
+                sessions.remove(sessionId);
+            }
+        }
+        return phase;
+    }
+
+    private void work(Plan plan, Phase phase, int requests, String sessionId) {
+        int i;
+        while ((i = phase.next.getAndIncrement()) < requests) {
+            String prompt = plan.prompts().get(i % plan.prompts().size());
+            long start = System.nanoTime();
+            try {
+                if (plan.streaming()) {
+                    AtomicLong firstToken = new AtomicLong();
+                    chatService.exchangeStream(sessionId, prompt)
+                            .doOnNext(token -> firstToken.compareAndSet(0L, System.nanoTime()))
+                            .blockLast();
+                    phase.firstTokens[i] = firstToken.get() == 0L ? -1 : firstToken.get() - start;
+                } else {
+                    chatService.exchange(sessionId, prompt);
+                }
+            } catch (RuntimeException e) {
+                phase.errors.incrementAndGet();
+                log.debug("Request {} failed: {}", i, e.getMessage());
+            }
+            phase.latencies[i] = System.nanoTime() - start;
+        }
+    }
+
+    /** Bytes allocated by all threads so far (virtual threads included), or -1 where the JVM cannot tell. */
+    private static long allocatedBytes(ThreadMXBean threads) {
+        if (threads instanceof com.sun.management.ThreadMXBean sun && sun.isThreadAllocatedMemorySupported()
+                && sun.isThreadAllocatedMemoryEnabled()) {
+            return sun.getTotalThreadAllocatedBytes();
+        }
+        return -1;
+    }
+
+    private static long gcCount() {
+        return ManagementFactory.getGarbageCollectorMXBeans().stream()
+                .mapToLong(GarbageCollectorMXBean::getCollectionCount).filter(n -> n > 0).sum();
+    }
+
+    private static long gcMillis() {
+        return ManagementFactory.getGarbageCollectorMXBeans().stream()
+                .mapToLong(GarbageCollectorMXBean::getCollectionTime).filter(n -> n > 0).sum();
+    }
+
+    static long percentile(long[] sorted, double p) {
+        if (sorted.length == 0) return 0;
+        int index = (int) Math.ceil(p / 100 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    static long[] sorted(long[] values) {
+        long[] copy = Arrays.stream(values).filter(v -> v >= 0).toArray();
+        Arrays.sort(copy);
+        return copy;
+    }
+
+    static double millis(long nanos) {
+        return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
@@ -0,0 +1,55 @@
+package com.clockworkideas.kog.shell.service.loadtest;
+
+import static com.clockworkideas.kog.shell.service.loadtest.LoadTestDriver.millis;
+import static com.clockworkideas.kog.shell.service.loadtest.LoadTestDriver.percentile;
+import static com.clockworkideas.kog.shell.service.loadtest.LoadTestDriver.sorted;
+
+/**
+ * Result of one {@link LoadTestDriver} run. Latencies are in nanoseconds; {@code firstTokenLatencies} is null
+ * for blocking runs and {@code allocatedBytes} is -1 when the JVM does not report allocations. Requests that
+ * never reached the model are counted in {@code cacheHits} (of {@code cacheLookups}) and {@code localCommands}.
+ */
+public record LoadTestReport(int concurrency, int requests, int errors, long elapsedNanos,
+                             long[] latencies, long[] firstTokenLatencies,
+                             long allocatedBytes, long gcCount, long gcMillis,
+                             long cacheHits, long cacheLookups, long localCommands) {
+
+    public double throughput() {
+        return requests / (elapsedNanos / 1e9);
+    }
+
+    /** Latency percentile in milliseconds, e.g. {@code latencyMillis(99)}. */
+    public double latencyMillis(double percentile) {
+        return millis(percentile(sorted(latencies), percentile));
+    }
+
+    public double allocationMegabytesPerSecond() {
+        return allocatedBytes < 0 ? -1 : allocatedBytes / 1e6 / (elapsedNanos / 1e9);
+    }
+
+    @Override
+    public String toString() {
+        long[] sorted = sorted(latencies);
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("%d requests, %d sessions, %d errors in %.1f s: %.1f requests/s%n",
+                requests, concurrency, errors, elapsedNanos / 1e9, throughput()));
+        report.append(String.format("latency ms: p50 %.1f, p90 %.1f, p99 %.1f, max %.1f%n",
+                millis(percentile(sorted, 50)), millis(percentile(sorted, 90)),
+                millis(percentile(sorted, 99)), millis(percentile(sorted, 100))));
+        if (firstTokenLatencies != null) {
+            long[] firstTokens = sorted(firstTokenLatencies);
+            report.append(String.format("first token ms: p50 %.1f, p99 %.1f%n",
+                    millis(percentile(firstTokens, 50)), millis(percentile(firstTokens, 99))));
+        }
+        if (allocatedBytes >= 0) {
+            report.append(String.format("allocation: %.1f MB/s, %.1f KB/request; ",
+                    allocationMegabytesPerSecond(), allocatedBytes / 1024.0 / requests));
+        }
+        report.append(String.format("gc: %d collections, %d ms%n", gcCount, gcMillis));
+        report.append(cacheLookups == 0 ? "response cache: not consulted"
+                : String.format("response cache: %d hits of %d lookups (%.0f%%)", cacheHits, cacheLookups,
+                        100.0 * cacheHits / cacheLookups));
+        report.append(String.format("; local commands: %d", localCommands));
+        return report.toString();
+    }
+}
@@ -0,0 +1,60 @@
+package com.clockworkideas.kog.shell.service.loadtest;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.ApplicationContext;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * Runs a load test at startup when {@code kog.loadtest.enabled=true} and logs the report, e.g.
+ * {@code --kog.stub.enabled=true --kog.loadtest.enabled=true --kog.loadtest.concurrency=64}.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = "kog.loadtest.enabled", havingValue = "true")
+public class LoadTestRunner implements ApplicationRunner {
+
+    private final LoadTestDriver driver;
+    private final ApplicationContext context;
+
+    @Value("${kog.loadtest.concurrency:16}")
+    private int concurrency = 16;
+
+    @Value("${kog.loadtest.requests:1000}")
+    private int requests = 1000;
+
+    @Value("${kog.loadtest.warmup-requests:100}")
+    private int warmupRequests = 100;
+
+    @Value("${kog.loadtest.prompts:list the files here}")
+    private List<String> prompts = List.of("list the files here");
+
+    @Value("${kog.loadtest.stream:false}")
+    private boolean stream;
+
+    /** Let blocking requests be answered from the response cache, as repeated prompts would be in production. */
+    @Value("${kog.loadtest.response-cache:false}")
+    private boolean responseCache;
+
+    /** Shut the application down once the report is logged. */
+    @Value("${kog.loadtest.exit:true}")
+    private boolean exit = true;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        LoadTestReport report = driver.run(new LoadTestDriver.Plan(concurrency, requests, warmupRequests, prompts, stream,
+                responseCache));
+        log.info("Load test finished:\n{}", report);
+        if (exit) {
+            System.exit(SpringApplication.exit(context, () -> report.errors() == 0 ? 0 : 1));
+        }
+    }
+}
@@ -0,0 +1,262 @@
+package com.clockworkideas.kog.shell.service.memory;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Per-conversation chat history with a token budget, so follow-up prompts see the earlier turns while the
+ * prompt stays about the same size however long the conversation runs.
+ * <p>
+ * When a conversation exceeds {@code kog.memory.max-tokens} it is compacted, cheapest loss first: large tool
+ * results, tool arguments and answers of older turns are truncated, then the older turns are folded into one
+ * summary message (what was asked, which tools ran, the start of each answer). The last
+ * {@code kog.memory.recent-turns} turns are kept verbatim unless they alone exceed the budget, and the last
+ * turn is never folded, only truncated when it alone does. A turn starts at a user message, so an
+ * assistant's tool calls always stay together with their results.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class ConversationMemory {
+
+    private static final ObjectMapper JSON = new ObjectMapper();
+    private static final int LOCK_STRIPES = 64;
+
+    @Value("${kog.memory.enabled:true}")
+    private boolean enabled = true;
+
+    @Value("${kog.memory.max-tokens:8000}")
+    private int maxTokens = 8000;
+
+    @Value("${kog.memory.recent-turns:4}")
+    private int recentTurns = 4;
+
+    @Value("${kog.memory.tool-output-chars:1000}")
+    private int toolOutputChars = 1000;
+
+    @Value("${kog.memory.summary-chars:4000}")
+    private int summaryChars = 4000;
+
+    private final ConversationStore store;
+    private final Object[] locks = newLocks();
+
+    /** The remembered messages to send before the new prompt; empty when memory is disabled. */
+    public List<Message> history(String sessionId) {
+        if (!enabled) return List.of();
+        return store.load(sessionId).stream().map(StoredMessage::toMessage).toList();
+    }
+
+    /**
+     * SHA-256 of the current history, so cached answers are only reused for the same conversation state. A
+     * weaker hash could collide and serve an answer computed for a different conversation.
+     */
+    public String digest(String sessionId) {
+        if (!enabled) return "";
+        List<StoredMessage> messages = store.load(sessionId);
+        if (messages.isEmpty()) return "";
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(JSON.writeValueAsBytes(messages));
+            return HexFormat.of().formatHex(hash);
+        } catch (JsonProcessingException | NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Cannot digest conversation " + sessionId, e);
+        }
+    }
+
+    /** Remember the messages of a finished turn: the prompt, any tool rounds and the final answer. */
+    public void record(String sessionId, List<Message> turn) {
+        if (!enabled) return;
+        List<StoredMessage> converted = turn.stream().map(StoredMessage::from).filter(Objects::nonNull).toList();
+        if (converted.isEmpty()) return;
+        synchronized (lock(sessionId)) {
+            store.append(sessionId, converted);
+            List<StoredMessage> messages = store.load(sessionId);
+            if (tokens(messages) > maxTokens) {
+                List<StoredMessage> compacted = compact(messages);
+                log.debug("Compacted conversation {} from {} to {} estimated tokens", sessionId, tokens(messages), tokens(compacted));
+                store.replace(sessionId, compacted);
+            }
+        }
+    }
+
+    public void clear(String sessionId) {
+        synchronized (lock(sessionId)) {
+            store.delete(sessionId);
+        }
+    }
+
+    List<StoredMessage> compact(List<StoredMessage> messages) {
+        String summary = "";
+        List<List<StoredMessage>> turns = new ArrayList<>();
+        for (StoredMessage message : messages) {
+            if (message.type() == StoredMessage.Type.SUMMARY) {
+                summary = message.text();
+            } else if (message.type() == StoredMessage.Type.USER || turns.isEmpty()) {
+                turns.add(new ArrayList<>(List.of(message)));
+            } else {
+                turns.get(turns.size() - 1).add(message);
+            }
+        }
+
+        // 1. Large tool output in older turns
+        int older = Math.max(0, turns.size() - recentTurns);
+        for (int i = 0; i < older; i++) {
+            turns.set(i, shrink(turns.get(i)));
+        }
+        List<StoredMessage> result = assemble(summary, turns, 0);
+        if (tokens(result) <= maxTokens) return result;
+
+        // 2. Older turns become summary lines
+        Deque<String> lines = new ArrayDeque<>(summary.isEmpty() ? List.of() : List.of(summary.split("\n")));
+        int folded = 0;
+        for (; folded < older; folded++) {
+            lines.add(summarize(turns.get(folded)));
+        }
+        result = assemble(cap(lines), turns, folded);
+        if (tokens(result) <= maxTokens) return result;
+
+        // 3. Still too large: shrink recent turns too, then fold them oldest first, always keeping the last one
+        for (int i = folded; i < turns.size() - 1; i++) {
+            turns.set(i, shrink(turns.get(i)));
+        }
+        result = assemble(cap(lines), turns, folded);
+        while (tokens(result) > maxTokens && folded < turns.size() - 1) {
+            lines.add(summarize(turns.get(folded++)));
+            result = assemble(cap(lines), turns, folded);
+        }
+
+        // 4. The last turn alone is too large (a local command's output, say): shrink it as well
+        if (tokens(result) > maxTokens && !turns.isEmpty()) {
+            turns.set(turns.size() - 1, shrink(turns.get(turns.size() - 1)));
+            result = assemble(cap(lines), turns, folded);
+        }
+        return result;
+    }
+
+    private static List<StoredMessage> assemble(String summary, List<List<StoredMessage>> turns, int from) {
+        List<StoredMessage> result = new ArrayList<>();
+        if (!summary.isEmpty()) result.add(StoredMessage.summary(summary));
+        for (int i = from; i < turns.size(); i++) {
+            result.addAll(turns.get(i));
+        }
+        return result;
+    }
+
+    /** Joins summary lines, dropping the oldest once past {@code summary-chars}. */
+    private String cap(Deque<String> lines) {
+        int length = 0;
+        for (String line : lines) length += line.length() + 1;
+        while (length > summaryChars && lines.size() > 1) {
+            length -= lines.removeFirst().length() + 1;
+        }
+        return String.join("\n", lines);
+    }
+
+    /** One line per turn: the request, the tools it used and the first sentence of the answer. */
+    private static String summarize(List<StoredMessage> turn) {
+        String request = "";
+        String answer = "";
+        Set<String> tools = new LinkedHashSet<>();
+        for (StoredMessage message : turn) {
+            switch (message.type()) {
+                case USER -> request = message.text();
+                case ASSISTANT -> {
+                    message.toolCalls().forEach(call -> tools.add(call.name()));
+                    if (!message.text().isBlank()) answer = message.text();
+                }
+                default -> {
+                }
+            }
+        }
+        StringBuilder line = new StringBuilder("- User: ").append(clip(oneLine(request), 200));
+        if (!tools.isEmpty()) line.append(" | tools: ").append(String.join(", ", tools));
+        if (!answer.isEmpty()) line.append(" | answer: ").append(clip(firstSentence(oneLine(answer)), 200));
+        return line.toString();
+    }
+
+    private List<StoredMessage> shrink(List<StoredMessage> turn) {
+        List<StoredMessage> result = new ArrayList<>(turn.size());
+        for (StoredMessage message : turn) {
+            result.add(switch (message.type()) {
+                case TOOL -> new StoredMessage(message.type(), message.text(), null, message.toolResults().stream()
+                        .map(r -> new StoredMessage.ToolResult(r.id(), r.name(), truncate(r.data())))
+                        .toList());
+                case ASSISTANT -> new StoredMessage(message.type(), truncate(message.text()), message.toolCalls().stream()
+                        .map(c -> new StoredMessage.ToolCall(c.id(), c.name(), shrinkArguments(c.arguments())))
+                        .toList(), null);
+                default -> message;
+            });
+        }
+        return result;
+    }
+
+    /** Arguments must stay valid JSON for the provider, so long string values are truncated in place. */
+    private String shrinkArguments(String arguments) {
+        if (arguments == null || arguments.length() <= toolOutputChars) return arguments;
+        try {
+            JsonNode node = JSON.readTree(arguments);
+            if (!(node instanceof ObjectNode object)) return "{}";
+            Iterator<Map.Entry<String, JsonNode>> fields = object.fields();
+            while (fields.hasNext()) {
+                Map.Entry<String, JsonNode> field = fields.next();
+                if (field.getValue().isTextual()) field.setValue(object.textNode(truncate(field.getValue().asText())));
+            }
+            return JSON.writeValueAsString(object);
+        } catch (Exception e) {
+            return "{}";
+        }
+    }
+
+    private String truncate(String text) {
+        if (text == null || text.length() <= toolOutputChars) return text;
+        return text.substring(0, toolOutputChars) + "... [" + (text.length() - toolOutputChars) + " characters omitted]";
+    }
+
+    private static String oneLine(String text) {
+        return text.strip().replaceAll("\\s+", " ");
+    }
+
+    private static String firstSentence(String text) {
+        int end = text.indexOf(". ");
+        return end < 0 ? text : text.substring(0, end + 1);
+    }
+
+    private static String clip(String text, int max) {
+        return text.length() <= max ? text : text.substring(0, max) + "...";
+    }
+
+    private static int tokens(List<StoredMessage> messages) {
+        int total = 0;
+        for (StoredMessage message : messages) total += message.estimatedTokens();
+        return total;
+    }
+
+    private Object lock(String sessionId) {
+        return locks[Math.floorMod(sessionId.hashCode(), LOCK_STRIPES)];
+    }
+
+    private static Object[] newLocks() {
+        Object[] locks = new Object[LOCK_STRIPES];
+        for (int i = 0; i < locks.length; i++) locks[i] = new Object();
+        return locks;
+    }
+}
@@ -0,0 +1,21 @@
+package com.clockworkideas.kog.shell.service.memory;
+
+import java.util.List;
+
+/**
+ * Where conversation histories are kept. {@code kog.memory.store} selects the implementation:
+ * {@code memory} (default) or {@code file}.
+ */
+public interface ConversationStore {
+
+    /** The stored history of {@code sessionId}, oldest first; empty if none. */
+    List<StoredMessage> load(String sessionId);
+
+    /** Add {@code messages} to the end of the history. */
+    void append(String sessionId, List<StoredMessage> messages);
+
+    /** Replace the whole history, e.g. after compaction. */
+    void replace(String sessionId, List<StoredMessage> messages);
+
+    void delete(String sessionId);
+}
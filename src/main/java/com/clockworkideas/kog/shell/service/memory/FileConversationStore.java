@@ -0,0 +1,142 @@
+package com.clockworkideas.kog.shell.service.memory;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Histories kept in append-only JSON-lines files, one per conversation, so they survive restarts. Each line is
+ * either {@code append} (messages added by a turn) or {@code reset} (the whole history after compaction);
+ * loading replays the file from the last reset. Once a file outgrows {@code kog.memory.file-compact-bytes} it is
+ * atomically rewritten to a single reset line. Recently used histories are also kept on the heap so a turn does
+ * not re-read its file.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "kog.memory.store", havingValue = "file")
+public class FileConversationStore implements ConversationStore {
+
+    private static final ObjectMapper JSON = new ObjectMapper();
+
+    @Value("${kog.memory.dir:${user.home}/.kog/conversations}")
+    private String dir = System.getProperty("user.home") + "/.kog/conversations";
+
+    @Value("${kog.memory.file-compact-bytes:1048576}")
+    private long compactBytes = 1024 * 1024;
+
+    @Value("${kog.memory.max-sessions:1000}")
+    private int maxSessions = 1000;
+
+    private record Line(String op, List<StoredMessage> messages) {
+    }
+
+    private final LinkedHashMap<String, List<StoredMessage>> loaded = new LinkedHashMap<>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, List<StoredMessage>> eldest) {
+            return size() > maxSessions;
+        }
+    };
+
+    @Override
+    public synchronized List<StoredMessage> load(String sessionId) {
+        List<StoredMessage> messages = loaded.get(sessionId);
+        if (messages == null) {
+            messages = read(file(sessionId));
+            loaded.put(sessionId, messages);
+        }
+        return List.copyOf(messages);
+    }
+
+    @Override
+    public synchronized void append(String sessionId, List<StoredMessage> messages) {
+        if (messages.isEmpty()) return;
+        List<StoredMessage> current = new ArrayList<>(load(sessionId));
+        current.addAll(messages);
+        write(sessionId, new Line("append", messages), current);
+    }
+
+    @Override
+    public synchronized void replace(String sessionId, List<StoredMessage> messages) {
+        write(sessionId, new Line("reset", messages), new ArrayList<>(messages));
+    }
+
+    @Override
+    public synchronized void delete(String sessionId) {
+        loaded.remove(sessionId);
+        try {
+            Files.deleteIfExists(file(sessionId));
+        } catch (IOException e) {
+            log.warn("Failed to delete conversation file for {}: {}", sessionId, e.getMessage());
+        }
+    }
+
+    private void write(String sessionId, Line line, List<StoredMessage> after) {
+        Path file = file(sessionId);
+        try {
+            Files.createDirectories(file.getParent());
+            byte[] bytes = (JSON.writeValueAsString(line) + "\n").getBytes(StandardCharsets.UTF_8);
+            if (Files.exists(file) && Files.size(file) + bytes.length > compactBytes) {
+                // Rewrite to one reset line; readers never see a half-written file
+                byte[] reset = (JSON.writeValueAsString(new Line("reset", after)) + "\n").getBytes(StandardCharsets.UTF_8);
+                Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+                Files.write(tmp, reset);
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } else {
+                Files.write(file, bytes, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            }
+            loaded.put(sessionId, after);
+        } catch (IOException e) {
+            // Keep the conversation going from memory; it just will not survive a restart
+            log.warn("Failed to write conversation file {}: {}", file, e.getMessage());
+            loaded.put(sessionId, after);
+        }
+    }
+
+    private static List<StoredMessage> read(Path file) {
+        List<StoredMessage> messages = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String text;
+            while ((text = reader.readLine()) != null) {
+                if (text.isBlank()) continue;
+                Line line;
+                try {
+                    line = JSON.readValue(text, Line.class);
+                } catch (JsonProcessingException e) {
+                    // A torn last line from a crash mid-append; everything before it is intact
+                    log.warn("Skipping unreadable line in {}: {}", file, e.getOriginalMessage());
+                    continue;
+                }
+                if ("reset".equals(line.op())) messages.clear();
+                if (line.messages() != null) messages.addAll(line.messages());
+            }
+        } catch (NoSuchFileException e) {
+            return messages;
+        } catch (IOException e) {
+            log.warn("Ignoring unreadable conversation file {}: {}", file, e.getMessage());
+        }
+        return messages;
+    }
+
+    private Path file(String sessionId) {
+        String name = Base64.getUrlEncoder().withoutPadding().encodeToString(sessionId.getBytes(StandardCharsets.UTF_8));
+        return Paths.get(dir).resolve(name + ".jsonl");
+    }
+}
@@ -0,0 +1,47 @@
+package com.clockworkideas.kog.shell.service.memory;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/** Histories kept on the heap; the least recently used conversation is dropped past {@code kog.memory.max-sessions}. */
+@Component
+@ConditionalOnProperty(name = "kog.memory.store", havingValue = "memory", matchIfMissing = true)
+public class InMemoryConversationStore implements ConversationStore {
+
+    @Value("${kog.memory.max-sessions:1000}")
+    private int maxSessions = 1000;
+
+    private final LinkedHashMap<String, List<StoredMessage>> conversations = new LinkedHashMap<>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, List<StoredMessage>> eldest) {
+            return size() > maxSessions;
+        }
+    };
+
+    @Override
+    public synchronized List<StoredMessage> load(String sessionId) {
+        List<StoredMessage> messages = conversations.get(sessionId);
+        return messages == null ? List.of() : List.copyOf(messages);
+    }
+
+    @Override
+    public synchronized void append(String sessionId, List<StoredMessage> messages) {
+        conversations.computeIfAbsent(sessionId, id -> new ArrayList<>()).addAll(messages);
+    }
+
+    @Override
+    public synchronized void replace(String sessionId, List<StoredMessage> messages) {
+        conversations.put(sessionId, new ArrayList<>(messages));
+    }
+
+    @Override
+    public synchronized void delete(String sessionId) {
+        conversations.remove(sessionId);
+    }
+}
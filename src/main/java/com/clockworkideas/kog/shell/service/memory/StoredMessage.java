@@ -0,0 +1,91 @@
+package com.clockworkideas.kog.shell.service.memory;
+
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Storage form of a chat message: plain text plus tool calls or tool results, so conversations can be kept
+ * in memory or written as JSON without depending on the chat client's message classes.
+ * A {@code SUMMARY} holds the compacted digest of older turns and is sent as a system message.
+ */
+public record StoredMessage(Type type, String text, List<ToolCall> toolCalls, List<ToolResult> toolResults) {
+
+    public enum Type { USER, ASSISTANT, TOOL, SUMMARY }
+
+    public record ToolCall(String id, String name, String arguments) {
+    }
+
+    public record ToolResult(String id, String name, String data) {
+    }
+
+    private static final String SUMMARY_HEADER = "Summary of the earlier conversation:\n";
+
+    public StoredMessage {
+        text = text == null ? "" : text;
+        toolCalls = toolCalls == null ? List.of() : List.copyOf(toolCalls);
+        toolResults = toolResults == null ? List.of() : List.copyOf(toolResults);
+    }
+
+    public static StoredMessage user(String text) {
+        return new StoredMessage(Type.USER, text, null, null);
+    }
+
+    public static StoredMessage assistant(String text) {
+        return new StoredMessage(Type.ASSISTANT, text, null, null);
+    }
+
+    public static StoredMessage summary(String text) {
+        return new StoredMessage(Type.SUMMARY, text, null, null);
+    }
+
+    /** Convert a chat message; system messages and other types are not remembered and yield null. */
+    public static StoredMessage from(Message message) {
+        if (message instanceof UserMessage user) {
+            return user(user.getText());
+        }
+        if (message instanceof AssistantMessage assistant) {
+            List<ToolCall> calls = assistant.getToolCalls().stream()
+                    .map(call -> new ToolCall(call.id(), call.name(), call.arguments()))
+                    .toList();
+            return new StoredMessage(Type.ASSISTANT, assistant.getText(), calls, null);
+        }
+        if (message instanceof ToolResponseMessage tool) {
+            List<ToolResult> results = tool.getResponses().stream()
+                    .map(response -> new ToolResult(response.id(), response.name(), response.responseData()))
+                    .toList();
+            return new StoredMessage(Type.TOOL, null, null, results);
+        }
+        return null;
+    }
+
+    public Message toMessage() {
+        return switch (type) {
+            case USER -> new UserMessage(text);
+            case SUMMARY -> new SystemMessage(SUMMARY_HEADER + text);
+            case ASSISTANT -> new AssistantMessage(text, Map.of(), toolCalls.stream()
+                    .map(call -> new AssistantMessage.ToolCall(call.id(), "function", call.name(), call.arguments()))
+                    .toList());
+            case TOOL -> new ToolResponseMessage(toolResults.stream()
+                    .map(result -> new ToolResponseMessage.ToolResponse(result.id(), result.name(), result.data()))
+                    .toList());
+        };
+    }
+
+    /** Rough token count (about four characters per token) used for the memory budget. */
+    public int estimatedTokens() {
+        long chars = text.length();
+        for (ToolCall call : toolCalls) {
+            chars += call.name().length() + (call.arguments() == null ? 0 : call.arguments().length());
+        }
+        for (ToolResult result : toolResults) {
+            chars += result.name().length() + (result.data() == null ? 0 : result.data().length());
+        }
+        return (int) Math.min(Integer.MAX_VALUE, 4 + chars / 4);
+    }
+}
@@ -0,0 +1,64 @@
+package com.clockworkideas.kog.shell.service.metrics;
+
+import com.clockworkideas.kog.shell.service.cache.ResponseCache;
+import com.clockworkideas.kog.shell.service.fastpath.LocalCommandDispatcher;
+import com.clockworkideas.kog.shell.service.ratelimit.ModelRateLimiter;
+import com.clockworkideas.kog.shell.service.session.ShellSessionRegistry;
+import com.clockworkideas.kog.shell.service.tools.AppendWriterPool;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+/**
+ * Exposes the counters the components already keep (response cache, fast path, append pool, sessions, model
+ * rate limiter) as function meters; they are read when scraped, so nothing is added to the request path.
+ */
+@Component
+@RequiredArgsConstructor
+public class ComponentMetrics implements MeterBinder {
+
+    private final ResponseCache responseCache;
+    private final LocalCommandDispatcher localCommands;
+    private final AppendWriterPool appendWriters;
+    private final ShellSessionRegistry sessions;
+    private final ModelRateLimiter rateLimiter;
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("kog.cache.requests", responseCache, ResponseCache::getHits)
+                .tag("result", "hit").description("Response cache lookups").register(registry);
+        FunctionCounter.builder("kog.cache.requests", responseCache, ResponseCache::getMisses)
+                .tag("result", "miss").description("Response cache lookups").register(registry);
+        FunctionCounter.builder("kog.cache.evictions", responseCache, ResponseCache::getEvictions)
+                .description("Responses evicted from the cache").register(registry);
+        Gauge.builder("kog.cache.size", responseCache, ResponseCache::size)
+                .description("Cached responses").register(registry);
+
+        FunctionCounter.builder("kog.fastpath.commands", localCommands, LocalCommandDispatcher::getDispatched)
+                .tag("result", "local").description("Inputs answered locally or passed to the model").register(registry);
+        FunctionCounter.builder("kog.fastpath.commands", localCommands, LocalCommandDispatcher::getDeferred)
+                .tag("result", "model").description("Inputs answered locally or passed to the model").register(registry);
+
+        FunctionCounter.builder("kog.append.lines", appendWriters, AppendWriterPool::getAppends)
+                .description("Appends queued to the append pool").register(registry);
+        FunctionCounter.builder("kog.append.batches", appendWriters, AppendWriterPool::getBatches)
+                .description("Group-committed append writes").register(registry);
+        Gauge.builder("kog.append.open-handles", appendWriters, AppendWriterPool::getOpenHandles)
+                .description("Open pooled append handles").register(registry);
+
+        Gauge.builder("kog.sessions", sessions, ShellSessionRegistry::size)
+                .description("Live shell sessions").register(registry);
+
+        FunctionCounter.builder("kog.llm.rate-limited", rateLimiter, ModelRateLimiter::getRateLimited)
+                .description("Model requests rejected by the provider with 429").register(registry);
+        FunctionCounter.builder("kog.llm.throttled", rateLimiter, ModelRateLimiter::getWaits)
+                .description("Model requests that waited for quota or a concurrency slot").register(registry);
+        Gauge.builder("kog.llm.concurrency-limit", rateLimiter, ModelRateLimiter::getConcurrencyLimit)
+                .description("Current adaptive limit on in-flight model requests").register(registry);
+        Gauge.builder("kog.llm.in-flight", rateLimiter, ModelRateLimiter::getInFlight)
+                .description("Model requests in flight").register(registry);
+    }
+}
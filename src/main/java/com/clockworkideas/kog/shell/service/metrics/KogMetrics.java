@@ -0,0 +1,150 @@
+package com.clockworkideas.kog.shell.service.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.ai.chat.metadata.Usage;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Meters for model calls and tool I/O. Every meter is registered up front and held in a field, so recording
+ * is a plain method call on an existing meter: no tag arrays or registry lookups on the request path.
+ * Per-tool timers live with the tool callbacks (see {@code ToolRegistry}); hit rates of the response cache,
+ * the fast path and the append pool are bound by {@link ComponentMetrics}.
+ */
+@Component
+public class KogMetrics {
+
+    public static final String LLM_LATENCY = "kog.llm.latency";
+    public static final String LLM_TTFT = "kog.llm.time-to-first-token";
+    public static final String LLM_TOKENS = "kog.llm.tokens";
+    public static final String LLM_TOOL_CALLS = "kog.llm.tool-calls";
+    public static final String TOOL_LATENCY = "kog.tool.latency";
+    public static final String TOOL_BYTES = "kog.tool.bytes";
+    public static final String TOOL_SCHEMA_TOKENS_SAVED = "kog.tools.schema-tokens-saved";
+    public static final String TOOL_ROUTE_WIDENED = "kog.tools.route-widened";
+    public static final String TOOL_RESULT_TOKENS_SAVED = "kog.tools.result-tokens-saved";
+
+    private final MeterRegistry registry;
+    private final Timer callLatency;
+    private final Timer callErrors;
+    private final Timer streamLatency;
+    private final Timer streamErrors;
+    private final Timer timeToFirstToken;
+    private final Counter promptTokens;
+    private final Counter completionTokens;
+    private final DistributionSummary toolCallsPerTurn;
+    private final Counter bytesRead;
+    private final Counter bytesWritten;
+    private final DistributionSummary schemaTokensSaved;
+    private final Counter routeWidened;
+    private final DistributionSummary resultTokensSaved;
+
+    public KogMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        this.callLatency = llmTimer("call", "success");
+        this.callErrors = llmTimer("call", "error");
+        this.streamLatency = llmTimer("stream", "success");
+        this.streamErrors = llmTimer("stream", "error");
+        this.timeToFirstToken = Timer.builder(LLM_TTFT)
+                .description("Time from request to the first streamed token")
+                .publishPercentileHistogram()
+                .register(registry);
+        this.promptTokens = tokens("prompt");
+        this.completionTokens = tokens("completion");
+        this.toolCallsPerTurn = DistributionSummary.builder(LLM_TOOL_CALLS)
+                .description("Tool calls made while answering one prompt")
+                .publishPercentileHistogram()
+                .register(registry);
+        this.bytesRead = Counter.builder(TOOL_BYTES).tag("direction", "read")
+                .description("Bytes read from files by the tools").baseUnit("bytes").register(registry);
+        this.bytesWritten = Counter.builder(TOOL_BYTES).tag("direction", "written")
+                .description("Bytes written to files by the tools").baseUnit("bytes").register(registry);
+        this.schemaTokensSaved = DistributionSummary.builder(TOOL_SCHEMA_TOKENS_SAVED)
+                .description("Estimated tool schema tokens not sent with a model request")
+                .baseUnit("tokens")
+                .register(registry);
+        this.routeWidened = Counter.builder(TOOL_ROUTE_WIDENED)
+                .description("Exchanges repeated with every tool after the model asked for one it was not offered")
+                .register(registry);
+        this.resultTokensSaved = DistributionSummary.builder(TOOL_RESULT_TOKENS_SAVED)
+                .description("Estimated tokens of a tool result replaced by an excerpt because it was over budget")
+                .baseUnit("tokens")
+                .register(registry);
+    }
+
+    /** Latency timer for one tool and outcome ({@code success} or {@code error}); call once per tool at startup. */
+    public Timer toolTimer(String tool, String outcome) {
+        return Timer.builder(TOOL_LATENCY)
+                .description("Tool call latency")
+                .tag("tool", tool)
+                .tag("outcome", outcome)
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+
+    /** Record a blocking model exchange, including the tool calls it triggered. */
+    public void llmCall(long startNanos, boolean failed, Usage usage, int toolCalls) {
+        (failed ? callErrors : callLatency).record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        tokens(usage);
+        toolCallsPerTurn.record(toolCalls);
+    }
+
+    /** Record a finished stream; {@code firstTokenNanos} is 0 if no token arrived. */
+    public void llmStream(long startNanos, long firstTokenNanos, boolean failed, Usage usage, int toolCalls) {
+        (failed ? streamErrors : streamLatency).record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        if (firstTokenNanos != 0L) {
+            timeToFirstToken.record(firstTokenNanos - startNanos, TimeUnit.NANOSECONDS);
+        }
+        tokens(usage);
+        toolCallsPerTurn.record(toolCalls);
+    }
+
+    public void bytesRead(long bytes) {
+        if (bytes > 0) bytesRead.increment(bytes);
+    }
+
+    public void bytesWritten(long bytes) {
+        if (bytes > 0) bytesWritten.increment(bytes);
+    }
+
+    public void toolSchemaTokensSaved(int tokens) {
+        schemaTokensSaved.record(tokens);
+    }
+
+    public void toolRouteWidened() {
+        routeWidened.increment();
+    }
+
+    public void toolResultTokensSaved(int tokens) {
+        resultTokensSaved.record(tokens);
+    }
+
+    private void tokens(Usage usage) {
+        if (usage == null) return;
+        Integer prompt = usage.getPromptTokens();
+        Integer completion = usage.getCompletionTokens();
+        if (prompt != null && prompt > 0) promptTokens.increment(prompt);
+        if (completion != null && completion > 0) completionTokens.increment(completion);
+    }
+
+    private Timer llmTimer(String mode, String outcome) {
+        return Timer.builder(LLM_LATENCY)
+                .description("Model exchange latency, including tool calls")
+                .tag("mode", mode)
+                .tag("outcome", outcome)
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+
+    private Counter tokens(String type) {
+        return Counter.builder(LLM_TOKENS)
+                .description("Tokens reported by the model provider")
+                .tag("type", type)
+                .baseUnit("tokens")
+                .register(registry);
+    }
+}
@@ -0,0 +1,229 @@
+package com.clockworkideas.kog.shell.service.ratelimit;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestClientResponseException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Admission control for model requests, shared by every caller so concurrent exchanges stay inside the
+ * provider's quotas instead of discovering them through errors.
+ * <p>
+ * Two token buckets refill continuously from {@code kog.llm.requests-per-minute} and
+ * {@code kog.llm.tokens-per-minute} (0 disables either). A request reserves its estimated prompt tokens and
+ * settles the difference once the provider reports usage. In-flight requests are capped by an adaptive limit
+ * that starts at {@code kog.llm.max-concurrency}: a 429 response halves it and pauses all callers for an
+ * exponentially growing backoff, and every success raises it again by about one request per round trip.
+ */
+@Slf4j
+@Component
+public class ModelRateLimiter {
+
+    @Value("${kog.llm.requests-per-minute:0}")
+    private int requestsPerMinute;
+
+    @Value("${kog.llm.tokens-per-minute:0}")
+    private int tokensPerMinute;
+
+    @Value("${kog.llm.max-concurrency:16}")
+    private int maxConcurrency = 16;
+
+    @Value("${kog.llm.max-retries:5}")
+    private int maxRetries = 5;
+
+    @Value("${kog.llm.backoff-initial:1s}")
+    private Duration initialBackoff = Duration.ofSeconds(1);
+
+    @Value("${kog.llm.backoff-max:60s}")
+    private Duration maxBackoff = Duration.ofSeconds(60);
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+
+    // Guarded by lock
+    private double limit = -1;
+    private int inFlight;
+    private double requestCredit;
+    private double tokenCredit;
+    private long refilledAt = System.nanoTime();
+    private long pausedUntil;
+    private long backoffNanos;
+
+    private final AtomicLong rateLimited = new AtomicLong();
+    private final AtomicLong waits = new AtomicLong();
+
+    /** One admitted request; exactly one of {@link #release(long)}, {@link #fail(Throwable)} or {@link #cancel()} must follow. */
+    public final class Permit {
+        private final long reservedTokens;
+        private boolean done;
+
+        private Permit(long reservedTokens) {
+            this.reservedTokens = reservedTokens;
+        }
+
+        /** The request succeeded and used {@code actualTokens} (0 if the provider did not say). */
+        public void release(long actualTokens) {
+            finish(this, actualTokens > 0 ? actualTokens - reservedTokens : 0, true, null);
+        }
+
+        /** The request failed; a 429 lowers the concurrency limit and pauses callers. */
+        public void fail(Throwable error) {
+            finish(this, 0, false, error);
+        }
+
+        /** The caller gave up on the request; says nothing about the provider, so the limit and backoff stay. */
+        public void cancel() {
+            finish(this, 0, false, null);
+        }
+    }
+
+    /** Wait until a request with about {@code estimatedTokens} prompt tokens may be sent. */
+    public Permit acquire(long estimatedTokens) {
+        lock.lock();
+        try {
+            if (limit < 0) {
+                limit = maxConcurrency;
+                requestCredit = requestsPerMinute;
+                tokenCredit = tokensPerMinute;
+            }
+            // A prompt larger than the whole bucket would never fit; let it through once the bucket is full
+            long needTokens = tokensPerMinute > 0 ? Math.min(estimatedTokens, tokensPerMinute) : 0;
+            boolean waited = false;
+            while (true) {
+                long now = System.nanoTime();
+                refill(now);
+                long waitNanos;
+                if (now < pausedUntil) {
+                    waitNanos = pausedUntil - now;
+                } else if (inFlight >= Math.max(1, (int) limit)) {
+                    waitNanos = Long.MAX_VALUE;
+                } else if (requestsPerMinute > 0 && requestCredit < 1) {
+                    waitNanos = nanosToEarn(1 - requestCredit, requestsPerMinute);
+                } else if (needTokens > 0 && tokenCredit < needTokens) {
+                    waitNanos = nanosToEarn(needTokens - tokenCredit, tokensPerMinute);
+                } else {
+                    break;
+                }
+                waited = true;
+                if (waitNanos == Long.MAX_VALUE) changed.await();
+                else changed.awaitNanos(waitNanos);
+            }
+            if (waited) waits.incrementAndGet();
+            inFlight++;
+            if (requestsPerMinute > 0) requestCredit -= 1;
+            if (tokensPerMinute > 0) tokenCredit -= estimatedTokens;
+            return new Permit(estimatedTokens);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Interrupted while waiting to call the model");
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void finish(Permit permit, long tokenCorrection, boolean succeeded, Throwable error) {
+        lock.lock();
+        try {
+            if (permit.done) return;
+            permit.done = true;
+            inFlight--;
+            // Usage above the estimate is owed to the bucket, below it is refunded
+            if (tokensPerMinute > 0) tokenCredit -= tokenCorrection;
+            if (succeeded) {
+                limit = Math.min(maxConcurrency, limit + 1 / Math.max(1, limit));
+                backoffNanos = 0;
+            } else if (isRateLimited(error)) {
+                rateLimited.incrementAndGet();
+                limit = Math.max(1, limit / 2);
+                backoffNanos = backoffNanos == 0 ? initialBackoff.toNanos() : Math.min(maxBackoff.toNanos(), backoffNanos * 2);
+                // Jitter so callers released together do not hit the provider together
+                long pause = backoffNanos / 2 + ThreadLocalRandom.current().nextLong(backoffNanos / 2 + 1);
+                pausedUntil = Math.max(pausedUntil, System.nanoTime() + pause);
+                log.debug("Rate limited by the provider; concurrency limit {}, pausing {} ms", (int) limit, TimeUnit.NANOSECONDS.toMillis(pause));
+            }
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void refill(long now) {
+        double minutes = (now - refilledAt) / 60e9;
+        refilledAt = now;
+        if (requestsPerMinute > 0) requestCredit = Math.min(requestsPerMinute, requestCredit + minutes * requestsPerMinute);
+        if (tokensPerMinute > 0) tokenCredit = Math.min(tokensPerMinute, tokenCredit + minutes * tokensPerMinute);
+    }
+
+    private static long nanosToEarn(double missing, int perMinute) {
+        return Math.max(1_000_000L, (long) (missing / perMinute * 60e9));
+    }
+
+    /** Whether the provider rejected the request for exceeding a rate limit (HTTP 429). */
+    public static boolean isRateLimited(Throwable error) {
+        for (Throwable t = error; t != null; t = t.getCause()) {
+            if (t instanceof RestClientResponseException e && e.getStatusCode().value() == 429) return true;
+            if (t instanceof WebClientResponseException e && e.getStatusCode().value() == 429) return true;
+            // Spring AI's response error handler reports the status as the start of the message
+            String message = t.getMessage();
+            if (message != null && (message.startsWith("429 ") || message.contains("rate_limit_exceeded"))) return true;
+            if (t.getCause() == t) break;
+        }
+        return false;
+    }
+
+    /** Rough prompt size (about four characters per token) reserved before the provider reports usage. */
+    public static long estimateTokens(List<Message> messages) {
+        long chars = 0;
+        for (Message message : messages) {
+            if (message.getText() != null) chars += message.getText().length();
+            if (message instanceof ToolResponseMessage tool) {
+                for (ToolResponseMessage.ToolResponse response : tool.getResponses()) {
+                    if (response.responseData() != null) chars += response.responseData().length();
+                }
+            }
+        }
+        return 1 + chars / 4;
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    public long getRateLimited() {
+        return rateLimited.get();
+    }
+
+    public long getWaits() {
+        return waits.get();
+    }
+
+    public double getConcurrencyLimit() {
+        lock.lock();
+        try {
+            return limit < 0 ? maxConcurrency : limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.clockworkideas.kog.shell.service.session;
+
+import lombok.Getter;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.UnaryOperator;
+
+/**
+ * Per-conversation shell state: working directory, environment overlay and a cache of expanded paths.
+ * Fields are read and written without locking. A conversation's tool calls may run concurrently, but calls
+ * that change the working directory run alone (see {@code ConcurrentToolDispatcher}), and different
+ * conversations never share an instance.
+ */
+public class ShellSession {
+
+    private static final int MAX_CACHED_EXPANSIONS = 512;
+
+    @Getter
+    private final String id;
+
+    @Getter
+    private volatile String currentDirectory;
+
+    /** {@link #currentDirectory} parsed, absolute and normalized; checked against the directory on each read. */
+    private volatile ParsedDirectory currentPath;
+
+    private record ParsedDirectory(String directory, Path path) {
+    }
+
+    @Getter
+    private volatile long lastAccessMillis;
+
+    private final Map<String, String> environment = new ConcurrentHashMap<>();
+    private final Map<String, String> expandedPaths = new ConcurrentHashMap<>();
+
+    public ShellSession(String id, String initialDirectory) {
+        this.id = id;
+        this.currentDirectory = initialDirectory;
+        this.lastAccessMillis = System.currentTimeMillis();
+    }
+
+    public void setCurrentDirectory(String directory) {
+        this.currentDirectory = directory;
+    }
+
+    /** The working directory as an absolute, normalized path, parsed once per change. */
+    public Path getCurrentPath() {
+        String directory = currentDirectory;
+        ParsedDirectory parsed = currentPath;
+        if (parsed == null || !parsed.directory().equals(directory)) {
+            parsed = new ParsedDirectory(directory, Paths.get(directory).toAbsolutePath().normalize());
+            currentPath = parsed;
+        }
+        return parsed.path();
+    }
+
+    /** Look up a variable in the session overlay first, then the process environment. */
+    public String getenv(String name) {
+        String value = environment.get(name);
+        return value != null ? value : System.getenv(name);
+    }
+
+    /** Set a session-local environment variable; cached expansions may depend on it, so they are dropped. */
+    public void putenv(String name, String value) {
+        if (value == null) {
+            environment.remove(name);
+        } else {
+            environment.put(name, value);
+        }
+        expandedPaths.clear();
+    }
+
+    public Map<String, String> getEnvironmentOverlay() {
+        return Map.copyOf(environment);
+    }
+
+    /** Return the cached expansion of {@code input}, computing it with {@code expander} on a miss. */
+    public String expand(String input, UnaryOperator<String> expander) {
+        String cached = expandedPaths.get(input);
+        if (cached != null) return cached;
+        String expanded = expander.apply(input);
+        if (expandedPaths.size() >= MAX_CACHED_EXPANSIONS) {
+            expandedPaths.clear();
+        }
+        expandedPaths.put(input, expanded);
+        return expanded;
+    }
+
+    void touch(long now) {
+        this.lastAccessMillis = now;
+    }
+}
@@ -0,0 +1,83 @@
+package com.clockworkideas.kog.shell.service.session;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.model.ToolContext;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Registry of live {@link ShellSession}s keyed by conversation id. Lookups are a single
+ * {@link ConcurrentHashMap} read; idle sessions are swept opportunistically by whichever caller first
+ * notices that the sweep interval has elapsed, so there is no background thread and no lock on the hot path.
+ */
+@Slf4j
+@Component
+public class ShellSessionRegistry {
+
+    /** {@link ToolContext} key carrying the conversation id. */
+    public static final String SESSION_ID = "kog.sessionId";
+    /** Session used when a caller does not supply an id; never evicted. */
+    public static final String DEFAULT_SESSION = "default";
+
+    private final ConcurrentMap<String, ShellSession> sessions = new ConcurrentHashMap<>();
+    private final AtomicLong nextSweepMillis = new AtomicLong();
+
+    @Value("${kog.session.idle-timeout:30m}")
+    private Duration idleTimeout = Duration.ofMinutes(30);
+
+    /** The conversation id to use for {@code sessionId}: the {@link #DEFAULT_SESSION} when none was supplied. */
+    public static String normalize(String sessionId) {
+        return sessionId == null ? DEFAULT_SESSION : sessionId;
+    }
+
+    /** Tool context map that routes tool calls to the given session. */
+    public static Map<String, Object> toolContext(String sessionId) {
+        return Map.of(SESSION_ID, normalize(sessionId));
+    }
+
+    /** Session for the conversation that issued a tool call. */
+    public ShellSession resolve(ToolContext toolContext) {
+        Object id = toolContext == null ? null : toolContext.getContext().get(SESSION_ID);
+        return get(id == null ? null : id.toString());
+    }
+
+    public ShellSession get(String sessionId) {
+        String key = normalize(sessionId);
+        long now = System.currentTimeMillis();
+        sweepIfDue(now);
+        ShellSession session = sessions.get(key);
+        if (session == null) {
+            session = sessions.computeIfAbsent(key, id -> new ShellSession(id, System.getProperty("user.dir")));
+        }
+        session.touch(now);
+        return session;
+    }
+
+    public void remove(String sessionId) {
+        sessions.remove(normalize(sessionId));
+    }
+
+    public int size() {
+        return sessions.size();
+    }
+
+    private void sweepIfDue(long now) {
+        long due = nextSweepMillis.get();
+        if (now < due || !nextSweepMillis.compareAndSet(due, now + idleTimeout.toMillis() / 4 + 1)) {
+            return;
+        }
+        long cutoff = now - idleTimeout.toMillis();
+        int before = sessions.size();
+        sessions.values().removeIf(s -> !DEFAULT_SESSION.equals(s.getId()) && s.getLastAccessMillis() < cutoff);
+        int evicted = before - sessions.size();
+        if (evicted > 0) {
+            log.debug("Evicted {} idle shell sessions", evicted);
+        }
+    }
+}
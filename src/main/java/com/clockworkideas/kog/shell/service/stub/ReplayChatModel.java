@@ -0,0 +1,216 @@
+package com.clockworkideas.kog.shell.service.stub;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.metadata.ChatResponseMetadata;
+import org.springframework.ai.chat.metadata.DefaultUsage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Offline stand-in for the provider's chat model, enabled with {@code kog.stub.enabled=true}. It replays
+ * scripted transcripts: the first transcript whose {@code prompt} pattern matches the latest user message
+ * supplies one response per model round, so a transcript can ask for tool calls and then answer once their
+ * results are in. Which round a request is in follows from the messages after that user message, so replay
+ * needs no state and any number of conversations can run at once.
+ * <p>
+ * Transcripts are read from the JSON array in {@code kog.stub.transcripts}, for example
+ * <pre>
+ * [{"prompt": "(?i)time", "responses": [
+ *     {"toolCalls": [{"name": "getCurrentDateTimeLocal", "arguments": {}}]},
+ *     {"text": "It is late.", "latencyMs": 50}]}]
+ * </pre>
+ * Without a file every prompt lists the working directory and then answers. Timing follows a simple provider
+ * profile: {@code first-token-latency} before the first token, then {@code tokens-per-second}, each varied by up
+ * to {@code jitter}; the variation is seeded from the prompt so runs are repeatable.
+ */
+@Slf4j
+@Primary
+@Component
+@ConditionalOnProperty(name = "kog.stub.enabled", havingValue = "true")
+public class ReplayChatModel implements ChatModel {
+
+    private static final ObjectMapper JSON = new ObjectMapper();
+
+    @Value("${kog.stub.transcripts:}")
+    private String transcriptsFile = "";
+
+    @Value("${kog.stub.first-token-latency:300ms}")
+    private Duration firstTokenLatency = Duration.ofMillis(300);
+
+    @Value("${kog.stub.tokens-per-second:60}")
+    private double tokensPerSecond = 60;
+
+    @Value("${kog.stub.jitter:0.2}")
+    private double jitter = 0.2;
+
+    private final AtomicLong toolCallIds = new AtomicLong();
+    private volatile List<Transcript> transcripts = List.of(defaultTranscript());
+
+    record ScriptedCall(String name, String arguments) {
+    }
+
+    record Step(String text, List<ScriptedCall> toolCalls, long latencyMs) {
+    }
+
+    record Transcript(Pattern prompt, List<Step> responses) {
+    }
+
+    @PostConstruct
+    void load() throws IOException {
+        if (transcriptsFile.isBlank()) return;
+        Path file = Paths.get(transcriptsFile);
+        List<Transcript> loaded = new ArrayList<>();
+        for (JsonNode node : JSON.readTree(Files.readString(file))) {
+            List<Step> steps = new ArrayList<>();
+            for (JsonNode step : node.path("responses")) {
+                List<ScriptedCall> calls = new ArrayList<>();
+                for (JsonNode call : step.path("toolCalls")) {
+                    JsonNode arguments = call.path("arguments");
+                    calls.add(new ScriptedCall(call.path("name").asText(),
+                            arguments.isTextual() ? arguments.asText() : arguments.isMissingNode() ? "{}" : arguments.toString()));
+                }
+                steps.add(new Step(step.path("text").asText(""), calls, step.path("latencyMs").asLong(-1)));
+            }
+            if (steps.isEmpty()) {
+                throw new IOException("Transcript without responses in " + file);
+            }
+            loaded.add(new Transcript(Pattern.compile(node.path("prompt").asText(".*")), steps));
+        }
+        loaded.add(defaultTranscript());
+        transcripts = List.copyOf(loaded);
+        log.info("Replaying {} transcripts from {}", loaded.size() - 1, file);
+    }
+
+    @Override
+    public ChatResponse call(Prompt prompt) {
+        Step step = step(prompt);
+        Random random = random(prompt);
+        long millis = step.latencyMs() >= 0 ? step.latencyMs()
+                : vary(firstTokenLatency.toMillis(), random) + (long) (tokens(step.text()) * 1000 / tokensPerSecond);
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while replaying a response", e);
+        }
+        return response(new AssistantMessage(step.text(), Map.of(), toolCalls(step)), prompt, step);
+    }
+
+    @Override
+    public Flux<ChatResponse> stream(Prompt prompt) {
+        Step step = step(prompt);
+        Random random = random(prompt);
+        long firstToken = step.latencyMs() >= 0 ? step.latencyMs() : vary(firstTokenLatency.toMillis(), random);
+        Duration perToken = Duration.ofNanos((long) (1e9 / tokensPerSecond));
+        List<String> chunks = chunks(step.text());
+        Flux<ChatResponse> text = Flux.fromIterable(chunks)
+                .concatMap(chunk -> Mono.just(new ChatResponse(List.of(new Generation(new AssistantMessage(chunk)))))
+                        .delayElement(perToken));
+        // Tool calls and usage arrive on the last chunk, as with the real providers
+        Mono<ChatResponse> last = Mono.fromSupplier(() -> response(new AssistantMessage("", Map.of(), toolCalls(step)), prompt, step));
+        return Mono.delay(Duration.ofMillis(firstToken)).thenMany(text.concatWith(last));
+    }
+
+    private Step step(Prompt prompt) {
+        List<Message> messages = prompt.getInstructions();
+        int lastUser = -1;
+        for (int i = messages.size() - 1; i >= 0; i--) {
+            if (messages.get(i) instanceof UserMessage) {
+                lastUser = i;
+                break;
+            }
+        }
+        String userText = lastUser < 0 ? "" : messages.get(lastUser).getText();
+        int round = 0;
+        for (int i = lastUser + 1; i < messages.size(); i++) {
+            if (messages.get(i) instanceof ToolResponseMessage) round++;
+        }
+        for (Transcript transcript : transcripts) {
+            if (transcript.prompt().matcher(userText == null ? "" : userText).find()) {
+                List<Step> responses = transcript.responses();
+                return responses.get(Math.min(round, responses.size() - 1));
+            }
+        }
+        throw new IllegalStateException("No transcript matches");
+    }
+
+    private List<AssistantMessage.ToolCall> toolCalls(Step step) {
+        List<AssistantMessage.ToolCall> calls = new ArrayList<>(step.toolCalls().size());
+        for (ScriptedCall call : step.toolCalls()) {
+            calls.add(new AssistantMessage.ToolCall("call_" + toolCallIds.incrementAndGet(), "function", call.name(), call.arguments()));
+        }
+        return calls;
+    }
+
+    private static ChatResponse response(AssistantMessage output, Prompt prompt, Step step) {
+        long promptChars = 0;
+        for (Message message : prompt.getInstructions()) {
+            if (message.getText() != null) promptChars += message.getText().length();
+        }
+        ChatResponseMetadata metadata = ChatResponseMetadata.builder()
+                .model("replay")
+                .usage(new DefaultUsage((int) (promptChars / 4), tokens(step.text())))
+                .build();
+        return new ChatResponse(List.of(new Generation(output)), metadata);
+    }
+
+    private long vary(long millis, Random random) {
+        return Math.max(0, Math.round(millis * (1 + jitter * (2 * random.nextDouble() - 1))));
+    }
+
+    private static Random random(Prompt prompt) {
+        return new Random(prompt.getInstructions().size() * 31L + String.valueOf(prompt.getContents()).hashCode());
+    }
+
+    private static int tokens(String text) {
+        return (text.length() + 3) / 4;
+    }
+
+    /** About one token per chunk, split on word boundaries where possible. */
+    private static List<String> chunks(String text) {
+        List<String> chunks = new ArrayList<>();
+        int start = 0;
+        while (start < text.length()) {
+            int end = Math.min(text.length(), start + 4);
+            while (end < text.length() && end - start < 12 && !Character.isWhitespace(text.charAt(end))) end++;
+            chunks.add(text.substring(start, end));
+            start = end;
+        }
+        return chunks;
+    }
+
+    private static Transcript defaultTranscript() {
+        return new Transcript(Pattern.compile(""), List.of(
+                new Step("", List.of(new ScriptedCall("getCurrentDirectory", "{}"),
+                        new ScriptedCall("listCurrentDirectory", "{}")), -1),
+                new Step("These are the files in the current directory. The listing above shows names, and you can ask "
+                        + "me to read, search or change any of them.", List.of(), -1)));
+    }
+}
@@ -0,0 +1,425 @@
+package com.clockworkideas.kog.shell.service.tools;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Pooled append handles with group commit. Each file gets one open {@link FileChannel}; appends from any
+ * number of sessions are queued in arrival order and written in batches, so a burst of small appends costs
+ * a few large writes instead of an open, a write and a close per line.
+ * <p>
+ * By default an append returns once its batch has been written (concurrent appenders share that write).
+ * With {@code kog.tools.append.flush-interval} set, appends return as soon as they are queued and are written
+ * when the buffer fills, the interval elapses or a caller asks for a sync; tools that read or replace a file
+ * call {@link #flush(Path)} first so they still see every append. {@code kog.tools.append.fsync} forces each
+ * batch to disk. Handles idle for {@code kog.tools.append.idle-timeout} are closed.
+ * <p>
+ * A batch that fails to write is not retried, since part of it may already be in the file: every append in it
+ * fails. Appends that had already returned (deferred) are reported by the next append to or flush of the file,
+ * also when the batch was written by a handle closing on the idle sweep or an eviction.
+ */
+@Slf4j
+@Component
+public class AppendWriterPool {
+
+    @Value("${kog.tools.append.buffer-bytes:65536}")
+    private int bufferBytes = 64 * 1024;
+
+    @Value("${kog.tools.append.flush-interval:0ms}")
+    private Duration flushInterval = Duration.ZERO;
+
+    @Value("${kog.tools.append.fsync:false}")
+    private boolean fsync;
+
+    @Value("${kog.tools.append.idle-timeout:30s}")
+    private Duration idleTimeout = Duration.ofSeconds(30);
+
+    @Value("${kog.tools.append.max-open:64}")
+    private int maxOpen = 64;
+
+    private final ConcurrentMap<Path, Writer> writers = new ConcurrentHashMap<>();
+    /** Losses of closed handles, taken over by the file's next handle or reported by a flush. */
+    private final ConcurrentMap<Path, Lost> lostOnClose = new ConcurrentHashMap<>();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong appends = new AtomicLong();
+    private volatile ScheduledExecutorService scheduler;
+
+    /**
+     * Append {@code data} to {@code file}, creating it and its parent directories if missing. With {@code sync} the data (and everything
+     * queued before it) is written and forced to disk before this returns.
+     */
+    public void append(Path file, byte[] data, boolean sync) throws IOException {
+        Path key = file.toAbsolutePath().normalize();
+        while (true) {
+            Writer writer = writers.computeIfAbsent(key, Writer::new);
+            if (writer.append(data, sync)) {
+                appends.incrementAndGet();
+                break;
+            }
+            // Closed by the idle sweep or an eviction between lookup and append. Its queued appends must reach the
+            // file before anything written through a fresh handle, so wait for them first.
+            writer.awaitClosed();
+            writers.remove(key, writer);
+        }
+        startScheduler();
+        if (writers.size() > maxOpen) {
+            evictLeastRecentlyUsed();
+        }
+    }
+
+    /** Write any queued appends to {@code path}, or to files under it when it is a directory. */
+    public void flush(Path path) throws IOException {
+        if (writers.isEmpty()) return;
+        Path key = path.toAbsolutePath().normalize();
+        for (Writer writer : writers.values()) {
+            if (writer.path.startsWith(key)) {
+                writer.flush(false);
+                writer.reportLost();
+            }
+        }
+        if (lostOnClose.isEmpty()) return;
+        for (Path file : lostOnClose.keySet()) {
+            Lost lost = file.startsWith(key) ? lostOnClose.remove(file) : null;
+            if (lost != null) throw lost.failure(file);
+        }
+    }
+
+    public long getAppends() {
+        return appends.get();
+    }
+
+    public long getBatches() {
+        return batches.get();
+    }
+
+    public int getOpenHandles() {
+        return writers.size();
+    }
+
+    private void startScheduler() {
+        if (scheduler != null) return;
+        synchronized (this) {
+            if (scheduler != null) return;
+            ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "kog-append-flusher");
+                thread.setDaemon(true);
+                return thread;
+            });
+            long sweep = Math.max(1000, idleTimeout.toMillis() / 2);
+            executor.scheduleWithFixedDelay(this::closeIdle, sweep, sweep, TimeUnit.MILLISECONDS);
+            if (!flushInterval.isZero() && !flushInterval.isNegative()) {
+                long interval = flushInterval.toMillis();
+                executor.scheduleWithFixedDelay(this::flushQueued, interval, interval, TimeUnit.MILLISECONDS);
+            }
+            scheduler = executor;
+        }
+    }
+
+    private void flushQueued() {
+        for (Writer writer : writers.values()) {
+            try {
+                writer.flush(false);
+            } catch (IOException e) {
+                log.warn("Failed to flush appends to {}: {}", writer.path, e.getMessage());
+            }
+        }
+    }
+
+    private void closeIdle() {
+        long cutoff = System.currentTimeMillis() - idleTimeout.toMillis();
+        for (Writer writer : writers.values()) {
+            if (writer.lastUsedMillis < cutoff) close(writer);
+        }
+    }
+
+    private void evictLeastRecentlyUsed() {
+        List<Writer> open = new ArrayList<>(writers.values());
+        open.sort(Comparator.comparingLong(w -> w.lastUsedMillis));
+        for (int i = 0; i < open.size() - maxOpen; i++) {
+            close(open.get(i));
+        }
+    }
+
+    /**
+     * Close {@code writer} and only then drop it from the pool: until its queue is written, a new handle for
+     * the same file must not be created, or its appends could land before the queued ones.
+     */
+    private void close(Writer writer) {
+        try {
+            writer.close();
+        } catch (IOException e) {
+            log.warn("Failed to flush appends to {} on close: {}", writer.path, e.getMessage());
+        } finally {
+            writers.remove(writer.path, writer);
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        if (scheduler != null) scheduler.shutdownNow();
+        writers.values().forEach(this::close);
+    }
+
+    /** Deferred appends whose batch could not be written, and the last failure among them. */
+    private record Lost(int count, IOException cause) {
+
+        Lost plus(Lost later) {
+            return new Lost(count + later.count, later.cause);
+        }
+
+        IOException failure(Path path) {
+            return new IOException(count + (count == 1 ? " earlier append" : " earlier appends") + " to " + path
+                    + " could not be written: " + cause.getMessage(), cause);
+        }
+    }
+
+    /** One queued append; {@code failure} is set (under the I/O lock) if its batch could not be written. */
+    private static final class Pending {
+        final byte[] data;
+        final boolean awaited;
+        IOException failure;
+
+        Pending(byte[] data, boolean awaited) {
+            this.data = data;
+            this.awaited = awaited;
+        }
+    }
+
+    /**
+     * One file's append queue. Appenders enqueue under the monitor, which fixes the order; whoever takes the
+     * I/O lock next writes everything queued so far, so one thread's write commits the others' appends too.
+     */
+    private final class Writer {
+        final Path path;
+        private final ReentrantLock io = new ReentrantLock();
+        private List<Pending> queue = new ArrayList<>();
+        private long queuedBytes;
+        private long enqueued;
+        private boolean closed;
+        private final CountDownLatch drained = new CountDownLatch(1);
+        private Lost lost;
+
+        // Guarded by io
+        private long written;
+        private long synced;
+        private FileChannel channel;
+        private Object fileKey;
+        private ByteBuffer buffer;
+
+        volatile long lastUsedMillis = System.currentTimeMillis();
+
+        Writer(Path path) {
+            this.path = path;
+            this.lost = lostOnClose.remove(path);
+        }
+
+        /** Returns false if this handle was closed and the append must go to a new one. */
+        boolean append(byte[] data, boolean sync) throws IOException {
+            boolean deferred = !flushInterval.isZero() && !flushInterval.isNegative();
+            long seq;
+            Pending pending;
+            synchronized (this) {
+                if (closed) return false;
+                reportLost();
+                queuedBytes += data.length;
+                pending = new Pending(data, !deferred || sync || queuedBytes >= bufferBytes);
+                queue.add(pending);
+                seq = ++enqueued;
+            }
+            lastUsedMillis = System.currentTimeMillis();
+            if (pending.awaited) {
+                commit(seq, sync);
+                io.lock();
+                try {
+                    if (pending.failure != null) {
+                        throw new IOException(pending.failure.getMessage(), pending.failure);
+                    }
+                } finally {
+                    io.unlock();
+                }
+            }
+            return true;
+        }
+
+        /** Throw, once, for deferred appends whose batch failed after they had returned. */
+        synchronized void reportLost() throws IOException {
+            if (lost == null) return;
+            IOException failure = lost.failure(path);
+            lost = null;
+            throw failure;
+        }
+
+        void flush(boolean sync) throws IOException {
+            long seq;
+            synchronized (this) {
+                seq = enqueued;
+            }
+            if (seq > 0) commit(seq, sync);
+        }
+
+        /** Make sure everything up to {@code seq} is written (and forced, if asked). */
+        private void commit(long seq, boolean sync) throws IOException {
+            io.lock();
+            try {
+                if (written < seq) {
+                    List<Pending> batch;
+                    long upTo;
+                    synchronized (this) {
+                        batch = queue;
+                        upTo = enqueued;
+                        queue = new ArrayList<>();
+                        queuedBytes = 0;
+                    }
+                    // The batch is settled either way: written, or failed for every append in it
+                    written = upTo;
+                    try {
+                        write(batch);
+                        batches.incrementAndGet();
+                        if (fsync) {
+                            channel.force(false);
+                            synced = upTo;
+                        }
+                    } catch (IOException e) {
+                        fail(batch, e);
+                        throw e;
+                    }
+                }
+                if (sync && synced < seq) {
+                    if (channel != null) channel.force(false);
+                    synced = written;
+                }
+            } finally {
+                io.unlock();
+            }
+        }
+
+        private void fail(List<Pending> batch, IOException e) {
+            int unawaited = 0;
+            for (Pending pending : batch) {
+                pending.failure = e;
+                if (!pending.awaited) unawaited++;
+            }
+            if (unawaited > 0) {
+                Lost now = new Lost(unawaited, e);
+                synchronized (this) {
+                    lost = lost == null ? now : lost.plus(now);
+                }
+            }
+            // Drop what was left of the batch and the handle; the next batch starts clean on a reopened channel
+            if (buffer != null) buffer.clear();
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                    // already failing
+                }
+                channel = null;
+            }
+        }
+
+        private void write(List<Pending> batch) throws IOException {
+            FileChannel ch = channel();
+            if (buffer == null) buffer = ByteBuffer.allocateDirect(bufferBytes);
+            for (Pending pending : batch) {
+                byte[] data = pending.data;
+                int offset = 0;
+                while (offset < data.length) {
+                    int n = Math.min(buffer.remaining(), data.length - offset);
+                    buffer.put(data, offset, n);
+                    offset += n;
+                    if (!buffer.hasRemaining()) drain(ch);
+                }
+            }
+            drain(ch);
+        }
+
+        private void drain(FileChannel ch) throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) ch.write(buffer);
+            buffer.clear();
+        }
+
+        /**
+         * The open channel, reopened if the file was deleted, renamed or replaced since it was opened so appends
+         * never go to an unlinked or moved inode. One stat per batch.
+         */
+        private FileChannel channel() throws IOException {
+            if (channel != null) {
+                BasicFileAttributes attrs;
+                try {
+                    attrs = Files.readAttributes(path, BasicFileAttributes.class);
+                } catch (NoSuchFileException e) {
+                    attrs = null;
+                }
+                // Without file keys (some file systems) only a deleted file can be detected
+                if (attrs != null && (fileKey == null || Objects.equals(attrs.fileKey(), fileKey))) return channel;
+                channel.close();
+                channel = null;
+            }
+            if (path.getParent() != null) Files.createDirectories(path.getParent());
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            fileKey = Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+            return channel;
+        }
+
+        /**
+         * Refuse further appends, then write what is queued and release the channel. Unreported losses pass to
+         * the pool before any waiting appender can open the file's next handle.
+         */
+        void close() throws IOException {
+            synchronized (this) {
+                closed = true;
+            }
+            io.lock();
+            try {
+                flush(false);
+                if (channel != null) {
+                    channel.close();
+                    channel = null;
+                }
+            } finally {
+                io.unlock();
+                synchronized (this) {
+                    if (lost != null) lostOnClose.merge(path, lost, Lost::plus);
+                    lost = null;
+                }
+                drained.countDown();
+            }
+        }
+
+        /** Wait until {@link #close} has written everything queued before this handle refused appends. */
+        void awaitClosed() throws IOException {
+            try {
+                drained.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting for appends to " + path + " to be written");
+            }
+        }
+    }
+}
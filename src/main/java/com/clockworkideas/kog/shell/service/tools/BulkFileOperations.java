@@ -0,0 +1,243 @@
+package com.clockworkideas.kog.shell.service.tools;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Delete, move or copy every file under a directory that matches a glob and optional age and size limits.
+ * The matching set is planned up front by one walk (directory symlinks are not followed and .gitignore is not
+ * applied, since ignored files are usually what gets cleaned up), then executed in parallel on the
+ * {@link ParallelFileTree} pool. A failure on one file is recorded and the rest carry on.
+ * <p>
+ * Moves and copies keep each file's path relative to the root under the target directory, so files with the same
+ * name in different directories never collide. Plans larger than {@code kog.tools.bulk.max-files} are refused.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class BulkFileOperations {
+
+    private static final int FILES_PER_TASK = 64;
+    private static final Pattern AMOUNT = Pattern.compile("(\\d+(?:\\.\\d+)?)\\s*([a-z]*)");
+
+    private final ParallelFileTree parallelFileTree;
+
+    @Value("${kog.tools.bulk.max-files:100000}")
+    private int maxFiles = 100_000;
+
+    public enum Operation {
+        DELETE, MOVE, COPY
+    }
+
+    /**
+     * Which files to act on. {@code glob} matches file names, or paths relative to the root when it contains '/'.
+     * Null limits are not applied.
+     */
+    public record Criteria(String glob, boolean recursive, Duration olderThan, Duration newerThan,
+                           Long minBytes, Long maxBytes) {
+    }
+
+    /** The files a bulk operation will touch, in walk order, and their total size. */
+    public record Plan(Path root, List<Path> files, long bytes) {
+    }
+
+    public record Failure(Path file, String reason) {
+    }
+
+    public record Result(int done, long bytes, List<Failure> failures) {
+    }
+
+    /** Collect the regular files and symlinks under {@code root} matching {@code criteria}, skipping {@code exclude}. */
+    public Plan plan(Path root, Criteria criteria, Path exclude) throws IOException {
+        String glob = criteria.glob() == null || criteria.glob().isBlank() ? "*" : criteria.glob();
+        boolean onPath = glob.contains("/");
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + glob);
+        long now = System.currentTimeMillis();
+        long modifiedBefore = criteria.olderThan() == null ? Long.MAX_VALUE : now - criteria.olderThan().toMillis();
+        long modifiedAfter = criteria.newerThan() == null ? Long.MIN_VALUE : now - criteria.newerThan().toMillis();
+        long minBytes = criteria.minBytes() == null ? 0 : criteria.minBytes();
+        long maxBytes = criteria.maxBytes() == null ? Long.MAX_VALUE : criteria.maxBytes();
+
+        List<Path> files = new ArrayList<>();
+        AtomicLong bytes = new AtomicLong();
+        Files.walkFileTree(root, Set.of(), criteria.recursive() ? Integer.MAX_VALUE : 1, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                return exclude != null && dir.startsWith(exclude) ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                // At the depth limit directories are reported as files; bulk operations only act on files
+                if (attrs.isDirectory()) return FileVisitResult.CONTINUE;
+                long modified = attrs.lastModifiedTime().toMillis();
+                if (matcher.matches(onPath ? root.relativize(file) : file.getFileName())
+                        && modified < modifiedBefore && modified > modifiedAfter
+                        && attrs.size() >= minBytes && attrs.size() <= maxBytes) {
+                    if (files.size() == maxFiles) {
+                        throw new IOException("More than " + maxFiles + " files match; narrow the glob or limits");
+                    }
+                    files.add(file);
+                    bytes.addAndGet(attrs.size());
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                log.debug("Skipping {} while planning bulk operation: {}", file, e.getMessage());
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return new Plan(root, List.copyOf(files), bytes.get());
+    }
+
+    /** Carry out {@code plan}; {@code target} is the destination directory for moves and copies. */
+    public Result execute(Plan plan, Operation operation, Path target, boolean overwrite) throws IOException {
+        if (operation != Operation.DELETE) {
+            // Create the destination directories once, up front, instead of racing on them per file
+            Set<Path> parents = new LinkedHashSet<>();
+            for (Path file : plan.files()) {
+                parents.add(target.resolve(plan.root().relativize(file)).getParent());
+            }
+            for (Path parent : parents) {
+                Files.createDirectories(parent);
+            }
+        }
+        List<Failure> failures = Collections.synchronizedList(new ArrayList<>());
+        AtomicLong done = new AtomicLong();
+        AtomicLong bytes = new AtomicLong();
+        List<RecursiveAction> batches = new ArrayList<>();
+        List<Path> files = plan.files();
+        for (int from = 0; from < files.size(); from += FILES_PER_TASK) {
+            List<Path> batch = files.subList(from, Math.min(files.size(), from + FILES_PER_TASK));
+            batches.add(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    for (Path file : batch) {
+                        try {
+                            long size = apply(plan.root(), file, operation, target, overwrite);
+                            done.incrementAndGet();
+                            bytes.addAndGet(size);
+                        } catch (IOException | RuntimeException e) {
+                            failures.add(new Failure(file, reason(e)));
+                        }
+                    }
+                }
+            });
+        }
+        parallelFileTree.invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                invokeAll(batches);
+            }
+        });
+        List<Failure> ordered = new ArrayList<>(failures);
+        ordered.sort((a, b) -> a.file().compareTo(b.file()));
+        return new Result((int) done.get(), bytes.get(), ordered);
+    }
+
+    private long apply(Path root, Path file, Operation operation, Path target, boolean overwrite) throws IOException {
+        long size = Files.readAttributes(file, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS).size();
+        if (operation == Operation.DELETE) {
+            Files.delete(file);
+            return size;
+        }
+        Path dst = target.resolve(root.relativize(file));
+        if (!overwrite && Files.exists(dst, LinkOption.NOFOLLOW_LINKS)) {
+            throw new FileAlreadyExistsException(dst.toString(), null, "target exists");
+        }
+        if (operation == Operation.COPY) {
+            parallelFileTree.copy(file, dst, overwrite, new TreeProgress());
+            return size;
+        }
+        try {
+            if (overwrite) {
+                Files.move(file, dst, StandardCopyOption.REPLACE_EXISTING);
+            } else {
+                Files.move(file, dst);
+            }
+        } catch (IOException e) {
+            if (!ParallelFileTree.isCrossDevice(file, e)) throw e;
+            // Cross-device move: copy, then remove the original
+            parallelFileTree.copy(file, dst, overwrite, true, new TreeProgress());
+            Files.delete(file);
+        }
+        return size;
+    }
+
+    private static String reason(Exception e) {
+        if (e instanceof NoSuchFileException) return "no longer exists";
+        if (e instanceof FileAlreadyExistsException) return "target exists";
+        return e.getMessage() == null ? e.getClass().getSimpleName() : e.getMessage();
+    }
+
+    /** Parse a size such as {@code 500}, {@code 10k}, {@code 1.5MB} or {@code 2G} (binary multiples) into bytes. */
+    public static Long parseSize(String text) {
+        if (text == null || text.isBlank()) return null;
+        Matcher m = AMOUNT.matcher(text.trim().toLowerCase(Locale.ROOT));
+        if (!m.matches()) throw new IllegalArgumentException("Invalid size: " + text);
+        String unit = m.group(2).replaceAll("i?b$", "");
+        int shift = switch (unit) {
+            case "" -> 0;
+            case "k" -> 10;
+            case "m" -> 20;
+            case "g" -> 30;
+            case "t" -> 40;
+            default -> throw new IllegalArgumentException("Invalid size unit in: " + text);
+        };
+        return (long) (Double.parseDouble(m.group(1)) * (1L << shift));
+    }
+
+    /** Parse an age such as {@code 30m}, {@code 12h}, {@code 7d}, {@code 2w} or an ISO-8601 duration like {@code P7D}. */
+    public static Duration parseAge(String text) {
+        if (text == null || text.isBlank()) return null;
+        String value = text.trim();
+        if (value.toUpperCase(Locale.ROOT).startsWith("P")) {
+            try {
+                return Duration.parse(value);
+            } catch (DateTimeParseException e) {
+                throw new IllegalArgumentException("Invalid age: " + text);
+            }
+        }
+        Matcher m = AMOUNT.matcher(value.toLowerCase(Locale.ROOT));
+        if (!m.matches()) throw new IllegalArgumentException("Invalid age: " + text);
+        double amount = Double.parseDouble(m.group(1));
+        long seconds = switch (m.group(2)) {
+            case "s", "sec", "secs", "second", "seconds" -> 1;
+            case "m", "min", "mins", "minute", "minutes" -> 60;
+            case "h", "hr", "hrs", "hour", "hours" -> 3600;
+            case "", "d", "day", "days" -> 86_400;
+            case "w", "week", "weeks" -> 604_800;
+            default -> throw new IllegalArgumentException("Invalid age unit in: " + text);
+        };
+        return Duration.ofMillis((long) (amount * seconds * 1000));
+    }
+}
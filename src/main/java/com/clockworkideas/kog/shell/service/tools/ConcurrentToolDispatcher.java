@@ -0,0 +1,211 @@
+package com.clockworkideas.kog.shell.service.tools;
+
+import com.clockworkideas.kog.shell.service.session.ShellSession;
+import com.clockworkideas.kog.shell.service.session.ShellSessionRegistry;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+import org.springframework.ai.chat.model.ToolContext;
+import org.springframework.ai.tool.ToolCallback;
+import org.springframework.stereotype.Component;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs the tool calls of one model response concurrently on virtual threads, so a turn with several
+ * independent calls takes about as long as its slowest call.
+ * <p>
+ * Calls that may conflict keep the order the model gave them: a call waits for every earlier call whose paths
+ * overlap its own when either of the two writes. Calls that change the working directory (or that we cannot
+ * classify) are barriers that wait for, and are waited on by, every other call; after one, relative paths
+ * are taken to overlap everything, since their base is not known until it has run. Responses are returned in
+ * the original order regardless of completion order.
+ */
+@Slf4j
+@Component
+public class ConcurrentToolDispatcher {
+
+    private static final ObjectMapper JSON = new ObjectMapper();
+    private static final Path EVERYTHING = Paths.get("/");
+
+    /** How a tool touches the file system; {@code args} are the JSON arguments holding paths. */
+    enum Access {
+        NONE, READ, READ_TREE, WRITE, WRITE_TREE, BARRIER
+    }
+
+    private record Kind(Access access, List<String> args) {
+        static Kind of(Access access, String... args) {
+            return new Kind(access, List.of(args));
+        }
+    }
+
+    private static final Map<String, Kind> KINDS = Map.ofEntries(
+            Map.entry("getCurrentDateTimeLocal", Kind.of(Access.NONE)),
+            Map.entry("getCurrentDirectory", Kind.of(Access.NONE)),
+            Map.entry("readToolResult", Kind.of(Access.NONE)),
+            Map.entry("listTreeOperations", Kind.of(Access.NONE)),
+            Map.entry("cancelTreeOperation", Kind.of(Access.NONE)),
+            Map.entry("listCurrentDirectory", Kind.of(Access.READ)),
+            Map.entry("readFile", Kind.of(Access.READ, "fileName")),
+            Map.entry("readFileWindow", Kind.of(Access.READ, "fileName")),
+            Map.entry("searchFiles", Kind.of(Access.READ_TREE)),
+            Map.entry("findFiles", Kind.of(Access.READ_TREE)),
+            Map.entry("diskUsage", Kind.of(Access.READ_TREE)),
+            Map.entry("writeFile", Kind.of(Access.WRITE, "fileName")),
+            Map.entry("appendFile", Kind.of(Access.WRITE, "fileName")),
+            Map.entry("createFile", Kind.of(Access.WRITE, "fileName")),
+            Map.entry("editFile", Kind.of(Access.WRITE, "fileName")),
+            Map.entry("replaceLines", Kind.of(Access.WRITE, "fileName")),
+            Map.entry("makeDirectory", Kind.of(Access.WRITE, "dirName")),
+            Map.entry("removePath", Kind.of(Access.WRITE, "target")),
+            Map.entry("renamePath", Kind.of(Access.WRITE, "oldName", "newName")),
+            Map.entry("movePath", Kind.of(Access.WRITE, "source", "target")),
+            Map.entry("applyPatch", Kind.of(Access.WRITE_TREE)),
+            Map.entry("bulkFileOperation", Kind.of(Access.WRITE_TREE)),
+            Map.entry("setCurrentDirectory", Kind.of(Access.BARRIER)),
+            Map.entry("changeDirectory", Kind.of(Access.BARRIER)));
+
+    private final ToolRegistry tools;
+    private final ShellSessionRegistry sessions;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    public ConcurrentToolDispatcher(ToolRegistry tools, ShellSessionRegistry sessions) {
+        this.tools = tools;
+        this.sessions = sessions;
+    }
+
+    /** Execute {@code calls} and return their responses in the same order. */
+    public ToolResponseMessage execute(List<AssistantMessage.ToolCall> calls, ToolContext toolContext) {
+        ShellSession session = sessions.resolve(toolContext);
+        List<Planned> planned = plan(calls, session.getCurrentPath());
+
+        List<CompletableFuture<String>> results = new ArrayList<>(calls.size());
+        for (int i = 0; i < planned.size(); i++) {
+            Planned current = planned.get(i);
+            List<CompletableFuture<String>> before = new ArrayList<>();
+            for (int j = 0; j < i; j++) {
+                if (planned.get(j).conflictsWith(current)) before.add(results.get(j));
+            }
+            CompletableFuture<Void> ready = CompletableFuture.allOf(before.toArray(CompletableFuture[]::new));
+            // handle(): a failed predecessor still releases its dependants
+            results.add(ready.handle((ignored, error) -> null)
+                    .thenApplyAsync(ignored -> invoke(current.call(), toolContext), executor));
+        }
+
+        List<ToolResponseMessage.ToolResponse> responses = new ArrayList<>(calls.size());
+        for (int i = 0; i < calls.size(); i++) {
+            AssistantMessage.ToolCall call = calls.get(i);
+            responses.add(new ToolResponseMessage.ToolResponse(call.id(), call.name(), results.get(i).join()));
+        }
+        return new ToolResponseMessage(responses);
+    }
+
+    private String invoke(AssistantMessage.ToolCall call, ToolContext toolContext) {
+        ToolCallback callback = tools.find(call.name());
+        if (callback == null) {
+            return "Unknown tool: " + call.name();
+        }
+        try {
+            String input = call.arguments() == null || call.arguments().isBlank() ? "{}" : call.arguments();
+            return callback.call(input, toolContext);
+        } catch (RuntimeException e) {
+            log.debug("Tool {} failed: {}", call.name(), e.getMessage());
+            return "Failed to run " + call.name() + ": " + e.getMessage();
+        }
+    }
+
+    record Planned(AssistantMessage.ToolCall call, Access access, List<Path> paths) {
+
+        boolean writes() {
+            return access == Access.WRITE || access == Access.WRITE_TREE;
+        }
+
+        boolean conflictsWith(Planned later) {
+            if (access == Access.BARRIER || later.access == Access.BARRIER) return true;
+            if (access == Access.NONE || later.access == Access.NONE) return false;
+            if (!writes() && !later.writes()) return false;
+            for (Path a : paths) {
+                for (Path b : later.paths) {
+                    if (a.startsWith(b) || b.startsWith(a)) return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Plan {@code calls} against the working directory {@code cwd}. Once a barrier may have changed directory, the
+     * base of the later calls' relative paths is unknown, so those paths overlap everything.
+     */
+    static List<Planned> plan(List<AssistantMessage.ToolCall> calls, Path cwd) {
+        List<Planned> planned = new ArrayList<>(calls.size());
+        Path base = cwd;
+        for (AssistantMessage.ToolCall call : calls) {
+            Planned current = plan(call, base);
+            planned.add(current);
+            if (current.access() == Access.BARRIER) base = null;
+        }
+        return planned;
+    }
+
+    /**
+     * Work out which paths a call touches, erring towards conflicts when the arguments are not plain paths.
+     * A null {@code cwd} is a working directory not known in advance.
+     */
+    private static Planned plan(AssistantMessage.ToolCall call, Path cwd) {
+        Kind kind = KINDS.get(call.name());
+        if (kind == null) {
+            return new Planned(call, Access.BARRIER, List.of());
+        }
+        switch (kind.access()) {
+            case NONE, BARRIER:
+                return new Planned(call, kind.access(), List.of());
+            case READ_TREE, WRITE_TREE:
+                return new Planned(call, kind.access(), List.of(cwd == null ? EVERYTHING : cwd));
+            default:
+                break;
+        }
+        if (kind.args().isEmpty()) {
+            // listCurrentDirectory: the directory itself
+            return new Planned(call, kind.access(), List.of(cwd == null ? EVERYTHING : cwd));
+        }
+        List<Path> paths = new ArrayList<>();
+        try {
+            JsonNode args = JSON.readTree(call.arguments() == null || call.arguments().isBlank() ? "{}" : call.arguments());
+            for (String name : kind.args()) {
+                JsonNode value = args.get(name);
+                paths.add(value == null || !value.isTextual() ? EVERYTHING : resolve(cwd, value.asText()));
+            }
+        } catch (Exception e) {
+            paths.add(EVERYTHING);
+        }
+        return new Planned(call, kind.access(), paths);
+    }
+
+    /** Relative paths resolve against the working directory, if known; ~ and $VAR forms overlap everything. */
+    private static Path resolve(Path cwd, String value) {
+        if (value.isBlank() || value.startsWith("~") || value.contains("$")) return EVERYTHING;
+        try {
+            Path path = Paths.get(value);
+            if (path.isAbsolute()) return path.normalize();
+            return cwd == null ? EVERYTHING : cwd.resolve(path).normalize();
+        } catch (RuntimeException e) {
+            return EVERYTHING;
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        executor.shutdownNow();
+    }
+}
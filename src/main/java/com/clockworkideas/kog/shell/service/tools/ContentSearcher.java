@@ -0,0 +1,392 @@
+package com.clockworkideas.kog.shell.service.tools;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Parallel grep over a directory tree. Directories fan out on the {@link ParallelFileTree} pool, ignore
+ * files are honoured, binary files (a NUL byte in the first 8 KiB) are skipped and the walk stops as soon as
+ * the match limit is reached. Case-sensitive literal searches run directly on the file bytes; regex and
+ * case-insensitive searches decode the file once and run the pattern over the decoded buffer.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class ContentSearcher {
+
+    public static final int DEFAULT_MAX_RESULTS = 100;
+    public static final int MAX_RESULTS = 1000;
+    static final long MAX_FILE_BYTES = 16L << 20;
+    private static final int BINARY_PROBE_BYTES = 8192;
+    private static final int SMALL_FILE_BYTES = 64 * 1024;
+    private static final int MAX_SNIPPET_CHARS = 200;
+    private static final int FILES_PER_TASK = 32;
+
+    private static final ThreadLocal<ByteBuffer> SMALL_BUFFER = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(SMALL_FILE_BYTES));
+
+    public record Match(Path file, long line, String snippet) {
+    }
+
+    /** {@code skipped} counts binary and oversized files. */
+    public record Result(List<Match> matches, int filesScanned, int skipped, boolean truncated) {
+    }
+
+    private final ParallelFileTree parallelFileTree;
+
+    /** Compiled form of a search; also used by the trigram index to verify its candidates. */
+    static final class Query {
+        final Pattern pattern;
+        final byte[] literal;
+        final PathMatcher fileFilter;
+        final boolean filterOnPath;
+
+        Query(String text, boolean regex, boolean ignoreCase, String glob) {
+            int flags = (regex ? 0 : Pattern.LITERAL) | (ignoreCase ? Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE : 0);
+            this.pattern = Pattern.compile(text, flags | Pattern.MULTILINE);
+            this.literal = regex || ignoreCase ? null : text.getBytes(StandardCharsets.UTF_8);
+            boolean hasGlob = glob != null && !glob.isBlank();
+            this.fileFilter = hasGlob ? FileSystems.getDefault().getPathMatcher("glob:" + glob) : null;
+            this.filterOnPath = hasGlob && glob.contains("/");
+        }
+
+        boolean accepts(Path root, Path file) {
+            if (fileFilter == null) return true;
+            return fileFilter.matches(filterOnPath ? root.relativize(file) : file.getFileName());
+        }
+    }
+
+    /** Search every non-ignored text file under {@code root}; at most {@code maxResults} matching lines are returned. */
+    public Result search(Path root, String text, boolean regex, boolean ignoreCase, String glob, int maxResults) throws IOException {
+        Query query = new Query(text, regex, ignoreCase, glob);
+        Collector collector = new Collector(Math.min(Math.max(maxResults, 1), MAX_RESULTS));
+        parallelFileTree.invoke(new SearchDirectory(root, root, IgnoreRules.NONE, query, collector));
+        return collector.result();
+    }
+
+    /**
+     * Paths (relative to {@code root}) of non-ignored regular files under {@code root} whose name, or relative
+     * path when {@code glob} contains '/', matches {@code glob}; at most {@code limit}. The walk used by file
+     * search when the tree is not indexed: ignored and unreadable directories are skipped like in {@link #search}.
+     */
+    public List<String> findFiles(Path root, String glob, int limit) throws IOException {
+        boolean onPath = glob != null && glob.contains("/");
+        PathMatcher matcher = glob == null || glob.isBlank() ? null : FileSystems.getDefault().getPathMatcher("glob:" + glob);
+        List<String> found = new ArrayList<>();
+        findFiles(root, root, IgnoreRules.NONE, file -> matcher == null
+                || matcher.matches(onPath ? root.relativize(file) : file.getFileName()), found, limit);
+        return found;
+    }
+
+    private static void findFiles(Path root, Path dir, IgnoreRules inherited, Predicate<Path> accepts,
+                                  List<String> found, int limit) throws IOException {
+        IgnoreRules rules = inherited.enter(dir);
+        List<Path> subdirectories = new ArrayList<>();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+            for (Path entry : entries) {
+                if (found.size() >= limit) return;
+                BasicFileAttributes attrs;
+                try {
+                    attrs = Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                } catch (IOException e) {
+                    continue;
+                }
+                if (attrs.isSymbolicLink() || rules.isIgnored(entry, attrs.isDirectory())) continue;
+                if (attrs.isDirectory()) {
+                    subdirectories.add(entry);
+                } else if (attrs.isRegularFile() && accepts.test(entry)) {
+                    found.add(root.relativize(entry).toString());
+                }
+            }
+        } catch (IOException e) {
+            // Unreadable directory: skip it, unless it is where the search starts
+            if (dir.equals(root)) throw e;
+            return;
+        }
+        for (Path subdirectory : subdirectories) {
+            if (found.size() >= limit) return;
+            findFiles(root, subdirectory, rules, accepts, found, limit);
+        }
+    }
+
+    /**
+     * Search an explicit list of candidate files (e.g. from the trigram index) with the same matching and
+     * limits as {@link #search}; the glob filter is applied relative to {@code root}.
+     */
+    Result searchCandidates(Path root, List<Path> candidates, Query query, int maxResults) throws IOException {
+        Collector collector = new Collector(Math.min(Math.max(maxResults, 1), MAX_RESULTS));
+        List<Path> accepted = candidates.stream().filter(file -> query.accepts(root, file)).toList();
+        parallelFileTree.invoke(new SearchCandidates(accepted, query, collector));
+        return collector.result();
+    }
+
+    /**
+     * Matching lines of one file, at most {@code limit}. Returns {@code null} for binary or oversized files.
+     */
+    static List<Match> scanFile(Path file, Query query, int limit) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = ch.size();
+            if (size == 0) return List.of();
+            if (size > MAX_FILE_BYTES) return null;
+            ByteBuffer bytes;
+            if (size <= SMALL_FILE_BYTES) {
+                bytes = SMALL_BUFFER.get().clear();
+                while (bytes.position() < size && ch.read(bytes) >= 0) {
+                    // fill
+                }
+                bytes.flip();
+            } else {
+                bytes = ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            }
+            if (isBinary(bytes)) return null;
+            return query.literal != null
+                    ? scanBytes(file, bytes, query.literal, limit)
+                    : scanChars(file, bytes, query.pattern, limit);
+        }
+    }
+
+    private static boolean isBinary(ByteBuffer bytes) {
+        int probe = Math.min(bytes.limit(), BINARY_PROBE_BYTES);
+        for (int i = 0; i < probe; i++) {
+            if (bytes.get(i) == 0) return true;
+        }
+        return false;
+    }
+
+    private static List<Match> scanBytes(Path file, ByteBuffer bytes, byte[] needle, int limit) {
+        List<Match> matches = new ArrayList<>();
+        int size = bytes.limit();
+        if (needle.length == 0) return matches;
+        byte first = needle[0];
+        long line = 1;
+        int counted = 0;
+        int last = size - needle.length;
+        for (int i = 0; i <= last && matches.size() < limit; i++) {
+            if (bytes.get(i) != first || !regionMatches(bytes, i, needle)) continue;
+            for (; counted < i; counted++) {
+                if (bytes.get(counted) == '\n') line++;
+            }
+            int start = i;
+            while (start > 0 && bytes.get(start - 1) != '\n') start--;
+            int end = i + needle.length;
+            while (end < size && bytes.get(end) != '\n') end++;
+            matches.add(new Match(file, line, snippet(decode(bytes, start, end))));
+            // One hit per line, like grep
+            i = end;
+        }
+        return matches;
+    }
+
+    private static boolean regionMatches(ByteBuffer bytes, int at, byte[] needle) {
+        for (int j = 1; j < needle.length; j++) {
+            if (bytes.get(at + j) != needle[j]) return false;
+        }
+        return true;
+    }
+
+    private static List<Match> scanChars(Path file, ByteBuffer bytes, Pattern pattern, int limit) throws IOException {
+        List<Match> matches = new ArrayList<>();
+        CharBuffer chars = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE)
+                .decode(bytes);
+        Matcher matcher = pattern.matcher(chars);
+        int length = chars.length();
+        long line = 1;
+        int counted = 0;
+        int from = 0;
+        while (from <= length && matches.size() < limit && matcher.find(from)) {
+            int at = matcher.start();
+            for (; counted < at; counted++) {
+                if (chars.charAt(counted) == '\n') line++;
+            }
+            int start = at;
+            while (start > 0 && chars.charAt(start - 1) != '\n') start--;
+            int end = Math.max(at, matcher.end() - 1);
+            while (end < length && chars.charAt(end) != '\n') end++;
+            matches.add(new Match(file, line, snippet(chars.subSequence(start, end).toString())));
+            from = end + 1;
+        }
+        return matches;
+    }
+
+    private static String decode(ByteBuffer bytes, int start, int end) {
+        byte[] line = new byte[end - start];
+        bytes.get(start, line);
+        return new String(line, StandardCharsets.UTF_8);
+    }
+
+    private static String snippet(String line) {
+        String trimmed = line.strip();
+        return trimmed.length() <= MAX_SNIPPET_CHARS ? trimmed : trimmed.substring(0, MAX_SNIPPET_CHARS) + "…";
+    }
+
+    /** Thread-safe sink that signals the walk to stop once the limit is reached. */
+    private static final class Collector {
+        final int limit;
+        final Queue<Match> matches = new ConcurrentLinkedQueue<>();
+        final AtomicInteger count = new AtomicInteger();
+        final AtomicInteger scanned = new AtomicInteger();
+        final AtomicInteger skipped = new AtomicInteger();
+        volatile boolean full;
+
+        Collector(int limit) {
+            this.limit = limit;
+        }
+
+        int remaining() {
+            return limit - count.get();
+        }
+
+        void add(List<Match> found) {
+            for (Match match : found) {
+                if (count.incrementAndGet() > limit) {
+                    full = true;
+                    return;
+                }
+                matches.add(match);
+            }
+            if (count.get() >= limit) full = true;
+        }
+
+        Result result() {
+            List<Match> sorted = new ArrayList<>(matches);
+            sorted.sort(Comparator.comparing(Match::file).thenComparingLong(Match::line));
+            return new Result(sorted, scanned.get(), skipped.get(), full);
+        }
+    }
+
+    private static final class SearchDirectory extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final transient Path root;
+        private final transient Path dir;
+        private final transient IgnoreRules inherited;
+        private final transient Query query;
+        private final transient Collector collector;
+
+        SearchDirectory(Path root, Path dir, IgnoreRules inherited, Query query, Collector collector) {
+            this.root = root;
+            this.dir = dir;
+            this.inherited = inherited;
+            this.query = query;
+            this.collector = collector;
+        }
+
+        @Override
+        protected void compute() {
+            if (collector.full) return;
+            IgnoreRules rules = inherited.enter(dir);
+            List<ForkJoinTask<?>> children = new ArrayList<>();
+            List<Path> files = new ArrayList<>();
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+                for (Path entry : entries) {
+                    BasicFileAttributes attrs;
+                    try {
+                        attrs = Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                    } catch (IOException e) {
+                        continue;
+                    }
+                    if (attrs.isSymbolicLink() || rules.isIgnored(entry, attrs.isDirectory())) continue;
+                    if (attrs.isDirectory()) {
+                        children.add(new SearchDirectory(root, entry, rules, query, collector));
+                    } else if (attrs.isRegularFile() && query.accepts(root, entry)) {
+                        files.add(entry);
+                        if (files.size() == FILES_PER_TASK) {
+                            children.add(new SearchFiles(files, query, collector));
+                            files = new ArrayList<>();
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                // Unreadable directory: skip it, like grep -s
+                return;
+            }
+            if (!files.isEmpty()) {
+                children.add(new SearchFiles(files, query, collector));
+            }
+            invokeAll(children);
+        }
+    }
+
+    private static final class SearchCandidates extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final transient List<Path> files;
+        private final transient Query query;
+        private final transient Collector collector;
+
+        SearchCandidates(List<Path> files, Query query, Collector collector) {
+            this.files = files;
+            this.query = query;
+            this.collector = collector;
+        }
+
+        @Override
+        protected void compute() {
+            List<ForkJoinTask<?>> children = new ArrayList<>();
+            for (int i = 0; i < files.size(); i += FILES_PER_TASK) {
+                children.add(new SearchFiles(files.subList(i, Math.min(files.size(), i + FILES_PER_TASK)), query, collector));
+            }
+            invokeAll(children);
+        }
+    }
+
+    private static final class SearchFiles extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final transient List<Path> files;
+        private final transient Query query;
+        private final transient Collector collector;
+
+        SearchFiles(List<Path> files, Query query, Collector collector) {
+            this.files = files;
+            this.query = query;
+            this.collector = collector;
+        }
+
+        @Override
+        protected void compute() {
+            for (Path file : files) {
+                if (collector.full) return;
+                try {
+                    List<Match> found = scanFile(file, query, collector.remaining());
+                    collector.scanned.incrementAndGet();
+                    if (found == null) {
+                        collector.skipped.incrementAndGet();
+                    } else if (!found.isEmpty()) {
+                        collector.add(found);
+                    }
+                } catch (IOException e) {
+                    // Unreadable file: skip it
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package com.clockworkideas.kog.shell.service.tools;
+
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Paginated, sorted and filtered directory listings. Each directory is read once into a snapshot with a
+ * single {@code readAttributes} call per entry; snapshots stay cached until the {@link DirectoryWatcher}
+ * reports a change in that directory or a tool reports its own write through {@link #changed}, so repeat
+ * listings of hot directories never touch the disk.
+ * <p>
+ * The lister holds a watch on exactly the directories it has snapshots of: dropping a snapshot, for whatever
+ * reason, releases its watch, so the watcher's budget is not used up by directories listed once long ago.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class DirectoryLister {
+
+    public static final int DEFAULT_PAGE_SIZE = 200;
+    public static final int MAX_PAGE_SIZE = 1000;
+    private static final int MAX_CACHED_DIRECTORIES = 256;
+
+    public enum SortKey { NAME, SIZE, MTIME }
+
+    public record Entry(String name, boolean directory, boolean symlink, long size, long modifiedMillis) {
+    }
+
+    /** One page of a listing; {@code total} counts entries after filtering. */
+    public record Page(List<Entry> entries, int total, int page, int pageSize) {
+        public int pages() {
+            return Math.max(1, (total + pageSize - 1) / pageSize);
+        }
+    }
+
+    private static final class Snapshot {
+        final List<Entry> byName;
+        final Map<String, List<Entry>> sorted = new ConcurrentHashMap<>();
+
+        Snapshot(List<Entry> byName) {
+            this.byName = byName;
+        }
+    }
+
+    private final DirectoryWatcher watcher;
+    private final ConcurrentMap<Path, Snapshot> snapshots = new ConcurrentHashMap<>();
+    private final AtomicLong changes = new AtomicLong();
+
+    @PostConstruct
+    void subscribe() {
+        watcher.addListener((dir, entry) -> {
+            changes.incrementAndGet();
+            if (snapshots.remove(dir) != null) watcher.unwatch(dir, this);
+        });
+    }
+
+    /**
+     * Drop the snapshots a change to {@code paths} makes stale: each path's parent directory and, for a
+     * directory, the path itself and everything cached under it. Tools call this after their own writes so
+     * the next listing sees them without waiting for the watcher.
+     */
+    public void changed(Path... paths) {
+        for (Path path : paths) {
+            if (path == null) continue;
+            Path normalized = path.toAbsolutePath().normalize();
+            // Counted first, so a snapshot being read concurrently is not cached
+            changes.incrementAndGet();
+            if (normalized.getParent() != null) drop(normalized.getParent());
+            for (Path dir : List.copyOf(snapshots.keySet())) {
+                if (dir.startsWith(normalized)) drop(dir);
+            }
+        }
+    }
+
+    /**
+     * List one page of {@code dir}. {@code page} is 1-based; {@code glob} filters entry names
+     * (e.g. {@code *.log}); {@code descending} reverses the sort order.
+     */
+    public Page list(Path dir, int page, int pageSize, SortKey sortKey, boolean descending, String glob) throws IOException {
+        Path key = dir.toAbsolutePath().normalize();
+        List<Entry> entries = sorted(snapshot(key), sortKey, descending);
+
+        if (glob != null && !glob.isBlank()) {
+            PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + glob);
+            List<Entry> matching = new ArrayList<>();
+            for (Entry entry : entries) {
+                if (matcher.matches(Path.of(entry.name()))) matching.add(entry);
+            }
+            entries = matching;
+        }
+
+        int size = Math.min(Math.max(pageSize, 1), MAX_PAGE_SIZE);
+        int number = Math.max(page, 1);
+        int from = (int) Math.min((number - 1L) * size, entries.size());
+        int to = Math.min(from + size, entries.size());
+        return new Page(List.copyOf(entries.subList(from, to)), entries.size(), number, size);
+    }
+
+    private Snapshot snapshot(Path dir) throws IOException {
+        Snapshot cached = snapshots.get(dir);
+        if (cached != null) return cached;
+
+        // Register before reading, and drop the snapshot again if any change arrived while it was read. Every
+        // release of a watch counts as a change, so a snapshot that stays cached is always still watched.
+        long before = changes.get();
+        boolean watched = watcher.watch(dir, this);
+        Snapshot fresh;
+        try {
+            fresh = new Snapshot(read(dir));
+        } catch (IOException e) {
+            if (watched && !snapshots.containsKey(dir)) release(dir);
+            throw e;
+        }
+        if (watched) {
+            if (snapshots.size() >= MAX_CACHED_DIRECTORIES) evictOne();
+            snapshots.put(dir, fresh);
+            if (changes.get() != before && snapshots.remove(dir, fresh)) release(dir);
+        }
+        return fresh;
+    }
+
+    private void drop(Path dir) {
+        if (snapshots.remove(dir) != null) release(dir);
+    }
+
+    private void release(Path dir) {
+        changes.incrementAndGet();
+        watcher.unwatch(dir, this);
+    }
+
+    private static List<Entry> read(Path dir) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path path : stream) {
+                BasicFileAttributes attrs;
+                try {
+                    attrs = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                } catch (IOException e) {
+                    // Vanished between readdir and stat
+                    continue;
+                }
+                entries.add(new Entry(path.getFileName().toString(), attrs.isDirectory(), attrs.isSymbolicLink(),
+                        attrs.size(), attrs.lastModifiedTime().toMillis()));
+            }
+        }
+        entries.sort(Comparator.comparing(Entry::name));
+        return List.copyOf(entries);
+    }
+
+    private static List<Entry> sorted(Snapshot snapshot, SortKey sortKey, boolean descending) {
+        if (sortKey == SortKey.NAME && !descending) return snapshot.byName;
+        return snapshot.sorted.computeIfAbsent(sortKey + (descending ? "-desc" : ""), k -> {
+            Comparator<Entry> comparator = switch (sortKey) {
+                case NAME -> Comparator.comparing(Entry::name);
+                case SIZE -> Comparator.comparingLong(Entry::size).thenComparing(Entry::name);
+                case MTIME -> Comparator.comparingLong(Entry::modifiedMillis).thenComparing(Entry::name);
+            };
+            List<Entry> copy = new ArrayList<>(snapshot.byName);
+            copy.sort(descending ? comparator.reversed() : comparator);
+            return List.copyOf(copy);
+        });
+    }
+
+    private void evictOne() {
+        Iterator<Path> it = snapshots.keySet().iterator();
+        if (it.hasNext()) drop(it.next());
+    }
+}
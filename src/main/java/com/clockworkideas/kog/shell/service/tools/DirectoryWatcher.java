@@ -0,0 +1,167 @@
+package com.clockworkideas.kog.shell.service.tools;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Shared {@link WatchService} for caches that need to know when a directory's contents change.
+ * Directories are registered on demand up to {@code kog.tools.max-watched-directories}; events are
+ * delivered to every {@link Listener} from a single daemon thread.
+ * <p>
+ * Each cache watches a directory on its own behalf, as an owner: a directory stays registered while any owner
+ * still holds it, so one cache giving a directory up does not blind another. Owners must release what they no
+ * longer need, or the budget runs out and nothing more can be watched.
+ */
+@Slf4j
+@Component
+public class DirectoryWatcher {
+
+    /** Receives change notifications; {@code entry} is {@code null} when events were lost (overflow). */
+    @FunctionalInterface
+    public interface Listener {
+        void onChange(Path directory, Path entry);
+    }
+
+    @Value("${kog.tools.max-watched-directories:4096}")
+    private int maxWatched = 4096;
+
+    /** A registered directory and the owners holding it; dropped, and its key cancelled, with the last owner. */
+    private record Registration(WatchKey key, Set<Object> owners) {
+    }
+
+    private final ConcurrentMap<Path, Registration> registrations = new ConcurrentHashMap<>();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private volatile WatchService watchService;
+    private volatile boolean closed;
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Start watching {@code dir} for {@code owner}; watching a directory the owner already holds does nothing.
+     * Returns {@code false} if it cannot be watched (limit reached, file system without watch support), in which
+     * case callers must not rely on change notifications for it.
+     */
+    public synchronized boolean watch(Path dir, Object owner) {
+        Registration registration = registrations.get(dir);
+        if (registration != null) {
+            registration.owners().add(owner);
+            return true;
+        }
+        if (closed || registrations.size() >= maxWatched) return false;
+        try {
+            WatchKey key = dir.register(service(),
+                    StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_DELETE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+            Set<Object> owners = ConcurrentHashMap.newKeySet();
+            owners.add(owner);
+            registrations.put(dir, new Registration(key, owners));
+            return true;
+        } catch (IOException | UnsupportedOperationException | ClosedWatchServiceException e) {
+            log.debug("Cannot watch {}: {}", dir, e.getMessage());
+            return false;
+        }
+    }
+
+    /** Release {@code owner}'s hold on {@code dir}; the watch is cancelled once no owner holds it. */
+    public synchronized void unwatch(Path dir, Object owner) {
+        Registration registration = registrations.get(dir);
+        if (registration != null && registration.owners().remove(owner) && registration.owners().isEmpty()) {
+            registrations.remove(dir);
+            registration.key().cancel();
+        }
+    }
+
+    /** Release every directory {@code owner} holds. */
+    public synchronized void unwatchAll(Object owner) {
+        for (Path dir : List.copyOf(registrations.keySet())) {
+            unwatch(dir, owner);
+        }
+    }
+
+    public boolean isWatched(Path dir) {
+        return registrations.containsKey(dir);
+    }
+
+    public boolean isWatched(Path dir, Object owner) {
+        Registration registration = registrations.get(dir);
+        return registration != null && registration.owners().contains(owner);
+    }
+
+    private WatchService service() throws IOException {
+        WatchService service = watchService;
+        if (service == null) {
+            synchronized (this) {
+                service = watchService;
+                if (service == null) {
+                    service = FileSystems.getDefault().newWatchService();
+                    Thread thread = new Thread(this::pump, "kog-directory-watcher");
+                    thread.setDaemon(true);
+                    watchService = service;
+                    thread.start();
+                }
+            }
+        }
+        return service;
+    }
+
+    private void pump() {
+        while (!closed) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            Path dir = (Path) key.watchable();
+            for (WatchEvent<?> event : key.pollEvents()) {
+                Path entry = event.kind() == StandardWatchEventKinds.OVERFLOW
+                        ? null
+                        : dir.resolve((Path) event.context());
+                notifyListeners(dir, entry);
+            }
+            if (!key.reset()) {
+                // Directory deleted or no longer accessible; a later unwatch by its owners finds nothing to release
+                synchronized (this) {
+                    Registration registration = registrations.get(dir);
+                    if (registration != null && registration.key() == key) registrations.remove(dir);
+                }
+                notifyListeners(dir, null);
+            }
+        }
+    }
+
+    private void notifyListeners(Path dir, Path entry) {
+        for (Listener listener : listeners) {
+            try {
+                listener.onChange(dir, entry);
+            } catch (RuntimeException e) {
+                log.warn("Directory change listener failed for {}: {}", dir, e.getMessage());
+            }
+        }
+    }
+
+    @PreDestroy
+    void close() throws IOException {
+        closed = true;
+        if (watchService != null) watchService.close();
+    }
+}
@@ -0,0 +1,244 @@
+package com.clockworkideas.kog.shell.service.tools;
+
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Disk usage of a directory tree, walked in parallel on the {@link ParallelFileTree} pool with one task per
+ * directory. Each directory's listing (the bytes and count of its own files, its subdirectories and its largest
+ * files) is cached keyed on the directory's mtime, so a repeated query stats every directory but only re-lists
+ * the ones whose entries were added, removed or renamed since.
+ * <p>
+ * Rewriting a file in place does not touch its directory's mtime. Listings are therefore also dropped on
+ * {@link DirectoryWatcher} events and on {@link #changed} calls from the mutating tools, and re-read once they
+ * are older than {@code kog.tools.du.max-age}. Sizes are apparent sizes; symlinks count as entries but are
+ * never followed.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class DiskUsageAnalyzer {
+
+    /** Largest files remembered per directory, for reporting files next to directories. */
+    static final int LARGEST_FILES = 8;
+
+    private final ParallelFileTree parallelFileTree;
+    private final DirectoryWatcher watcher;
+
+    @Value("${kog.tools.du.max-age:10m}")
+    private Duration maxAge = Duration.ofMinutes(10);
+
+    @Value("${kog.tools.du.max-cached-directories:200000}")
+    private int maxCachedDirectories = 200_000;
+
+    private final ConcurrentMap<Path, Node> cache = new ConcurrentHashMap<>();
+
+    /** An entry of the report: a directory with its subtree totals, or a single file. */
+    public record Entry(Path path, boolean directory, long bytes, long files) {
+    }
+
+    /**
+     * Totals for {@code root} and the heaviest directories (up to {@code depth} levels down) and files (in
+     * those directories), largest first. {@code listed} and {@code reused} count directories read from disk
+     * and served from the cache.
+     */
+    public record Usage(Path root, long bytes, long files, long directories, List<Entry> heaviest,
+                        long listed, long reused, long unreadable) {
+    }
+
+    private record FileSize(String name, long bytes) {
+    }
+
+    /** What one directory holds directly, as of its mtime {@code modified}. */
+    private record Listing(FileTime modified, long listedAtMillis, long ownBytes, long ownFiles,
+                           List<String> subdirectories, List<FileSize> largestFiles) {
+    }
+
+    /** A directory's listing plus the totals of its whole subtree from the last walk. */
+    private record Node(Listing listing, long bytes, long files, long directories) {
+    }
+
+    @PostConstruct
+    void subscribe() {
+        watcher.addListener((dir, entry) -> changed(entry == null ? dir : entry));
+    }
+
+    /** Record that {@code paths} were created, modified or removed so their directories are re-listed. */
+    public void changed(Path... paths) {
+        if (cache.isEmpty()) return;
+        for (Path path : paths) {
+            if (path == null) continue;
+            Path normalized = path.toAbsolutePath().normalize();
+            cache.remove(normalized);
+            if (normalized.getParent() != null) cache.remove(normalized.getParent());
+        }
+    }
+
+    /** Measure {@code root} and report its {@code top} heaviest entries down to {@code depth} levels. */
+    public Usage measure(Path root, int top, int depth) throws IOException {
+        Path dir = root.toAbsolutePath().normalize();
+        if (!Files.isDirectory(dir, LinkOption.NOFOLLOW_LINKS)) {
+            throw new IOException("Not a directory: " + dir);
+        }
+        if (cache.size() > maxCachedDirectories) {
+            // Coarse bound: start over rather than track recency for every directory
+            cache.clear();
+        }
+        Walk walk = new Walk();
+        Node node = parallelFileTree.invoke(new Measure(dir, walk, depth));
+
+        List<Entry> entries = new ArrayList<>();
+        collect(dir, node, depth, walk, entries);
+        entries.sort(Comparator.comparingLong(Entry::bytes).reversed().thenComparing(Entry::path));
+        List<Entry> heaviest = entries.size() > top ? List.copyOf(entries.subList(0, top)) : List.copyOf(entries);
+        return new Usage(dir, node.bytes(), node.files(), node.directories(), heaviest,
+                walk.listed.sum(), walk.reused.sum(), walk.unreadable.sum());
+    }
+
+    public int getCachedDirectories() {
+        return cache.size();
+    }
+
+    /**
+     * Subdirectories of {@code dir} down to {@code depth} levels, plus the largest files found in {@code dir} and
+     * them. Nodes come from this walk, not the cache, which watcher events and other walks may clear meanwhile.
+     */
+    private static void collect(Path dir, Node node, int depth, Walk walk, List<Entry> out) {
+        for (FileSize file : node.listing().largestFiles()) {
+            out.add(new Entry(dir.resolve(file.name()), false, file.bytes(), 1));
+        }
+        if (depth <= 0) return;
+        for (String name : node.listing().subdirectories()) {
+            Path child = dir.resolve(name);
+            Node childNode = walk.reported.get(child);
+            if (childNode == null) continue;
+            out.add(new Entry(child, true, childNode.bytes(), childNode.files()));
+            collect(child, childNode, depth - 1, walk, out);
+        }
+    }
+
+    private static final class Walk {
+        final LongAdder listed = new LongAdder();
+        final LongAdder reused = new LongAdder();
+        final LongAdder unreadable = new LongAdder();
+        /** Nodes of the directories within reporting depth, as this walk computed them. */
+        final ConcurrentMap<Path, Node> reported = new ConcurrentHashMap<>();
+    }
+
+    /** Totals for one directory: reuse its listing if the mtime still matches, then sum its subdirectories in parallel. */
+    private final class Measure extends RecursiveTask<Node> {
+        private static final long serialVersionUID = 1L;
+
+        private final transient Path dir;
+        private final transient Walk walk;
+        /** Levels below {@code dir} still reported; negative once below the report. */
+        private final int depth;
+
+        Measure(Path dir, Walk walk, int depth) {
+            this.dir = dir;
+            this.walk = walk;
+            this.depth = depth;
+        }
+
+        @Override
+        protected Node compute() {
+            Listing listing;
+            try {
+                listing = listing();
+            } catch (IOException e) {
+                // Vanished or unreadable: count it and carry on with the rest of the tree
+                log.debug("Skipping {} in disk usage: {}", dir, e.getMessage());
+                walk.unreadable.increment();
+                cache.remove(dir);
+                Node empty = new Node(new Listing(null, 0, 0, 0, List.of(), List.of()), 0, 0, 1);
+                if (depth >= 0) walk.reported.put(dir, empty);
+                return empty;
+            }
+
+            List<Measure> children = new ArrayList<>(listing.subdirectories().size());
+            for (String name : listing.subdirectories()) {
+                children.add(new Measure(dir.resolve(name), walk, depth - 1));
+            }
+            invokeAll(children);
+
+            long bytes = listing.ownBytes();
+            long files = listing.ownFiles();
+            long directories = 1;
+            for (Measure child : children) {
+                Node sub = child.join();
+                bytes += sub.bytes();
+                files += sub.files();
+                directories += sub.directories();
+            }
+            Node node = new Node(listing, bytes, files, directories);
+            cache.put(dir, node);
+            if (depth >= 0) walk.reported.put(dir, node);
+            return node;
+        }
+
+        private Listing listing() throws IOException {
+            FileTime modified = Files.readAttributes(dir, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS)
+                    .lastModifiedTime();
+            long now = System.currentTimeMillis();
+            Node cached = cache.get(dir);
+            if (cached != null && modified.equals(cached.listing().modified())
+                    && now - cached.listing().listedAtMillis() < maxAge.toMillis()) {
+                walk.reused.increment();
+                return cached.listing();
+            }
+            walk.listed.increment();
+
+            long ownBytes = 0;
+            long ownFiles = 0;
+            List<String> subdirectories = new ArrayList<>();
+            List<FileSize> largest = new ArrayList<>(LARGEST_FILES + 1);
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+                for (Path entry : stream) {
+                    BasicFileAttributes attrs;
+                    try {
+                        attrs = Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                    } catch (IOException e) {
+                        continue; // removed while we were listing
+                    }
+                    String name = entry.getFileName().toString();
+                    if (attrs.isDirectory()) {
+                        subdirectories.add(name);
+                        continue;
+                    }
+                    ownBytes += attrs.size();
+                    ownFiles++;
+                    keepLargest(largest, new FileSize(name, attrs.size()));
+                }
+            }
+            return new Listing(modified, now, ownBytes, ownFiles, List.copyOf(subdirectories), List.copyOf(largest));
+        }
+    }
+
+    /** Insert into a short list kept sorted by size, dropping the smallest beyond {@link #LARGEST_FILES}. */
+    private static void keepLargest(List<FileSize> largest, FileSize file) {
+        if (largest.size() == LARGEST_FILES && largest.get(LARGEST_FILES - 1).bytes() >= file.bytes()) return;
+        int i = largest.size();
+        while (i > 0 && largest.get(i - 1).bytes() < file.bytes()) i--;
+        largest.add(i, file);
+        if (largest.size() > LARGEST_FILES) largest.remove(LARGEST_FILES);
+    }
+}
@@ -0,0 +1,149 @@
+package com.clockworkideas.kog.shell.service.tools;
+
+import org.springframework.ai.chat.model.ToolContext;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * What the tools did while answering one exchange: which files and directories the answer depended on
+ * (with their size and mtime at the time), whether any tool mutated the file system or the session, and
+ * whether the answer depends on the clock, and how many tokens of tool output it has sent to the model so far.
+ * Passed to the tools through the {@link ToolContext}.
+ */
+public class ExchangeTrace {
+
+    /** {@link ToolContext} key carrying the trace. */
+    public static final String CONTEXT_KEY = "kog.trace";
+
+    private static final ExchangeTrace DISCARD = new ExchangeTrace(false);
+
+    /** Size and mtime of a path when it was observed; both {@code -1} if it did not exist. */
+    public record FileStamp(long size, long modifiedMillis) {
+        public static FileStamp of(Path path) {
+            try {
+                BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                return new FileStamp(attrs.size(), attrs.lastModifiedTime().toMillis());
+            } catch (IOException e) {
+                return new FileStamp(-1, -1);
+            }
+        }
+    }
+
+    private final boolean recording;
+    private final Map<Path, FileStamp> dependencies = new ConcurrentHashMap<>();
+    private volatile boolean mutating;
+    private volatile boolean clockDependent;
+    private volatile boolean treeDependent;
+    private volatile boolean liveStateRead;
+    private final AtomicInteger toolCalls = new AtomicInteger();
+    private final AtomicInteger resultTokens = new AtomicInteger();
+
+    public ExchangeTrace() {
+        this(true);
+    }
+
+    private ExchangeTrace(boolean recording) {
+        this.recording = recording;
+    }
+
+    /** Trace attached to a tool call, or a shared instance that records nothing. */
+    public static ExchangeTrace from(ToolContext toolContext) {
+        Object trace = toolContext == null ? null : toolContext.getContext().get(CONTEXT_KEY);
+        return trace instanceof ExchangeTrace t ? t : DISCARD;
+    }
+
+    /** Record that the answer read {@code path}; the first observation wins. */
+    public void dependsOn(Path path) {
+        if (!recording) return;
+        dependencies.computeIfAbsent(path.toAbsolutePath().normalize(), FileStamp::of);
+    }
+
+    /**
+     * Record that the answer depends on the whole subtree under {@code root} (searches, usage totals). Such
+     * answers cannot be validated cheaply, so the exchange is not cached; {@code root} itself is recorded like
+     * any other dependency.
+     */
+    public void dependsOnTree(Path root) {
+        if (!recording) return;
+        treeDependent = true;
+        dependsOn(root);
+    }
+
+    /** Record a tool call that changed files or session state. */
+    public void mutated() {
+        if (!recording) return;
+        mutating = true;
+    }
+
+    /**
+     * Record a tool call whose answer reports state that moves on by itself, such as the progress of running
+     * operations. No file stamp can tell when it went stale, so the exchange is not cached.
+     */
+    public void readLiveState() {
+        if (!recording) return;
+        liveStateRead = true;
+    }
+
+    /** Record a tool call whose answer depends on the current time. */
+    public void readClock() {
+        if (!recording) return;
+        clockDependent = true;
+    }
+
+    /** Record that the model called a tool; counted once per call by the tool callback layer. */
+    public void toolCalled() {
+        if (!recording) return;
+        toolCalls.incrementAndGet();
+    }
+
+    /**
+     * Take up to {@code wanted} tokens of tool output from the exchange's budget of {@code limit} and return how
+     * many were granted. A trace that records nothing grants everything asked for.
+     */
+    public int reserveResultTokens(int wanted, int limit) {
+        if (!recording) return wanted;
+        while (true) {
+            int used = resultTokens.get();
+            int granted = Math.max(0, Math.min(wanted, limit - used));
+            if (resultTokens.compareAndSet(used, used + granted)) return granted;
+        }
+    }
+
+    /** Adjust the tool output charged to the exchange once the actual size is known; negative returns tokens. */
+    public void adjustResultTokens(int delta) {
+        if (!recording) return;
+        resultTokens.addAndGet(delta);
+    }
+
+    public int getResultTokens() {
+        return resultTokens.get();
+    }
+
+    public Map<Path, FileStamp> getDependencies() {
+        return Map.copyOf(dependencies);
+    }
+
+    public int getToolCalls() {
+        return toolCalls.get();
+    }
+
+    public boolean isMutating() {
+        return mutating;
+    }
+
+    /** Whether the answer may be replayed while its recorded dependencies are unchanged. */
+    public boolean isCacheable() {
+        return !mutating && !treeDependent && !liveStateRead;
+    }
+
+    public boolean isClockDependent() {
+        return clockDependent;
+    }
+}
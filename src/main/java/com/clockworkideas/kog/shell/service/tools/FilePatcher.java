@@ -0,0 +1,823 @@
+package com.clockworkideas.kog.shell.service.tools;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.UserDefinedFileAttributeView;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Function;
+
+/**
+ * In-place edits that cost in proportion to the change rather than the file: exact-text replacement,
+ * line-range replacement and unified diffs. The untouched parts of the file are copied to a temporary file
+ * next to it with {@link FileChannel#transferTo} (or streamed line by line for diffs) and the temporary file
+ * is renamed over the original, so readers never see a half-written file.
+ * <p>
+ * Every edit states what it expects to find; when the file does not match, nothing is written and a
+ * {@link ConflictException} says where and how it differs.
+ */
+@Component
+@RequiredArgsConstructor
+public class FilePatcher {
+
+    private static final long SCAN_CHUNK = 16L << 20;
+    private static final int MAX_QUOTED_CHARS = 120;
+    /** How many lines from the position its header states a hunk is looked for. */
+    static final int MAX_OFFSET = 1000;
+    /** How many context lines at each end of a hunk may be ignored when it matches nowhere as written. */
+    static final int MAX_FUZZ = 2;
+
+    private final FileWindowReader fileWindowReader;
+
+    /** The file does not contain what the edit expects. The message locates the mismatch. */
+    public static final class ConflictException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        ConflictException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Outcome of one file's edit; {@code created} / {@code deleted} are set for diffs against /dev/null, and
+     * {@code notes} lists hunks that applied away from their stated line or with context lines ignored.
+     */
+    public record Result(Path file, int hunks, int linesRemoved, int linesAdded, boolean created, boolean deleted,
+                         List<String> notes) {
+    }
+
+    /** Replace the one occurrence of {@code oldText} in {@code file} with {@code newText}. */
+    public Result replace(Path file, String oldText, String newText) throws IOException {
+        if (oldText == null || oldText.isEmpty()) {
+            throw new ConflictException("oldText must not be empty");
+        }
+        byte[] needle = oldText.getBytes(StandardCharsets.UTF_8);
+        byte[] replacement = (newText == null ? "" : newText).getBytes(StandardCharsets.UTF_8);
+        Stamp stamp = Stamp.of(file);
+        long at;
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            long[] found = find(ch, needle, 0, 3);
+            if (found.length == 0) {
+                throw new ConflictException(describeMissing(ch, oldText));
+            }
+            if (found.length > 1) {
+                StringBuilder lines = new StringBuilder();
+                for (long offset : found) {
+                    if (!lines.isEmpty()) lines.append(", ");
+                    lines.append(lineOf(ch, offset));
+                }
+                throw new ConflictException("oldText occurs " + (found.length > 2 ? "3 or more times" : "twice")
+                        + " (lines " + lines + "); include more surrounding text so it matches exactly once");
+            }
+            at = found[0];
+        }
+        splice(file, stamp, at, at + needle.length, replacement);
+        return new Result(file, 1, countLines(oldText), countLines(newText), false, false, List.of());
+    }
+
+    /**
+     * Replace lines {@code firstLine..lastLine} (1-based, inclusive) with {@code newText}. A {@code lastLine}
+     * before {@code firstLine} inserts before {@code firstLine}. When {@code expected} is given it must equal
+     * the current content of the range.
+     */
+    public Result replaceLines(Path file, long firstLine, long lastLine, String newText, String expected) throws IOException {
+        if (firstLine < 1) {
+            throw new ConflictException("firstLine must be 1 or greater");
+        }
+        Stamp stamp = Stamp.of(file);
+        int count = (int) Math.max(0, Math.min(Integer.MAX_VALUE, lastLine - firstLine + 1));
+        FileWindowReader.Window window = fileWindowReader.readLines(file, firstLine, count);
+        if (window.truncated()) {
+            throw new ConflictException("Lines " + firstLine + "-" + lastLine + " span more than "
+                    + FileWindowReader.MAX_WINDOW_BYTES + " bytes; use a smaller range or a patch");
+        }
+        if (window.lineCount() < count) {
+            throw new ConflictException("File has no line " + (firstLine + window.lineCount())
+                    + " (it ends at line " + (firstLine + window.lineCount() - 1) + ")");
+        }
+        if (expected != null) {
+            String mismatch = firstDifference(window.text(), expected, firstLine);
+            if (mismatch != null) throw new ConflictException(mismatch);
+        }
+
+        String text = newText == null ? "" : newText;
+        String eol = lineEnding(window.text());
+        if (count == 0 && firstLine > 1) {
+            // Inserting: the line before the insertion point must exist
+            FileWindowReader.Window previous = fileWindowReader.readLines(file, firstLine - 1, 1);
+            if (previous.lineCount() == 0) {
+                throw new ConflictException("Cannot insert before line " + firstLine + ": the file has fewer than "
+                        + (firstLine - 1) + " lines");
+            }
+            eol = lineEnding(previous.text());
+            if (!text.isEmpty() && !previous.text().endsWith("\n")) {
+                // Appending after a last line that has no newline: terminate it, keep the new text unterminated
+                text = eol + text;
+            } else if (!text.isEmpty() && !text.endsWith("\n")) {
+                text += eol;
+            }
+        } else if (!text.isEmpty() && !text.endsWith("\n")) {
+            boolean replacesUnterminatedLastLine = window.endOffset() >= window.fileSize() && count > 0
+                    && !window.text().endsWith("\n");
+            if (!replacesUnterminatedLastLine) text += eol;
+        }
+        splice(file, stamp, window.startOffset(), window.endOffset(), text.getBytes(StandardCharsets.UTF_8));
+        return new Result(file, 1, count, countLines(text), false, false, List.of());
+    }
+
+    /**
+     * Apply a unified diff (as produced by {@code diff -u} or {@code git diff}) to the files it names, resolved
+     * by {@code resolver}. Like {@code patch}, a hunk whose line numbers are off is applied where its lines
+     * match nearby. All files are checked before any is replaced: one conflicting hunk leaves every file untouched.
+     */
+    public List<Result> applyPatch(String patch, Function<String, Path> resolver) throws IOException {
+        List<FilePatch> patches = UnifiedDiff.parse(patch);
+        List<Staged> staged = new ArrayList<>();
+        Set<Path> targets = new HashSet<>();
+        try {
+            for (FilePatch filePatch : patches) {
+                Staged s = stage(filePatch, resolver);
+                staged.add(s);
+                if (!targets.add(s.target)) {
+                    throw new ConflictException(s.target + ": the patch changes this file more than once; "
+                            + "combine its hunks under one ---/+++ header");
+                }
+            }
+            // Re-check every file before the first rename, so a concurrent change leaves all of them untouched
+            for (Staged s : staged) {
+                s.verify();
+            }
+            List<Result> results = new ArrayList<>();
+            for (Staged s : staged) {
+                results.add(s.commit());
+            }
+            return results;
+        } finally {
+            for (Staged s : staged) {
+                s.discard();
+            }
+        }
+    }
+
+    record Hunk(String header, long oldStart, long oldCount, List<String> lines, boolean newNoEol) {
+    }
+
+    record FilePatch(String oldPath, String newPath, List<Hunk> hunks) {
+        boolean creates() {
+            return "/dev/null".equals(oldPath);
+        }
+
+        boolean deletes() {
+            return "/dev/null".equals(newPath);
+        }
+    }
+
+    /** A patched copy waiting next to its target, renamed into place only when every file applied. */
+    private final class Staged {
+        final Path target;
+        final Path temp;
+        final Stamp stamp;
+        final Result result;
+        boolean done;
+
+        Staged(Path target, Path temp, Stamp stamp, Result result) {
+            this.target = target;
+            this.temp = temp;
+            this.stamp = stamp;
+            this.result = result;
+        }
+
+        /** Fail if the target changed, or for a created file appeared, since it was staged. */
+        void verify() throws IOException {
+            if (!result.created()) {
+                stamp.check(target);
+            } else if (Files.exists(target, LinkOption.NOFOLLOW_LINKS)) {
+                throw new ConflictException(target + " was created while the patch was being applied; nothing was written");
+            }
+        }
+
+        Result commit() throws IOException {
+            verify();
+            if (result.deleted()) {
+                Files.delete(target);
+            } else {
+                moveIntoPlace(temp, target);
+            }
+            done = true;
+            return result;
+        }
+
+        void discard() throws IOException {
+            if (!done && temp != null) Files.deleteIfExists(temp);
+        }
+    }
+
+    private Staged stage(FilePatch patch, Function<String, Path> resolver) throws IOException {
+        String name = patch.deletes() ? patch.oldPath() : patch.newPath();
+        Path target = resolver.apply(name);
+        if (patch.creates()) {
+            if (Files.exists(target, LinkOption.NOFOLLOW_LINKS)) {
+                throw new ConflictException(name + ": patch creates the file but it already exists");
+            }
+            Files.createDirectories(target.toAbsolutePath().getParent());
+        } else if (!Files.isRegularFile(target)) {
+            throw new ConflictException(name + ": file does not exist");
+        }
+
+        Stamp stamp = patch.creates() ? null : Stamp.of(target);
+        // A deleted file is only checked against its hunks; there is nothing to write
+        Path temp = patch.deletes() ? null
+                : patch.creates() ? createSibling(target)
+                : Files.createTempFile(target.toAbsolutePath().getParent(), "." + target.getFileName(), ".kog-edit");
+        try (InputStream in = patch.creates() ? InputStream.nullInputStream()
+                : new BufferedInputStream(Files.newInputStream(target), 1 << 16);
+             OutputStream out = temp == null ? OutputStream.nullOutputStream()
+                     : new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16)) {
+            Result result = applyHunks(name, target, patch, new LineReader(in), out);
+            return new Staged(target, temp, stamp, result);
+        } catch (IOException | RuntimeException e) {
+            if (temp != null) Files.deleteIfExists(temp);
+            throw e;
+        }
+    }
+
+    /**
+     * An empty temporary file next to {@code target} with the permissions a plain file create gives (0666 less
+     * the umask, as for writeFile), where {@code createTempFile} makes it owner-only. It becomes a new file as it
+     * is, so it must not end up more private than the files the other tools create.
+     */
+    private static Path createSibling(Path target) throws IOException {
+        Path dir = target.toAbsolutePath().getParent();
+        while (true) {
+            Path temp = dir.resolve("." + target.getFileName() + ThreadLocalRandom.current().nextLong(Long.MAX_VALUE) + ".kog-edit");
+            try {
+                return Files.createFile(temp);
+            } catch (FileAlreadyExistsException e) {
+                // Name taken; draw another
+            }
+        }
+    }
+
+    private static Result applyHunks(String name, Path target, FilePatch patch, LineReader in, OutputStream out) throws IOException {
+        int removed = 0;
+        int added = 0;
+        int number = 0;
+        List<String> notes = new ArrayList<>();
+        for (Hunk hunk : patch.hunks()) {
+            number++;
+            Placement placement = place(name, number, hunk, in, out);
+            if (placement.offset() != 0 || placement.fuzz() > 0) {
+                notes.add("hunk " + number + " applied at line " + placement.line()
+                        + (placement.offset() != 0 ? " (offset " + placement.offset() + " lines)" : "")
+                        + (placement.fuzz() > 0 ? " with fuzz " + placement.fuzz() : ""));
+            }
+            List<String> lines = placement.lines();
+            for (int i = 0; i < lines.size(); i++) {
+                String line = lines.get(i);
+                char kind = line.charAt(0);
+                String text = line.substring(1);
+                if (kind == '+') {
+                    out.write(text.getBytes(StandardCharsets.UTF_8));
+                    boolean lastAdded = hunk.newNoEol() && lastOfKind(lines, i, '-');
+                    if (!lastAdded) out.write(in.lineEnding());
+                    added++;
+                    continue;
+                }
+                // place() matched these lines already; they are read back from the reader's window
+                byte[] actual = in.next();
+                if (kind == ' ') {
+                    boolean lastContext = hunk.newNoEol() && i == lines.size() - 1;
+                    out.write(lastContext ? stripEol(actual).getBytes(StandardCharsets.UTF_8) : withEol(actual, in));
+                } else {
+                    removed++;
+                }
+            }
+        }
+        if (patch.deletes() && in.next() != null) {
+            throw new ConflictException(name + ": patch deletes the file but it has more lines after line " + (in.lineNumber - 1));
+        }
+        in.copyRest(out);
+        return new Result(target, patch.hunks().size(), removed, added, patch.creates(), patch.deletes(), List.copyOf(notes));
+    }
+
+    /**
+     * Where a hunk applies: {@code line} is the first file line its (possibly fuzz-trimmed) {@code lines} cover,
+     * {@code offset} how far that is from where its header says.
+     */
+    private record Placement(long line, long offset, int fuzz, List<String> lines) {
+    }
+
+    /**
+     * Find where {@code hunk} applies, the way {@code patch} does: at the line its header states, else at the
+     * nearest line within {@link #MAX_OFFSET} lines where its context and removed lines match, else the same
+     * with up to {@link #MAX_FUZZ} context lines at each end ignored. Lines before that position are copied to
+     * {@code out} and {@code in} is left just before it. A hunk that removes nothing and has no context can
+     * only go where its header says.
+     */
+    private static Placement place(String name, int number, Hunk hunk, LineReader in, OutputStream out) throws IOException {
+        // A hunk that removes nothing is anchored after line oldStart rather than at it
+        long stated = hunk.oldCount() == 0 ? hunk.oldStart() + 1 : hunk.oldStart();
+        long consumed = in.lineNumber;
+        while (in.lineNumber < stated - 1 - MAX_OFFSET) {
+            byte[] line = in.next();
+            if (line == null) break;
+            out.write(line);
+        }
+        long first = in.lineNumber + 1;
+        List<byte[]> window = new ArrayList<>();
+        List<String> texts = new ArrayList<>();
+        long last = stated - 1 + MAX_OFFSET + hunk.oldCount();
+        while (first + window.size() <= last) {
+            byte[] line = in.next();
+            if (line == null) break;
+            window.add(line);
+            texts.add(stripEol(line));
+        }
+
+        List<String> lines = hunk.lines();
+        int leading = 0;
+        while (leading < lines.size() && lines.get(leading).charAt(0) == ' ') leading++;
+        int trailing = 0;
+        while (trailing < lines.size() - leading && lines.get(lines.size() - 1 - trailing).charAt(0) == ' ') trailing++;
+        int previousLead = -1;
+        int previousTrail = -1;
+        for (int fuzz = 0; fuzz <= MAX_FUZZ; fuzz++) {
+            int lead = Math.min(fuzz, leading);
+            // The last context line of a hunk ending without a newline says how the file ends; it is never ignored
+            int trail = hunk.newNoEol() ? 0 : Math.min(fuzz, trailing);
+            if (lead == previousLead && trail == previousTrail) continue;
+            previousLead = lead;
+            previousTrail = trail;
+            List<String> trimmed = lines.subList(lead, lines.size() - trail);
+            boolean anchored = trimmed.stream().anyMatch(line -> line.charAt(0) != '+');
+            if (fuzz > 0 && !anchored) break;
+            for (long distance = 0; distance <= (anchored ? MAX_OFFSET : 0); distance++) {
+                for (long offset : distance == 0 ? new long[]{0} : new long[]{-distance, distance}) {
+                    long at = stated + lead + offset;
+                    if (at < first || !matches(texts, (int) (at - first), trimmed)) continue;
+                    for (byte[] line : window.subList(0, (int) (at - first))) {
+                        out.write(line);
+                    }
+                    in.unread(window.subList((int) (at - first), window.size()));
+                    return new Placement(at - lead, offset, fuzz, trimmed);
+                }
+            }
+        }
+        throw new ConflictException(name + ": hunk " + number + " (" + hunk.header() + ") "
+                + mismatch(hunk, stated, consumed, first, texts) + "; it matches nowhere within " + MAX_OFFSET + " lines either");
+    }
+
+    /** True if the context and removed lines of {@code lines} equal {@code texts} from {@code index} on. */
+    private static boolean matches(List<String> texts, int index, List<String> lines) {
+        if (index > texts.size()) return false;
+        for (String line : lines) {
+            if (line.charAt(0) == '+') continue;
+            if (index >= texts.size() || !texts.get(index).equals(line.substring(1))) return false;
+            index++;
+        }
+        return true;
+    }
+
+    /** Why {@code hunk} does not apply at the line its header states; {@code texts} holds lines from {@code first}. */
+    private static String mismatch(Hunk hunk, long stated, long consumed, long first, List<String> texts) {
+        if (stated <= consumed) {
+            return "overlaps the previous hunk";
+        }
+        long fileLines = first - 1 + texts.size();
+        if (stated - 1 > fileLines) {
+            return "starts at line " + hunk.oldStart() + " but the file has only " + fileLines + " lines";
+        }
+        long lineNumber = stated;
+        for (String line : hunk.lines()) {
+            if (line.charAt(0) == '+') continue;
+            String text = line.substring(1);
+            int index = (int) (lineNumber - first);
+            if (index >= texts.size()) {
+                return "expects " + quote(text) + " at line " + lineNumber + " but the file ends at line " + (lineNumber - 1);
+            }
+            if (!texts.get(index).equals(text)) {
+                return "does not apply at line " + lineNumber + ": expected " + quote(text) + " but found " + quote(texts.get(index));
+            }
+            lineNumber++;
+        }
+        return "does not apply at line " + stated;
+    }
+
+    /** True if no line after {@code index} in the hunk belongs to the new file. */
+    private static boolean lastOfKind(List<String> lines, int index, char ignored) {
+        for (int j = index + 1; j < lines.size(); j++) {
+            if (lines.get(j).charAt(0) != ignored) return false;
+        }
+        return true;
+    }
+
+    /** A context line that lacked a newline in the old file gains one when lines follow it in the new file. */
+    private static byte[] withEol(byte[] line, LineReader in) {
+        if (line.length > 0 && line[line.length - 1] == '\n') return line;
+        byte[] eol = in.lineEnding();
+        byte[] result = new byte[line.length + eol.length];
+        System.arraycopy(line, 0, result, 0, line.length);
+        System.arraycopy(eol, 0, result, line.length, eol.length);
+        return result;
+    }
+
+    /** Lines with their terminators, so untouched lines are copied byte for byte. */
+    private static final class LineReader {
+        private final InputStream in;
+        private final ByteArrayOutputStream line = new ByteArrayOutputStream(256);
+        private final ArrayDeque<byte[]> pushedBack = new ArrayDeque<>();
+        private byte[] eol;
+        long lineNumber;
+
+        LineReader(InputStream in) {
+            this.in = in;
+        }
+
+        byte[] next() throws IOException {
+            if (!pushedBack.isEmpty()) {
+                lineNumber++;
+                return pushedBack.pop();
+            }
+            line.reset();
+            int b;
+            while ((b = in.read()) >= 0) {
+                line.write(b);
+                if (b == '\n') break;
+            }
+            if (line.size() == 0) return null;
+            lineNumber++;
+            byte[] bytes = line.toByteArray();
+            if (eol == null && b == '\n') {
+                eol = bytes.length > 1 && bytes[bytes.length - 2] == '\r' ? new byte[]{'\r', '\n'} : new byte[]{'\n'};
+            }
+            return bytes;
+        }
+
+        /** Give back {@code lines}, the last ones read, so they are read again in order. */
+        void unread(List<byte[]> lines) {
+            for (int i = lines.size() - 1; i >= 0; i--) {
+                pushedBack.push(lines.get(i));
+            }
+            lineNumber -= lines.size();
+        }
+
+        void copyRest(OutputStream out) throws IOException {
+            while (!pushedBack.isEmpty()) {
+                out.write(pushedBack.pop());
+            }
+            in.transferTo(out);
+        }
+
+        /** The file's own line terminator, judged from its first line; LF for files without one. */
+        byte[] lineEnding() {
+            return eol == null ? new byte[]{'\n'} : eol;
+        }
+    }
+
+    static final class UnifiedDiff {
+        private UnifiedDiff() {
+        }
+
+        static List<FilePatch> parse(String patch) throws ConflictException {
+            if (patch == null || patch.isBlank()) {
+                throw new ConflictException("Patch is empty");
+            }
+            String[] lines = patch.split("\r?\n", -1);
+            List<FilePatch> patches = new ArrayList<>();
+            int i = 0;
+            while (i < lines.length) {
+                if (!lines[i].startsWith("--- ") || i + 1 >= lines.length || !lines[i + 1].startsWith("+++ ")) {
+                    i++;
+                    continue;
+                }
+                String oldPath = pathOf(lines[i]);
+                String newPath = pathOf(lines[i + 1]);
+                i += 2;
+                List<Hunk> hunks = new ArrayList<>();
+                while (i < lines.length && lines[i].startsWith("@@")) {
+                    String header = lines[i];
+                    long[] range = parseHeader(header);
+                    i++;
+                    List<String> body = new ArrayList<>();
+                    boolean newNoEol = false;
+                    long oldSeen = 0;
+                    long newSeen = 0;
+                    while (i < lines.length && (oldSeen < range[1] || newSeen < range[3] || lines[i].startsWith("\\"))) {
+                        String line = lines[i];
+                        if (line.startsWith("\\")) {
+                            // Only the new side matters: whether an old line ended in a newline is read from the file
+                            char previous = body.isEmpty() ? ' ' : body.get(body.size() - 1).charAt(0);
+                            if (previous != '-') newNoEol = true;
+                        } else {
+                            // Blank lines inside a hunk are context lines whose leading space was trimmed
+                            String normalized = line.isEmpty() ? " " : line;
+                            char kind = normalized.charAt(0);
+                            if (kind != ' ' && kind != '-' && kind != '+') break;
+                            body.add(normalized);
+                            if (kind != '+') oldSeen++;
+                            if (kind != '-') newSeen++;
+                        }
+                        i++;
+                    }
+                    if (oldSeen != range[1] || newSeen != range[3]) {
+                        throw new ConflictException(newPath + ": hunk " + header + " declares " + range[1] + " old / "
+                                + range[3] + " new lines but contains " + oldSeen + " / " + newSeen);
+                    }
+                    hunks.add(new Hunk(header, range[0], range[1], body, newNoEol));
+                }
+                if (hunks.isEmpty() && !"/dev/null".equals(oldPath)) {
+                    throw new ConflictException(newPath + ": no hunks");
+                }
+                patches.add(new FilePatch(oldPath, newPath, hunks));
+            }
+            if (patches.isEmpty()) {
+                throw new ConflictException("No file headers (--- / +++) found in patch");
+            }
+            return patches;
+        }
+
+        /** {@code @@ -l,s +l,s @@} to {oldStart, oldCount, newStart, newCount}; an omitted count is 1. */
+        private static long[] parseHeader(String header) throws ConflictException {
+            String[] parts = header.split(" ");
+            if (parts.length < 3 || !parts[1].startsWith("-") || !parts[2].startsWith("+")) {
+                throw new ConflictException("Malformed hunk header: " + header);
+            }
+            try {
+                long[] old = range(parts[1].substring(1));
+                long[] neu = range(parts[2].substring(1));
+                return new long[]{old[0], old[1], neu[0], neu[1]};
+            } catch (NumberFormatException e) {
+                throw new ConflictException("Malformed hunk header: " + header);
+            }
+        }
+
+        private static long[] range(String spec) {
+            int comma = spec.indexOf(',');
+            return comma < 0
+                    ? new long[]{Long.parseLong(spec), 1}
+                    : new long[]{Long.parseLong(spec.substring(0, comma)), Long.parseLong(spec.substring(comma + 1))};
+        }
+
+        /** Path from a ---/+++ line without the timestamp diff -u appends or git's a/ and b/ prefixes. */
+        private static String pathOf(String line) {
+            String path = line.substring(4);
+            int tab = path.indexOf('\t');
+            if (tab >= 0) path = path.substring(0, tab);
+            path = path.strip();
+            if (path.startsWith("a/") || path.startsWith("b/")) path = path.substring(2);
+            return path;
+        }
+    }
+
+    /** Size and mtime at read time, re-checked just before the rename so a concurrent writer is not overwritten. */
+    private record Stamp(long size, FileTime modified) {
+        static Stamp of(Path file) throws IOException {
+            try {
+                return new Stamp(Files.size(file), Files.getLastModifiedTime(file));
+            } catch (NoSuchFileException e) {
+                throw new ConflictException("File does not exist: " + file);
+            }
+        }
+
+        void check(Path file) throws IOException {
+            if (!equals(of(file))) {
+                throw new ConflictException(file + " changed while it was being edited; nothing was written");
+            }
+        }
+    }
+
+    /** Write {@code file[0, start) + replacement + file[end, size)} to a temp file and rename it over {@code file}. */
+    private static void splice(Path file, Stamp stamp, long start, long end, byte[] replacement) throws IOException {
+        Path temp = Files.createTempFile(file.toAbsolutePath().getParent(), "." + file.getFileName(), ".kog-edit");
+        try {
+            try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ);
+                 FileChannel out = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                long size = in.size();
+                transfer(in, 0, start, out);
+                ByteBuffer buf = ByteBuffer.wrap(replacement);
+                while (buf.hasRemaining()) out.write(buf);
+                transfer(in, end, size - end, out);
+            }
+            stamp.check(file);
+            moveIntoPlace(temp, file);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static void transfer(FileChannel in, long position, long count, FileChannel out) throws IOException {
+        long done = 0;
+        while (done < count) {
+            long n = in.transferTo(position + done, count - done, out);
+            if (n <= 0) break;
+            done += n;
+        }
+    }
+
+    /**
+     * Rename {@code temp} over {@code target}, carrying over the target's permissions, owner, group and extended
+     * attributes. A target with other hard links, or one whose attributes cannot be reproduced (a file owned by
+     * another user), is overwritten in place instead so its identity is kept; that write is not atomic.
+     */
+    private static void moveIntoPlace(Path temp, Path target) throws IOException {
+        if (!Files.exists(target, LinkOption.NOFOLLOW_LINKS)) {
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+            return;
+        }
+        boolean inPlace = linkCount(target) > 1;
+        if (!inPlace) {
+            try {
+                copyAttributes(target, temp);
+            } catch (IOException | UnsupportedOperationException e) {
+                inPlace = true;
+            }
+        }
+        if (inPlace) {
+            overwrite(temp, target);
+        } else {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    private static int linkCount(Path file) {
+        try {
+            return (Integer) Files.getAttribute(file, "unix:nlink", LinkOption.NOFOLLOW_LINKS);
+        } catch (IOException | UnsupportedOperationException | IllegalArgumentException e) {
+            return 1;
+        }
+    }
+
+    private static void copyAttributes(Path from, Path to) throws IOException {
+        PosixFileAttributeView source = Files.getFileAttributeView(from, PosixFileAttributeView.class, LinkOption.NOFOLLOW_LINKS);
+        PosixFileAttributeView copy = Files.getFileAttributeView(to, PosixFileAttributeView.class, LinkOption.NOFOLLOW_LINKS);
+        if (source != null && copy != null) {
+            PosixFileAttributes attrs = source.readAttributes();
+            PosixFileAttributes current = copy.readAttributes();
+            if (!attrs.owner().equals(current.owner())) copy.setOwner(attrs.owner());
+            if (!attrs.group().equals(current.group())) copy.setGroup(attrs.group());
+            copy.setPermissions(attrs.permissions());
+        }
+        UserDefinedFileAttributeView xattrs = Files.getFileAttributeView(from, UserDefinedFileAttributeView.class, LinkOption.NOFOLLOW_LINKS);
+        UserDefinedFileAttributeView xattrsCopy = Files.getFileAttributeView(to, UserDefinedFileAttributeView.class, LinkOption.NOFOLLOW_LINKS);
+        if (xattrs != null && xattrsCopy != null) {
+            for (String name : xattrs.list()) {
+                ByteBuffer value = ByteBuffer.allocate(xattrs.size(name));
+                xattrs.read(name, value);
+                xattrsCopy.write(name, value.flip());
+            }
+        }
+    }
+
+    /** Copy {@code temp} over the contents of {@code target} and delete it; the target keeps its inode. */
+    private static void overwrite(Path temp, Path target) throws IOException {
+        try (FileChannel in = FileChannel.open(temp, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(target, StandardOpenOption.WRITE)) {
+            long size = in.size();
+            transfer(in, 0, size, out);
+            out.truncate(size);
+            out.force(false);
+        }
+        Files.delete(temp);
+    }
+
+    /** Offsets of up to {@code max} occurrences of {@code needle}, scanning mapped chunks that overlap by the needle length. */
+    private static long[] find(FileChannel ch, byte[] needle, long from, int max) throws IOException {
+        long size = ch.size();
+        List<Long> found = new ArrayList<>();
+        for (long pos = from; pos + needle.length <= size && found.size() < max; ) {
+            long len = Math.min(SCAN_CHUNK + needle.length - 1, size - pos);
+            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, pos, len);
+            int last = (int) len - needle.length;
+            for (int i = 0; i <= last && found.size() < max; i++) {
+                if (buf.get(i) == needle[0] && regionMatches(buf, i, needle)) {
+                    found.add(pos + i);
+                    i += needle.length - 1;
+                }
+            }
+            pos += Math.max(1, last + 1);
+        }
+        return found.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    private static boolean regionMatches(ByteBuffer buf, int at, byte[] needle) {
+        for (int j = 1; j < needle.length; j++) {
+            if (buf.get(at + j) != needle[j]) return false;
+        }
+        return true;
+    }
+
+    /** 1-based line number of {@code offset}. */
+    private static long lineOf(FileChannel ch, long offset) throws IOException {
+        long line = 1;
+        for (long pos = 0; pos < offset; pos += SCAN_CHUNK) {
+            long len = Math.min(SCAN_CHUNK, offset - pos);
+            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, pos, len);
+            for (int i = 0; i < len; i++) {
+                if (buf.get(i) == '\n') line++;
+            }
+        }
+        return line;
+    }
+
+    /**
+     * Explain why {@code oldText} was not found: locate its first line and report the first line after it
+     * that differs, or say that even the first line is absent.
+     */
+    private static String describeMissing(FileChannel ch, String oldText) throws IOException {
+        String[] expected = oldText.split("\n", -1);
+        String first = stripCr(expected[0]);
+        if (first.isBlank()) {
+            return "oldText not found";
+        }
+        long[] at = find(ch, first.getBytes(StandardCharsets.UTF_8), 0, 1);
+        if (at.length == 0) {
+            return "oldText not found: its first line " + quote(first) + " does not occur in the file";
+        }
+        long line = lineOf(ch, at[0]);
+        long size = ch.size();
+        long start = at[0];
+        long end = Math.min(size, start + oldText.length() * 4L + 1024);
+        ByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+        String actual = StandardCharsets.UTF_8.decode(buf).toString();
+        String[] found = actual.split("\n", -1);
+        for (int i = 1; i < expected.length; i++) {
+            String want = stripCr(expected[i]);
+            String have = i < found.length ? stripCr(found[i]) : "<end of file>";
+            if (!want.equals(have) && !(i == expected.length - 1 && have.startsWith(want))) {
+                return "oldText not found: its first line matches line " + line + " but line " + (line + i)
+                        + " is " + quote(have) + " where " + quote(want) + " was expected";
+            }
+        }
+        return "oldText not found: its first line matches line " + line + " but the text differs in whitespace or line endings";
+    }
+
+    /** Describe the first line where {@code actual} (starting at {@code firstLine}) differs from {@code expected}, or null. */
+    private static String firstDifference(String actual, String expected, long firstLine) {
+        String[] have = stripTrailingNewline(actual).split("\n", -1);
+        String[] want = stripTrailingNewline(expected).split("\n", -1);
+        for (int i = 0; i < Math.max(have.length, want.length); i++) {
+            String h = i < have.length ? stripCr(have[i]) : "<end of range>";
+            String w = i < want.length ? stripCr(want[i]) : "<end of range>";
+            if (!h.equals(w)) {
+                return "Line " + (firstLine + i) + " is " + quote(h) + " where " + quote(w) + " was expected; nothing was written";
+            }
+        }
+        return null;
+    }
+
+    private static String stripTrailingNewline(String s) {
+        return s.endsWith("\n") ? s.substring(0, s.length() - 1) : s;
+    }
+
+    private static String stripCr(String s) {
+        return s.endsWith("\r") ? s.substring(0, s.length() - 1) : s;
+    }
+
+    private static String stripEol(byte[] line) {
+        int end = line.length;
+        if (end > 0 && line[end - 1] == '\n') end--;
+        if (end > 0 && line[end - 1] == '\r') end--;
+        return new String(line, 0, end, StandardCharsets.UTF_8);
+    }
+
+    private static String lineEnding(String sample) {
+        int nl = sample.indexOf('\n');
+        return nl > 0 && sample.charAt(nl - 1) == '\r' ? "\r\n" : "\n";
+    }
+
+    private static int countLines(String text) {
+        if (text == null || text.isEmpty()) return 0;
+        int lines = (int) text.chars().filter(c -> c == '\n').count();
+        return text.endsWith("\n") ? lines : lines + 1;
+    }
+
+    private static String quote(String text) {
+        String shown = text.length() <= MAX_QUOTED_CHARS ? text : text.substring(0, MAX_QUOTED_CHARS) + "…";
+        return "\"" + shown + "\"";
+    }
+}
@@ -0,0 +1,283 @@
+package com.clockworkideas.kog.shell.service.tools;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Windowed, memory-mapped file reads. Only the requested window is decoded onto the heap, so peak
+ * allocation depends on the window size and not on the file size.
+ * <p>
+ * Line windows are located through a sparse line-offset index (one checkpoint every
+ * {@value #LINES_PER_CHECKPOINT} lines) kept per file and extended lazily, so repeated reads of the
+ * same file seek straight to the requested line instead of rescanning from the start.
+ */
+@Slf4j
+@Component
+public class FileWindowReader {
+
+    /** Upper bound on the bytes decoded for a single window. */
+    public static final int MAX_WINDOW_BYTES = 1 << 20;
+
+    static final int LINES_PER_CHECKPOINT = 1024;
+    private static final long SCAN_CHUNK = 16L << 20;
+    private static final int MAX_INDEXED_FILES = 256;
+
+    private final ConcurrentMap<Path, LineIndex> indexes = new ConcurrentHashMap<>();
+
+    /**
+     * A decoded slice of a file. {@code firstLine} is 1-based and {@code -1} when unknown (byte and tail
+     * windows); {@code truncated} is set when the window was cut at {@link #MAX_WINDOW_BYTES}.
+     */
+    public record Window(String text, long startOffset, long endOffset, long fileSize,
+                         long firstLine, long lineCount, boolean truncated) {
+        public boolean atEnd() {
+            return endOffset >= fileSize;
+        }
+    }
+
+    /** Read {@code length} bytes starting at {@code offset}, widened or narrowed to UTF-8 character boundaries. */
+    public Window readBytes(Path file, long offset, int length) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = ch.size();
+            long start = Math.min(Math.max(offset, 0L), size);
+            long requested = Math.min(size, start + Math.max(length, 0));
+            long end = Math.min(requested, start + MAX_WINDOW_BYTES);
+            boolean truncated = end < requested;
+            start = alignForward(ch, start, size);
+            end = Math.max(start, alignBackward(ch, end, size));
+            String text = decode(ch, start, end);
+            return new Window(text, start, end, size, -1, countLines(text), truncated);
+        }
+    }
+
+    /** Read {@code count} lines starting at the 1-based line {@code firstLine}. */
+    public Window readLines(Path file, long firstLine, int count) throws IOException {
+        Path key = file.toAbsolutePath().normalize();
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = ch.size();
+            LineIndex index = indexFor(key, ch);
+            long line = Math.max(firstLine, 1L) - 1;
+            long start = index.lineStart(ch, line);
+            if (start < 0) {
+                return new Window("", size, size, size, line + 1, 0, false);
+            }
+            long limit = Math.min(size, start + MAX_WINDOW_BYTES);
+            long end = skipLines(ch, start, limit, Math.max(count, 0));
+            boolean truncated = false;
+            if (end < 0) {
+                end = limit;
+                truncated = limit < size;
+                if (truncated) {
+                    end = Math.max(start, alignBackward(ch, end, size));
+                }
+            }
+            String text = decode(ch, start, end);
+            return new Window(text, start, end, size, line + 1, countLines(text), truncated);
+        }
+    }
+
+    /** Read the first {@code count} lines. */
+    public Window head(Path file, int count) throws IOException {
+        return readLines(file, 1, count);
+    }
+
+    /**
+     * Read the last {@code count} lines by scanning backwards from the end of the file, never further back than
+     * {@link #MAX_WINDOW_BYTES}.
+     */
+    public Window tail(Path file, int count) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = ch.size();
+            long capped = Math.max(0, size - MAX_WINDOW_BYTES);
+            // A newline just before the capped window still ends a line outside it
+            long start = lastLinesStart(ch, size, Math.max(count, 0), Math.max(0, capped - 1));
+            boolean truncated = false;
+            if (start < capped) {
+                // Keep whole lines only: drop the partial line at the front of the capped window
+                long next = skipLines(ch, capped, size, 1);
+                start = next < 0 ? alignForward(ch, capped, size) : next;
+                truncated = true;
+            }
+            String text = decode(ch, start, size);
+            return new Window(text, start, size, size, -1, countLines(text), truncated);
+        }
+    }
+
+    private LineIndex indexFor(Path key, FileChannel ch) throws IOException {
+        long size = ch.size();
+        long modified = Files.getLastModifiedTime(key).toMillis();
+        LineIndex index = indexes.get(key);
+        if (index != null && index.size == size && index.modified == modified) {
+            return index;
+        }
+        if (indexes.size() >= MAX_INDEXED_FILES) {
+            Iterator<Path> it = indexes.keySet().iterator();
+            if (it.hasNext()) {
+                it.next();
+                it.remove();
+            }
+        }
+        LineIndex fresh = new LineIndex(size, modified);
+        indexes.put(key, fresh);
+        return fresh;
+    }
+
+    /**
+     * Returns the offset just past the {@code lines}-th newline at or after {@code from}, or {@code -1} if
+     * {@code limit} is reached first. Zero lines returns {@code from}.
+     */
+    private static long skipLines(FileChannel ch, long from, long limit, long lines) throws IOException {
+        if (lines == 0) return from;
+        long remaining = lines;
+        for (long pos = from; pos < limit; pos += SCAN_CHUNK) {
+            long len = Math.min(SCAN_CHUNK, limit - pos);
+            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, pos, len);
+            for (int i = 0; i < len; i++) {
+                if (buf.get(i) == '\n' && --remaining == 0) {
+                    return pos + i + 1;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Offset of the first of the last {@code lines} lines; a trailing newline does not start a new line. The scan
+     * stops at {@code floor}, returning {@code -1} when a line starting before it is needed (0 is the file start).
+     */
+    private static long lastLinesStart(FileChannel ch, long size, long lines, long floor) throws IOException {
+        if (lines == 0 || size == 0) return size;
+        long end = size;
+        if (byteAt(ch, size - 1) == '\n') end--;
+        long seen = 0;
+        while (end > floor) {
+            long pos = Math.max(floor, end - SCAN_CHUNK);
+            int len = (int) (end - pos);
+            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, pos, len);
+            for (int i = len - 1; i >= 0; i--) {
+                if (buf.get(i) == '\n' && ++seen == lines) {
+                    return pos + i + 1;
+                }
+            }
+            end = pos;
+        }
+        return floor == 0 ? 0 : -1;
+    }
+
+    /** Move {@code pos} forward past UTF-8 continuation bytes so the window starts on a character. */
+    private static long alignForward(FileChannel ch, long pos, long size) throws IOException {
+        long limit = Math.min(size, pos + 3);
+        while (pos < limit && isContinuation(byteAt(ch, pos))) pos++;
+        return pos;
+    }
+
+    /** Move an exclusive end offset back so a multi-byte character straddling it is left out whole. */
+    private static long alignBackward(FileChannel ch, long end, long size) throws IOException {
+        if (end >= size) return size;
+        long limit = Math.max(0, end - 3);
+        while (end > limit && isContinuation(byteAt(ch, end))) end--;
+        return end;
+    }
+
+    private static boolean isContinuation(byte b) {
+        return (b & 0xC0) == 0x80;
+    }
+
+    private static byte byteAt(FileChannel ch, long pos) throws IOException {
+        ByteBuffer one = ByteBuffer.allocate(1);
+        ch.read(one, pos);
+        return one.get(0);
+    }
+
+    /** Decode a byte range; bytes that are still malformed inside the window become U+FFFD. */
+    private static String decode(FileChannel ch, long start, long end) throws IOException {
+        if (end <= start) return "";
+        MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+        return StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE)
+                .decode(buf)
+                .toString();
+    }
+
+    private static long countLines(String text) {
+        if (text.isEmpty()) return 0;
+        long lines = text.chars().filter(c -> c == '\n').count();
+        return text.charAt(text.length() - 1) == '\n' ? lines : lines + 1;
+    }
+
+    /**
+     * Sparse line-offset index for one version (size + mtime) of a file. {@code checkpoints[k]} is the byte
+     * offset of the 0-based line {@code k * LINES_PER_CHECKPOINT}; the file is only scanned as far as
+     * the furthest line requested so far.
+     */
+    private static final class LineIndex {
+        final long size;
+        final long modified;
+        private long[] checkpoints = new long[16];
+        private int checkpointCount = 1;
+        private long scannedOffset;
+        private long scannedLines;
+
+        LineIndex(long size, long modified) {
+            this.size = size;
+            this.modified = modified;
+        }
+
+        /** Byte offset where the 0-based {@code line} starts, or {@code -1} if the file has fewer lines. */
+        long lineStart(FileChannel ch, long line) throws IOException {
+            int k;
+            long from;
+            synchronized (this) {
+                extendTo(ch, line);
+                if (line > scannedLines || (line > 0 && line == scannedLines && scannedOffset >= size && endsWithNewline(ch))) {
+                    return -1;
+                }
+                k = (int) (line / LINES_PER_CHECKPOINT);
+                from = checkpoints[k];
+            }
+            return skipLines(ch, from, size, line - (long) k * LINES_PER_CHECKPOINT);
+        }
+
+        private boolean endsWithNewline(FileChannel ch) throws IOException {
+            return size > 0 && byteAt(ch, size - 1) == '\n';
+        }
+
+        private void extendTo(FileChannel ch, long line) throws IOException {
+            while (scannedLines < line && scannedOffset < size) {
+                long len = Math.min(SCAN_CHUNK, size - scannedOffset);
+                MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, scannedOffset, len);
+                for (int i = 0; i < len; i++) {
+                    if (buf.get(i) == '\n') {
+                        scannedLines++;
+                        if (scannedLines % LINES_PER_CHECKPOINT == 0) {
+                            addCheckpoint(scannedOffset + i + 1);
+                        }
+                    }
+                }
+                scannedOffset += len;
+            }
+        }
+
+        private void addCheckpoint(long offset) {
+            if (checkpointCount == checkpoints.length) {
+                checkpoints = Arrays.copyOf(checkpoints, checkpointCount * 2);
+            }
+            checkpoints[checkpointCount++] = offset;
+        }
+    }
+}
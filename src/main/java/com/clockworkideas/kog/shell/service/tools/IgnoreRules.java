@@ -0,0 +1,126 @@
+package com.clockworkideas.kog.shell.service.tools;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The subset of {@code .gitignore} semantics needed to skip build output and vendored trees while walking:
+ * comments, negation ({@code !}), directory-only patterns (trailing {@code /}), patterns anchored to the
+ * ignore file's directory (leading or inner {@code /}) and {@code **}. Rules from nested ignore files are
+ * layered over their parents' and the last matching rule wins. {@code .git} is always ignored.
+ */
+final class IgnoreRules {
+
+    private static final String[] IGNORE_FILES = {".gitignore", ".ignore"};
+    static final IgnoreRules NONE = new IgnoreRules(null, null, List.of());
+
+    /** {@code matchers} are alternatives: the pattern as written, and with each {@code **} segment left out. */
+    private record Rule(List<PathMatcher> matchers, boolean anchored, boolean negated, boolean directoryOnly) {
+        boolean matches(Path path) {
+            for (PathMatcher matcher : matchers) {
+                if (matcher.matches(path)) return true;
+            }
+            return false;
+        }
+    }
+
+    private final IgnoreRules parent;
+    private final Path base;
+    private final List<Rule> rules;
+
+    private IgnoreRules(IgnoreRules parent, Path base, List<Rule> rules) {
+        this.parent = parent;
+        this.base = base;
+        this.rules = rules;
+    }
+
+    /** Rules in effect inside {@code dir}: these plus any ignore files found in {@code dir}. */
+    IgnoreRules enter(Path dir) {
+        List<Rule> own = new ArrayList<>();
+        for (String name : IGNORE_FILES) {
+            Path file = dir.resolve(name);
+            if (!Files.isRegularFile(file)) continue;
+            try {
+                for (String line : Files.readAllLines(file)) {
+                    Rule rule = parse(line);
+                    if (rule != null) own.add(rule);
+                }
+            } catch (IOException | RuntimeException e) {
+                // Unreadable or malformed ignore file: ignore it rather than failing the walk
+            }
+        }
+        return own.isEmpty() ? this : new IgnoreRules(this, dir, List.copyOf(own));
+    }
+
+    boolean isIgnored(Path path, boolean directory) {
+        if (directory && ".git".equals(path.getFileName().toString())) return true;
+        for (IgnoreRules scope = this; scope != null && scope.base != null; scope = scope.parent) {
+            Boolean verdict = scope.verdict(path, directory);
+            if (verdict != null) return verdict;
+        }
+        return false;
+    }
+
+    /** Last matching rule of this scope, or {@code null} if none match. */
+    private Boolean verdict(Path path, boolean directory) {
+        if (!path.startsWith(base)) return null;
+        Path relative = base.relativize(path);
+        Path name = path.getFileName();
+        for (int i = rules.size() - 1; i >= 0; i--) {
+            Rule rule = rules.get(i);
+            if (rule.directoryOnly() && !directory) continue;
+            if (rule.matches(rule.anchored() ? relative : name)) {
+                return !rule.negated();
+            }
+        }
+        return null;
+    }
+
+    private static Rule parse(String line) {
+        String pattern = line.strip();
+        if (pattern.isEmpty() || pattern.startsWith("#")) return null;
+        boolean negated = pattern.startsWith("!");
+        if (negated) pattern = pattern.substring(1);
+        boolean directoryOnly = pattern.endsWith("/");
+        if (directoryOnly) pattern = pattern.substring(0, pattern.length() - 1);
+        boolean anchored = pattern.contains("/");
+        if (pattern.startsWith("/")) pattern = pattern.substring(1);
+        if (pattern.isEmpty()) return null;
+        List<PathMatcher> matchers = new ArrayList<>();
+        for (String variant : withoutDoubleStars(pattern)) {
+            matchers.add(FileSystems.getDefault().getPathMatcher("glob:" + variant));
+        }
+        return new Rule(List.copyOf(matchers), anchored, negated, directoryOnly);
+    }
+
+    /**
+     * {@code pattern} and every variant of it with leading <code>&#42;&#42;/</code> or inner
+     * <code>/&#42;&#42;/</code> segments collapsed. In git these also match zero directories
+     * (<code>&#42;&#42;/build</code> matches a top-level {@code build}, <code>a/&#42;&#42;/b</code> matches
+     * {@code a/b}), where a JDK glob needs at least one.
+     */
+    private static List<String> withoutDoubleStars(String pattern) {
+        List<String> variants = new ArrayList<>();
+        if (pattern.startsWith("**/")) {
+            List<String> rest = withoutDoubleStars(pattern.substring(3));
+            rest.forEach(variant -> variants.add("**/" + variant));
+            variants.addAll(rest);
+            return variants;
+        }
+        int inner = pattern.indexOf("/**/");
+        if (inner < 0) {
+            variants.add(pattern);
+            return variants;
+        }
+        String head = pattern.substring(0, inner);
+        List<String> rest = withoutDoubleStars(pattern.substring(inner + 4));
+        rest.forEach(variant -> variants.add(head + "/**/" + variant));
+        rest.forEach(variant -> variants.add(head + "/" + variant));
+        return variants;
+    }
+}
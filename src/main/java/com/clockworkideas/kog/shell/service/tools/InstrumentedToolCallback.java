@@ -0,0 +1,60 @@
+package com.clockworkideas.kog.shell.service.tools;
+
+import io.micrometer.core.instrument.Timer;
+import org.springframework.ai.chat.model.ToolContext;
+import org.springframework.ai.tool.ToolCallback;
+import org.springframework.ai.tool.definition.ToolDefinition;
+import org.springframework.ai.tool.metadata.ToolMetadata;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times a tool callback and counts it on the exchange's {@link ExchangeTrace}. A call that throws, or that the
+ * tool marks failed in its thread's {@link ToolCallStatus}, is timed as an error. Results then go through the {@link ToolResultShaper}, outside the timing, before they reach
+ * the model.
+ */
+final class InstrumentedToolCallback implements ToolCallback {
+
+    private final ToolCallback delegate;
+    private final Timer success;
+    private final Timer error;
+    private final ToolResultShaper shaper;
+
+    InstrumentedToolCallback(ToolCallback delegate, Timer success, Timer error, ToolResultShaper shaper) {
+        this.delegate = delegate;
+        this.success = success;
+        this.error = error;
+        this.shaper = shaper;
+    }
+
+    @Override
+    public ToolDefinition getToolDefinition() {
+        return delegate.getToolDefinition();
+    }
+
+    @Override
+    public ToolMetadata getToolMetadata() {
+        return delegate.getToolMetadata();
+    }
+
+    @Override
+    public String call(String toolInput) {
+        return call(toolInput, null);
+    }
+
+    @Override
+    public String call(String toolInput, ToolContext toolContext) {
+        ExchangeTrace.from(toolContext).toolCalled();
+        ToolCallStatus status = ToolCallStatus.begin();
+        long start = System.nanoTime();
+        boolean failed = true;
+        String result;
+        try {
+            result = toolContext == null ? delegate.call(toolInput) : delegate.call(toolInput, toolContext);
+            failed = status.isFailed();
+        } finally {
+            (failed ? error : success).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+        return shaper.shape(getToolDefinition().name(), toolInput, result, toolContext);
+    }
+}
@@ -0,0 +1,314 @@
+package com.clockworkideas.kog.shell.service.tools;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Recursive delete and copy on a work-stealing {@link ForkJoinPool}. Each directory is a task that forks
+ * its subdirectories and batches of its files, so wide and deep trees are spread over all workers while
+ * the pool size bounds how many file system calls are in flight.
+ * <p>
+ * Ordering matches a sequential walk: a directory is deleted only after all of its children, and a
+ * directory is created before any of its children are copied into it. Directory symlinks are never followed.
+ * Copies keep the source's permissions, as {@code Files.copy} does; a directory gets them once its children are in.
+ */
+@Slf4j
+@Component
+public class ParallelFileTree {
+
+    private static final int FILES_PER_TASK = 64;
+    private static final OpenOption[] CREATE_NEW = {StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW};
+    private static final OpenOption[] REPLACE = {StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING};
+
+    private final ForkJoinPool pool;
+
+    public ParallelFileTree(@Value("${kog.tools.io-parallelism:0}") int parallelism) {
+        int size = parallelism > 0 ? parallelism : Math.min(16, Runtime.getRuntime().availableProcessors() * 2);
+        this.pool = new ForkJoinPool(size);
+    }
+
+    /** Delete a file, link or whole directory tree. */
+    public void delete(Path root, TreeProgress progress) throws IOException {
+        if (Files.isDirectory(root, LinkOption.NOFOLLOW_LINKS)) {
+            invoke(new DeleteDirectory(root, progress));
+        } else if (Files.deleteIfExists(root)) {
+            progress.entryDone();
+        }
+    }
+
+    /** Copy a file, link or directory tree to {@code dst}; existing targets are replaced only if {@code overwrite}. */
+    public void copy(Path src, Path dst, boolean overwrite, TreeProgress progress) throws IOException {
+        copy(src, dst, overwrite, false, progress);
+    }
+
+    /**
+     * Like {@link #copy(Path, Path, boolean, TreeProgress)}; {@code keepModifiedTime} also carries over each entry's
+     * last-modified time, as a move must.
+     */
+    public void copy(Path src, Path dst, boolean overwrite, boolean keepModifiedTime, TreeProgress progress) throws IOException {
+        if (Files.isDirectory(src, LinkOption.NOFOLLOW_LINKS)) {
+            invoke(new CopyDirectory(src, dst, overwrite, keepModifiedTime, progress));
+        } else {
+            if (dst.getParent() != null) {
+                Files.createDirectories(dst.getParent());
+            }
+            copyEntry(src, dst, overwrite, keepModifiedTime, progress);
+        }
+    }
+
+    /**
+     * Whether {@code Files.move(source, ...)} failed only because the target is on another file system, so a
+     * copy followed by deleting the source may take its place. Any other failure (permissions, a full disk, a
+     * non-empty target) must be reported instead: copying and deleting after it could lose the source.
+     */
+    static boolean isCrossDevice(Path source, IOException e) {
+        if (e instanceof AtomicMoveNotSupportedException) return true;
+        // The JDK moves files across devices itself but refuses a non-empty source directory
+        if (e instanceof DirectoryNotEmptyException d) return d.getFile() != null && source.equals(Path.of(d.getFile()));
+        return e instanceof FileSystemException f && f.getReason() != null && f.getReason().contains("cross-device");
+    }
+
+    /** Run a task on the shared I/O pool, unwrapping I/O failures raised inside it. */
+    public <T> T invoke(ForkJoinTask<T> task) throws IOException {
+        try {
+            return pool.invoke(task);
+        } catch (UncheckedIOException e) {
+            throw new IOException(e.getMessage(), e.getCause());
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        pool.shutdownNow();
+    }
+
+    private static void copyEntry(Path src, Path dst, boolean overwrite, boolean keepModifiedTime, TreeProgress progress)
+            throws IOException {
+        progress.checkCancelled();
+        if (Files.isSymbolicLink(src)) {
+            if (overwrite) {
+                Files.copy(src, dst, StandardCopyOption.REPLACE_EXISTING, LinkOption.NOFOLLOW_LINKS);
+            } else {
+                Files.copy(src, dst, LinkOption.NOFOLLOW_LINKS);
+            }
+        } else {
+            // Zero-copy: let the kernel move the bytes between the two channels
+            try (FileChannel in = FileChannel.open(src, StandardOpenOption.READ);
+                 FileChannel out = FileChannel.open(dst, overwrite ? REPLACE : CREATE_NEW)) {
+                long size = in.size();
+                long position = 0;
+                while (position < size) {
+                    progress.checkCancelled();
+                    long sent = in.transferTo(position, size - position, out);
+                    if (sent <= 0) break;
+                    position += sent;
+                }
+                progress.bytesDone(position);
+            }
+            copyMetadata(src, dst, keepModifiedTime);
+        }
+        progress.entryDone();
+    }
+
+    /**
+     * Give {@code dst} the permissions of {@code src}, which a newly created file or directory does not get (it
+     * starts from the umask default), and its last-modified time if {@code keepModifiedTime}.
+     */
+    private static void copyMetadata(Path src, Path dst, boolean keepModifiedTime) throws IOException {
+        PosixFileAttributeView target = Files.getFileAttributeView(dst, PosixFileAttributeView.class, LinkOption.NOFOLLOW_LINKS);
+        FileTime modified;
+        if (target != null) {
+            PosixFileAttributes attrs = Files.readAttributes(src, PosixFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            target.setPermissions(attrs.permissions());
+            modified = attrs.lastModifiedTime();
+        } else if (keepModifiedTime) {
+            modified = Files.readAttributes(src, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS).lastModifiedTime();
+        } else {
+            return;
+        }
+        if (keepModifiedTime) {
+            Files.setLastModifiedTime(dst, modified);
+        }
+    }
+
+    private static final class DeleteDirectory extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final transient Path dir;
+        private final transient TreeProgress progress;
+
+        DeleteDirectory(Path dir, TreeProgress progress) {
+            this.dir = dir;
+            this.progress = progress;
+        }
+
+        @Override
+        protected void compute() {
+            progress.checkCancelled();
+            List<ForkJoinTask<?>> children = new ArrayList<>();
+            List<Path> files = new ArrayList<>();
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+                for (Path entry : entries) {
+                    if (Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS)) {
+                        children.add(new DeleteDirectory(entry, progress));
+                    } else {
+                        files.add(entry);
+                        if (files.size() == FILES_PER_TASK) {
+                            children.add(new DeleteFiles(files, progress));
+                            files = new ArrayList<>();
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to list directory: " + dir + " - " + e.getMessage(), e);
+            }
+            if (!files.isEmpty()) {
+                children.add(new DeleteFiles(files, progress));
+            }
+            invokeAll(children);
+
+            // Children are gone; now the directory itself
+            try {
+                Files.deleteIfExists(dir);
+                progress.entryDone();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to delete directory: " + dir + " - " + e.getMessage(), e);
+            }
+        }
+    }
+
+    private static final class DeleteFiles extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final transient List<Path> files;
+        private final transient TreeProgress progress;
+
+        DeleteFiles(List<Path> files, TreeProgress progress) {
+            this.files = files;
+            this.progress = progress;
+        }
+
+        @Override
+        protected void compute() {
+            for (Path file : files) {
+                progress.checkCancelled();
+                try {
+                    Files.deleteIfExists(file);
+                    progress.entryDone();
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Failed to delete file: " + file + " - " + e.getMessage(), e);
+                }
+            }
+        }
+    }
+
+    private static final class CopyDirectory extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final transient Path src;
+        private final transient Path dst;
+        private final boolean overwrite;
+        private final boolean keepModifiedTime;
+        private final transient TreeProgress progress;
+
+        CopyDirectory(Path src, Path dst, boolean overwrite, boolean keepModifiedTime, TreeProgress progress) {
+            this.src = src;
+            this.dst = dst;
+            this.overwrite = overwrite;
+            this.keepModifiedTime = keepModifiedTime;
+            this.progress = progress;
+        }
+
+        @Override
+        protected void compute() {
+            progress.checkCancelled();
+            List<ForkJoinTask<?>> children = new ArrayList<>();
+            List<Path> files = new ArrayList<>();
+            try {
+                // The directory exists before any child is copied into it
+                Files.createDirectories(dst);
+                progress.entryDone();
+                try (DirectoryStream<Path> entries = Files.newDirectoryStream(src)) {
+                    for (Path entry : entries) {
+                        if (Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS)) {
+                            children.add(new CopyDirectory(entry, dst.resolve(entry.getFileName()), overwrite, keepModifiedTime, progress));
+                        } else {
+                            files.add(entry);
+                            if (files.size() == FILES_PER_TASK) {
+                                children.add(new CopyFiles(files, dst, overwrite, keepModifiedTime, progress));
+                                files = new ArrayList<>();
+                            }
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to copy directory: " + src + " - " + e.getMessage(), e);
+            }
+            if (!files.isEmpty()) {
+                children.add(new CopyFiles(files, dst, overwrite, keepModifiedTime, progress));
+            }
+            invokeAll(children);
+
+            // Only now: a read-only source directory would refuse its children, and they would bump its mtime
+            try {
+                copyMetadata(src, dst, keepModifiedTime);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to copy directory: " + src + " - " + e.getMessage(), e);
+            }
+        }
+    }
+
+    private static final class CopyFiles extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final transient List<Path> files;
+        private final transient Path targetDir;
+        private final boolean overwrite;
+        private final boolean keepModifiedTime;
+        private final transient TreeProgress progress;
+
+        CopyFiles(List<Path> files, Path targetDir, boolean overwrite, boolean keepModifiedTime, TreeProgress progress) {
+            this.files = files;
+            this.targetDir = targetDir;
+            this.overwrite = overwrite;
+            this.keepModifiedTime = keepModifiedTime;
+            this.progress = progress;
+        }
+
+        @Override
+        protected void compute() {
+            for (Path file : files) {
+                try {
+                    copyEntry(file, targetDir.resolve(file.getFileName()), overwrite, keepModifiedTime, progress);
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Failed to copy file: " + file + " - " + e.getMessage(), e);
+                }
+            }
+        }
+    }
+}
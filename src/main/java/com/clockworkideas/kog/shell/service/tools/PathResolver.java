@@ -0,0 +1,91 @@
+package com.clockworkideas.kog.shell.service.tools;
+
+import com.clockworkideas.kog.shell.service.session.ShellSession;
+import org.springframework.stereotype.Component;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Objects;
+
+/**
+ * Turns tool arguments into paths the way a shell would: {@code ~} and {@code $VAR} / {@code ${VAR}} are
+ * expanded (session overlay first), and relative paths resolve against the session's working directory.
+ * <p>
+ * This runs for nearly every tool call, so plain arguments (no {@code ~}, no {@code $}) are returned without
+ * any allocation, expansions are scanned by hand rather than with regular expressions and cached per session,
+ * and the working directory is parsed once per {@code cd} rather than once per call.
+ */
+@Component
+public class PathResolver {
+
+    /** {@code input} with {@code ~} and environment variables expanded; unset variables expand to nothing. */
+    public String expand(ShellSession session, String input) {
+        if (input == null || input.isBlank()) return input;
+        if (input.charAt(0) != '~' && input.indexOf('$') < 0) return input;
+        return session.expand(input, in -> expandUncached(session, in));
+    }
+
+    /** The working directory of {@code session}, absolute and normalized. */
+    public Path base(ShellSession session) {
+        return session.getCurrentPath();
+    }
+
+    /** Expand {@code input} and resolve it against the working directory; absolute paths are only normalized. */
+    public Path resolve(ShellSession session, String input) {
+        Path candidate = Paths.get(expand(session, input));
+        return candidate.isAbsolute() ? candidate.normalize() : base(session).resolve(candidate).normalize();
+    }
+
+    /** Whether {@code path} (resolved) lies in the working directory or below it. */
+    public boolean isWithinBase(ShellSession session, Path path) {
+        return path.startsWith(base(session));
+    }
+
+    static String expandUncached(ShellSession session, String input) {
+        String s = input;
+
+        // ~ or ~/something
+        if (s.equals("~") || s.startsWith("~/")) {
+            s = System.getProperty("user.home") + s.substring(1);
+        }
+        if (s.indexOf('$') < 0) return s;
+
+        // ${VAR} first, then $VAR over the result, as two separate passes
+        s = substitute(session, s, true);
+        return s.indexOf('$') < 0 ? s : substitute(session, s, false);
+    }
+
+    private static String substitute(ShellSession session, String s, boolean braced) {
+        StringBuilder out = null;
+        int copied = 0;
+        int i = s.indexOf('$');
+        while (i >= 0) {
+            int nameStart = braced ? i + 2 : i + 1;
+            boolean open = !braced || (i + 1 < s.length() && s.charAt(i + 1) == '{');
+            int nameEnd = open ? nameEnd(s, nameStart) : nameStart;
+            boolean matched = nameEnd > nameStart && (!braced || (nameEnd < s.length() && s.charAt(nameEnd) == '}'));
+            if (!matched) {
+                i = s.indexOf('$', i + 1);
+                continue;
+            }
+            if (out == null) out = new StringBuilder(s.length() + 32);
+            String value = Objects.requireNonNullElse(session.getenv(s.substring(nameStart, nameEnd)), "");
+            out.append(s, copied, i).append(value);
+            copied = braced ? nameEnd + 1 : nameEnd;
+            i = s.indexOf('$', copied);
+        }
+        return out == null ? s : out.append(s, copied, s.length()).toString();
+    }
+
+    /** End of the variable name starting at {@code start}: [A-Za-z_][A-Za-z0-9_]*; {@code start} if there is none. */
+    private static int nameEnd(String s, int start) {
+        if (start >= s.length() || !isNameStart(s.charAt(start))) return start;
+        int end = start + 1;
+        while (end < s.length() && (isNameStart(s.charAt(end)) || (s.charAt(end) >= '0' && s.charAt(end) <= '9'))) end++;
+        return end;
+    }
+
+    private static boolean isNameStart(char c) {
+        return (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || c == '_';
+    }
+}
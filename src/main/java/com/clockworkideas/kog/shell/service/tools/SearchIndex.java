@@ -0,0 +1,216 @@
+package com.clockworkideas.kog.shell.service.tools;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * Persistent trigram indexes for the directories the shell searches in. The first search under a directory
+ * builds an index rooted there (later searches in subdirectories reuse it, and searches under the same root
+ * wait for the build while searches elsewhere go ahead); afterwards the index is kept
+ * current from {@link DirectoryWatcher} events and from {@link #changed} calls made by the mutating tools,
+ * and is saved under {@code kog.index.dir} so a restart only re-stats files instead of re-reading them.
+ * <p>
+ * Trees with more directories than the watcher can register are re-checked every
+ * {@code kog.index.rescan-interval}; trees with more than {@code kog.index.max-files} files are not indexed
+ * and searches fall back to a full scan.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class SearchIndex {
+
+    private static final int MAX_ROOTS = 8;
+
+    private final DirectoryWatcher watcher;
+    private final ParallelFileTree parallelFileTree;
+    private final ContentSearcher contentSearcher;
+
+    @Value("${kog.index.enabled:true}")
+    private boolean enabled = true;
+
+    @Value("${kog.index.dir:${user.home}/.kog/index}")
+    private Path storage = Path.of(System.getProperty("user.home"), ".kog", "index");
+
+    @Value("${kog.index.max-files:200000}")
+    private int maxFiles = 200_000;
+
+    @Value("${kog.index.rescan-interval:30s}")
+    private Duration rescanInterval = Duration.ofSeconds(30);
+
+    private final Map<Path, TrigramIndex> indexes = new ConcurrentHashMap<>();
+    /** Builds in progress; completes with {@code null} if the root cannot be indexed. */
+    private final Map<Path, CompletableFuture<TrigramIndex>> building = new ConcurrentHashMap<>();
+    private final Map<Path, Long> lastReconciled = new ConcurrentHashMap<>();
+    private final Map<Path, Long> failedUntil = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    void subscribe() {
+        watcher.addListener((dir, entry) -> changed(entry == null ? dir : entry));
+    }
+
+    /** Record that {@code paths} were created, modified or removed; indexes pick the change up on their next query. */
+    public void changed(Path... paths) {
+        for (Path path : paths) {
+            if (path == null) continue;
+            for (TrigramIndex index : indexes.values()) {
+                if (path.startsWith(index.root())) index.markDirty(path);
+            }
+        }
+    }
+
+    /**
+     * Search the files under {@code dir} through the index: only files containing every trigram the pattern
+     * requires are scanned. Empty if no index can be used for {@code dir}.
+     */
+    public Optional<ContentSearcher.Result> search(Path dir, String text, boolean regex, boolean ignoreCase,
+                                                   String glob, int maxResults) throws IOException {
+        Optional<TrigramIndex> index = forDirectory(dir);
+        if (index.isEmpty()) return Optional.empty();
+        ContentSearcher.Query query = new ContentSearcher.Query(text, regex, ignoreCase, glob);
+        List<String> literals = regex ? Trigrams.requiredLiterals(text) : List.of(text);
+        // Inline flags such as (?i) can switch case sensitivity on inside the pattern
+        boolean foldCase = ignoreCase || (regex && text.contains("(?"));
+        List<Path> candidates = index.get().candidates(dir, literals, foldCase);
+        return Optional.of(contentSearcher.searchCandidates(dir, candidates, query, maxResults));
+    }
+
+    /** Paths relative to {@code dir} of indexed files matching {@code glob}; empty if no index can be used. */
+    public Optional<List<String>> findFiles(Path dir, String glob, int limit) throws IOException {
+        Optional<TrigramIndex> index = forDirectory(dir);
+        if (index.isEmpty()) return Optional.empty();
+        Path root = index.get().root();
+        List<String> found = new ArrayList<>();
+        for (String rel : index.get().findFiles(dir, glob, limit)) {
+            found.add(dir.relativize(root.resolve(rel)).toString());
+        }
+        return Optional.of(found);
+    }
+
+    private Optional<TrigramIndex> forDirectory(Path dir) throws IOException {
+        if (!enabled) return Optional.empty();
+        TrigramIndex index = null;
+        for (TrigramIndex candidate : indexes.values()) {
+            if (dir.startsWith(candidate.root())) {
+                index = candidate;
+                break;
+            }
+        }
+        if (index == null) {
+            index = open(dir);
+            if (index == null) return Optional.empty();
+        }
+        refresh(index);
+        return Optional.of(index);
+    }
+
+    /**
+     * The index rooted at {@code root}, building it if needed. Only the registry is updated under the monitor;
+     * the build itself runs outside it, so one root's first search does not hold up searches on other roots.
+     */
+    private TrigramIndex open(Path root) {
+        CompletableFuture<TrigramIndex> running;
+        CompletableFuture<TrigramIndex> build = null;
+        synchronized (this) {
+            // An index covering root may have been finished, or started, since the caller looked
+            for (TrigramIndex existing : indexes.values()) {
+                if (root.startsWith(existing.root())) return existing;
+            }
+            Long until = failedUntil.get(root);
+            if (until != null && until > System.currentTimeMillis()) return null;
+            running = null;
+            for (Map.Entry<Path, CompletableFuture<TrigramIndex>> entry : building.entrySet()) {
+                if (root.startsWith(entry.getKey())) running = entry.getValue();
+            }
+            if (running == null) {
+                build = new CompletableFuture<>();
+                building.put(root, build);
+            }
+        }
+        // Another search is building this root: wait for it, but outside the monitor
+        if (build == null) return running.join();
+
+        TrigramIndex index = new TrigramIndex(root, storage.resolve(storageName(root)), maxFiles, watcher, parallelFileTree);
+        long start = System.nanoTime();
+        try {
+            index.open();
+            index.save();
+        } catch (IOException | RuntimeException e) {
+            log.info("Not indexing {}: {}", root, e.getMessage());
+            index.close();
+            synchronized (this) {
+                failedUntil.put(root, System.currentTimeMillis() + rescanInterval.toMillis() * 10);
+                building.remove(root);
+            }
+            build.complete(null);
+            return null;
+        }
+        log.info("Indexed {} files under {} in {} ms", index.liveDocuments(), root,
+                Duration.ofNanos(System.nanoTime() - start).toMillis());
+        TrigramIndex evicted = null;
+        synchronized (this) {
+            if (indexes.size() >= MAX_ROOTS) {
+                evicted = indexes.remove(indexes.keySet().iterator().next());
+            }
+            indexes.put(root, index);
+            lastReconciled.put(root, System.currentTimeMillis());
+            building.remove(root);
+        }
+        build.complete(index);
+        if (evicted != null) {
+            lastReconciled.remove(evicted.root());
+            close(evicted);
+        }
+        return index;
+    }
+
+    private void refresh(TrigramIndex index) throws IOException {
+        index.applyDirty();
+        if (index.isFullyWatched()) return;
+        long now = System.currentTimeMillis();
+        Long last = lastReconciled.get(index.root());
+        if (last == null || now - last >= rescanInterval.toMillis()) {
+            lastReconciled.put(index.root(), now);
+            index.reconcile(index.root());
+        }
+    }
+
+    private static String storageName(Path root) {
+        CRC32 crc = new CRC32();
+        crc.update(root.toString().getBytes(StandardCharsets.UTF_8));
+        Path name = root.getFileName();
+        return (name == null ? "root" : name.toString()) + "-" + HexFormat.of().toHexDigits((int) crc.getValue());
+    }
+
+    /** Save {@code index} and give its directory watches back to the shared budget. */
+    private static void close(TrigramIndex index) {
+        try {
+            index.save();
+        } catch (IOException e) {
+            log.warn("Failed to save trigram index for {}: {}", index.root(), e.getMessage());
+        } finally {
+            index.close();
+        }
+    }
+
+    @PreDestroy
+    void saveAll() {
+        indexes.values().forEach(SearchIndex::close);
+    }
+}
@@ -1,27 +1,30 @@
 package com.clockworkideas.kog.shell.service.tools;
 
+import com.clockworkideas.kog.shell.service.metrics.KogMetrics;
+import com.clockworkideas.kog.shell.service.session.ShellSession;
+import com.clockworkideas.kog.shell.service.session.ShellSessionRegistry;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.model.ToolContext;
 import org.springframework.ai.tool.annotation.Tool;
+import org.springframework.ai.tool.annotation.ToolParam;
 import org.springframework.stereotype.Component;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
-import java.nio.file.FileVisitResult;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.LinkOption;
 import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.nio.file.SimpleFileVisitor;
 import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
-import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
-import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-import java.util.stream.Stream;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.regex.PatternSyntaxException;
 
 @Slf4j
 @Service
@@ -29,11 +32,35 @@ import java.util.stream.Stream;
 @RequiredArgsConstructor
 public class SystemTools {
 
-    private String currentDirectory=System.getProperty("user.dir");
+    private static final int DEFAULT_WINDOW_LINES = 200;
+    private static final int DEFAULT_WINDOW_BYTES = 64 * 1024;
+    private static final int DEFAULT_FIND_RESULTS = 200;
+    private static final int MAX_FIND_RESULTS = 1000;
+    private static final int DEFAULT_USAGE_ENTRIES = 20;
+    private static final int MAX_USAGE_ENTRIES = 200;
+    private static final int MAX_USAGE_DEPTH = 8;
+    private static final int BULK_LISTED_PATHS = 20;
+    private static final DateTimeFormatter LISTING_TIME =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm").withZone(ZoneId.systemDefault());
+
+    private final FileWindowReader fileWindowReader;
+    private final ShellSessionRegistry sessions;
+    private final ParallelFileTree parallelFileTree;
+    private final DirectoryLister directoryLister;
+    private final ContentSearcher contentSearcher;
+    private final SearchIndex searchIndex;
+    private final FilePatcher filePatcher;
+    private final AppendWriterPool appendWriters;
+    private final KogMetrics metrics;
+    private final PathResolver pathResolver;
+    private final DiskUsageAnalyzer diskUsageAnalyzer;
+    private final BulkFileOperations bulkFileOperations;
+    private final TreeOperations treeOperations;
 
 
     @Tool(description="Get current system date time")
-    public String getCurrentDateTimeLocal(){
+    public String getCurrentDateTimeLocal(ToolContext toolContext){
+        ExchangeTrace.from(toolContext).readClock();
         DateTimeFormatter formatter = DateTimeFormatter.ofPattern(
                 "EEEE, MMMM d, yyyy hh:mm:ss.SSS a"
         );
@@ -41,294 +68,468 @@ public class SystemTools {
     }
 
     @Tool(description="set system user directory")
-    public String setCurrentDirectory(String newDirectory){
-        return changeDirectory(newDirectory);
+    public String setCurrentDirectory(String newDirectory, ToolContext toolContext){
+        return changeDirectory(newDirectory, toolContext);
     }
 
     @Tool(description = "get system user directory")
-    public String getCurrentDirectory(){
-        return this.currentDirectory;
+    public String getCurrentDirectory(ToolContext toolContext){
+        return sessions.resolve(toolContext).getCurrentDirectory();
     }
 
-    @Tool(description = "List files and directories in the current working directory")
-    public String listCurrentDirectory() {
+    @Tool(description = "List files and directories in the current working directory, one page at a time. "
+            + "Optionally sort by name, size or mtime, filter names with a glob and include size/mtime details.")
+    public String listCurrentDirectory(
+            @ToolParam(description = "1-based page number (default 1)", required = false) Integer page,
+            @ToolParam(description = "Entries per page (default 200, max 1000)", required = false) Integer pageSize,
+            @ToolParam(description = "Sort key: name, size or mtime, optionally suffixed with ' desc'", required = false) String sortBy,
+            @ToolParam(description = "Glob filter on entry names, e.g. *.log", required = false) String glob,
+            @ToolParam(description = "Include size and modification time", required = false) Boolean details,
+            ToolContext toolContext) {
+        ShellSession session = sessions.resolve(toolContext);
         try {
+            Path dir = pathResolver.base(session);
+            ExchangeTrace.from(toolContext).dependsOn(dir);
+            appendWriters.flush(dir);
+
+            String[] sort = sortBy == null || sortBy.isBlank() ? new String[]{"name"} : sortBy.trim().toLowerCase().split("\\s+");
+            DirectoryLister.SortKey key;
+            try {
+                key = DirectoryLister.SortKey.valueOf(sort[0].toUpperCase());
+            } catch (IllegalArgumentException e) {
+                return failure("Unknown sort key '" + sort[0] + "'. Use name, size or mtime.");
+            }
+            boolean descending = sort.length > 1 && sort[1].startsWith("desc");
+
+            DirectoryLister.Page listing = directoryLister.list(dir,
+                    page == null ? 1 : page,
+                    pageSize == null ? DirectoryLister.DEFAULT_PAGE_SIZE : pageSize,
+                    key, descending, glob);
+            if (listing.total() == 0) {
+                return glob == null || glob.isBlank() ? "Directory is empty" : "No entries match " + glob;
+            }
+
+            boolean withDetails = Boolean.TRUE.equals(details);
             StringBuilder result = new StringBuilder();
-            Files.list(Paths.get(currentDirectory))
-                    .forEach(path -> {
-                        if (Files.isDirectory(path)) {
-                            result.append("[DIR]  ").append(path.getFileName()).append("\n");
-                        } else {
-                            result.append("       ").append(path.getFileName()).append("\n");
-                        }
-                    });
-            return result.toString().isEmpty() ? "Directory is empty" : result.toString();
+            for (DirectoryLister.Entry entry : listing.entries()) {
+                result.append(entry.directory() ? "[DIR]  " : entry.symlink() ? "[LNK]  " : "       ");
+                if (withDetails) {
+                    result.append(String.format("%12d  %s  ", entry.size(),
+                            LISTING_TIME.format(Instant.ofEpochMilli(entry.modifiedMillis()))));
+                }
+                result.append(entry.name()).append("\n");
+            }
+            if (listing.pages() > 1) {
+                result.append("-- page ").append(listing.page()).append(" of ").append(listing.pages())
+                        .append(" (").append(listing.total()).append(" entries) --\n");
+            }
+            return result.toString();
+        } catch (IllegalArgumentException e) {
+            // A malformed glob (PatternSyntaxException)
+            return failure("Invalid glob: " + e.getMessage());
         } catch (IOException e) {
-            return "Error reading directory: " + e.getMessage();
+            return failure("Error reading directory: " + e.getMessage());
         }
     }
 
     @Tool(description = "Change current working directory (validated like 'cd')")
-    public String changeDirectory(String newPath) {
+    public String changeDirectory(String newPath, ToolContext toolContext) {
+        ShellSession session = sessions.resolve(toolContext);
         try {
-            // Expand ~ and environment variables without invoking a shell
-            String expanded = expandPath(newPath);
-
-            Path base = Paths.get(currentDirectory);
-            Path candidate = Paths.get(expanded);
-
-            // Support relative targets (e.g., ".", "..", "subdir")
-            Path resolved = candidate.isAbsolute()
-                    ? candidate.normalize()
-                    : base.resolve(candidate).normalize();
+            // Expand ~ and environment variables without invoking a shell; relative targets (".", "..", "subdir")
+            // resolve against the current directory
+            Path resolved = pathResolver.resolve(session, newPath);
 
+            // A failed cd only depends on the target; a successful one changes session state
+            ExchangeTrace.from(toolContext).dependsOn(resolved);
             if (!Files.exists(resolved)) {
-                return "Path does not exist: " + resolved.toAbsolutePath();
+                return failure("Path does not exist: " + resolved.toAbsolutePath());
             }
             if (!Files.isDirectory(resolved)) {
-                return "Not a directory: " + resolved.toAbsolutePath();
+                return failure("Not a directory: " + resolved.toAbsolutePath());
             }
             // Basic permission checks for usability
             if (!Files.isReadable(resolved)) {
-                return "Directory is not readable: " + resolved.toAbsolutePath();
+                return failure("Directory is not readable: " + resolved.toAbsolutePath());
             }
             if (!Files.isExecutable(resolved)) {
-                return "Directory is not traversable (no execute permission): " + resolved.toAbsolutePath();
+                return failure("Directory is not traversable (no execute permission): " + resolved.toAbsolutePath());
             }
 
-            this.currentDirectory = resolved.toAbsolutePath().toString();
-            return "Changed directory to " + this.currentDirectory;
+            ExchangeTrace.from(toolContext).mutated();
+            session.setCurrentDirectory(resolved.toAbsolutePath().toString());
+            return "Changed directory to " + session.getCurrentDirectory();
         } catch (Exception e) {
-            return "Failed to change directory: " + e.getMessage();
+            return failure("Failed to change directory: " + e.getMessage());
         }
     }
 
-    protected String expandPath(String input) {
-        if (input == null || input.isBlank()) return input;
-
-        String s = input;
+    @Tool(description = "Read the contents of a file in the current working directory")
+    public String readFile(String fileName, ToolContext toolContext) {
+        ShellSession session = sessions.resolve(toolContext);
+        try {
+            // Resolve relative to currentDirectory
+            Path filePath = pathResolver.base(session).resolve(fileName).normalize();
+            ExchangeTrace.from(toolContext).dependsOn(filePath);
+            appendWriters.flush(filePath);
 
-        // ~ or ~/something
-        if (s.equals("~") || s.startsWith("~/")) {
-            s = System.getProperty("user.home") + s.substring(1);
-        }
+            if (!Files.exists(filePath)) {
+                return failure("File does not exist: " + filePath.toAbsolutePath());
+            }
+            if (Files.isDirectory(filePath)) {
+                return failure("Path is a directory, not a file: " + filePath.toAbsolutePath());
+            }
+            if (!Files.isReadable(filePath)) {
+                return failure("File is not readable: " + filePath.toAbsolutePath());
+            }
 
-        // $VAR and ${VAR}
-        Map<String, String> env = System.getenv();
+            // Large files only return their head; the rest is reachable through readFileWindow
+            long size = Files.size(filePath);
+            if (size > FileWindowReader.MAX_WINDOW_BYTES) {
+                FileWindowReader.Window head = fileWindowReader.head(filePath, DEFAULT_WINDOW_LINES);
+                metrics.bytesRead(head.endOffset() - head.startOffset());
+                return "File is " + size + " bytes; showing lines 1-" + head.lineCount()
+                        + ". Use readFileWindow to read other parts.\n" + head.text();
+            }
 
-        // ${VAR}
-        Pattern brace = Pattern.compile("\\$\\{([A-Za-z_][A-Za-z0-9_]*)}");
-        Matcher m1 = brace.matcher(s);
-        StringBuffer sb1 = new StringBuffer();
-        while (m1.find()) {
-            String val = env.getOrDefault(m1.group(1), "");
-            m1.appendReplacement(sb1, Matcher.quoteReplacement(val));
-        }
-        m1.appendTail(sb1);
-        s = sb1.toString();
-
-        // $VAR
-        Pattern bare = Pattern.compile("\\$([A-Za-z_][A-Za-z0-9_]*)");
-        Matcher m2 = bare.matcher(s);
-        StringBuffer sb2 = new StringBuffer();
-        while (m2.find()) {
-            String val = env.getOrDefault(m2.group(1), "");
-            m2.appendReplacement(sb2, Matcher.quoteReplacement(val));
+            // Read all content (UTF-8 assumed, malformed bytes replaced)
+            FileWindowReader.Window all = fileWindowReader.readBytes(filePath, 0, (int) size);
+            metrics.bytesRead(all.endOffset() - all.startOffset());
+            return all.text();
+        } catch (IOException e) {
+            return failure("Error reading file: " + e.getMessage());
         }
-        m2.appendTail(sb2);
-
-        return sb2.toString();
     }
 
-    @Tool(description = "Read the contents of a file in the current working directory")
-    public String readFile(String fileName) {
+    @Tool(description = "Read part of a file without loading all of it. Modes: 'head' / 'tail' return the first / last count lines, "
+            + "'lines' returns count lines starting at line start (1-based), 'bytes' returns count bytes starting at byte offset start. "
+            + "Windows are capped at 1 MiB.")
+    public String readFileWindow(
+            @ToolParam(description = "File path, relative to the current working directory") String fileName,
+            @ToolParam(description = "One of: head, tail, lines, bytes") String mode,
+            @ToolParam(description = "First line (lines mode) or byte offset (bytes mode)", required = false) Long start,
+            @ToolParam(description = "Number of lines, or bytes in bytes mode", required = false) Integer count,
+            ToolContext toolContext) {
+        ShellSession session = sessions.resolve(toolContext);
         try {
-            // Resolve relative to currentDirectory
-            Path filePath = Paths.get(currentDirectory).resolve(fileName).normalize();
+            if (fileName == null || fileName.isBlank()) {
+                return failure("File name must be provided.");
+            }
+
+            // Expand ~ and environment variables, then resolve relative to currentDirectory
+            Path filePath = pathResolver.resolve(session, fileName);
+            ExchangeTrace.from(toolContext).dependsOn(filePath);
+            appendWriters.flush(filePath);
 
             if (!Files.exists(filePath)) {
-                return "File does not exist: " + filePath.toAbsolutePath();
+                return failure("File does not exist: " + filePath.toAbsolutePath());
             }
             if (Files.isDirectory(filePath)) {
-                return "Path is a directory, not a file: " + filePath.toAbsolutePath();
+                return failure("Path is a directory, not a file: " + filePath.toAbsolutePath());
             }
             if (!Files.isReadable(filePath)) {
-                return "File is not readable: " + filePath.toAbsolutePath();
+                return failure("File is not readable: " + filePath.toAbsolutePath());
+            }
+
+            String m = mode == null || mode.isBlank() ? "head" : mode.trim().toLowerCase();
+            FileWindowReader.Window window;
+            switch (m) {
+                case "head" -> window = fileWindowReader.head(filePath, count == null ? DEFAULT_WINDOW_LINES : count);
+                case "tail" -> window = fileWindowReader.tail(filePath, count == null ? DEFAULT_WINDOW_LINES : count);
+                case "lines" -> window = fileWindowReader.readLines(filePath, start == null ? 1 : start,
+                        count == null ? DEFAULT_WINDOW_LINES : count);
+                case "bytes" -> window = fileWindowReader.readBytes(filePath, start == null ? 0 : start,
+                        count == null ? DEFAULT_WINDOW_BYTES : count);
+                default -> {
+                    return failure("Unknown mode '" + mode + "'. Use head, tail, lines or bytes.");
+                }
             }
+            metrics.bytesRead(window.endOffset() - window.startOffset());
+            return describeWindow(m, window) + "\n" + window.text();
+        } catch (Exception e) {
+            return failure("Failed to read file window: " + e.getMessage());
+        }
+    }
 
-            // Read all content (UTF-8 assumed)
-            return Files.readString(filePath);
-        } catch (IOException e) {
-            return "Error reading file: " + e.getMessage();
+    private static String describeWindow(String mode, FileWindowReader.Window w) {
+        StringBuilder header = new StringBuilder("[");
+        if (w.firstLine() > 0) {
+            long last = w.firstLine() + Math.max(w.lineCount(), 1) - 1;
+            header.append("lines ").append(w.firstLine()).append('-').append(last);
+        } else if ("tail".equals(mode)) {
+            header.append("last ").append(w.lineCount()).append(" lines");
+        } else {
+            header.append("bytes ").append(w.startOffset()).append('-').append(w.endOffset());
         }
+        header.append(" of ").append(w.fileSize()).append(" bytes");
+        if (w.truncated()) header.append(", truncated at ").append(FileWindowReader.MAX_WINDOW_BYTES).append(" bytes");
+        if (w.atEnd()) header.append(", end of file");
+        return header.append(']').toString();
     }
 
 
+    @Tool(description = "Search the contents of files under the current working directory (like grep -rn). "
+            + "Returns matching lines as path:line: text. Skips binary files and paths excluded by .gitignore.")
+    public String searchFiles(
+            @ToolParam(description = "Text to find, or a Java regular expression when regex is true") String pattern,
+            @ToolParam(description = "Treat pattern as a regular expression (default false)", required = false) Boolean regex,
+            @ToolParam(description = "Case-insensitive match (default false)", required = false) Boolean ignoreCase,
+            @ToolParam(description = "Only search files matching this glob, e.g. *.java or src/**/*.xml", required = false) String glob,
+            @ToolParam(description = "Maximum matching lines to return (default 100, max 1000)", required = false) Integer maxResults,
+            ToolContext toolContext) {
+        ShellSession session = sessions.resolve(toolContext);
+        try {
+            if (pattern == null || pattern.isEmpty()) {
+                return failure("Search pattern must be provided.");
+            }
+            Path root = pathResolver.base(session);
+            ExchangeTrace.from(toolContext).dependsOnTree(root);
+            appendWriters.flush(root);
+
+            boolean isRegex = Boolean.TRUE.equals(regex);
+            boolean isIgnoreCase = Boolean.TRUE.equals(ignoreCase);
+            int limit = maxResults == null ? ContentSearcher.DEFAULT_MAX_RESULTS : maxResults;
+            ContentSearcher.Result result;
+            try {
+                result = searchIndex.search(root, pattern, isRegex, isIgnoreCase, glob, limit).orElse(null);
+            } catch (IOException e) {
+                log.debug("Index search under {} failed, scanning instead: {}", root, e.getMessage());
+                result = null;
+            }
+            if (result == null) {
+                result = contentSearcher.search(root, pattern, isRegex, isIgnoreCase, glob, limit);
+            }
+            if (result.matches().isEmpty()) {
+                return "No matches for " + pattern + " (" + result.filesScanned() + " files searched)";
+            }
+
+            StringBuilder out = new StringBuilder();
+            for (ContentSearcher.Match match : result.matches()) {
+                out.append(root.relativize(match.file())).append(':').append(match.line()).append(": ")
+                        .append(match.snippet()).append('\n');
+            }
+            out.append(result.truncated() ? "-- stopped after " : "-- ").append(result.matches().size())
+                    .append(" matches, ").append(result.filesScanned()).append(" files searched");
+            if (result.skipped() > 0) {
+                out.append(", ").append(result.skipped()).append(" binary or oversized files skipped");
+            }
+            return out.append(" --").toString();
+        } catch (PatternSyntaxException e) {
+            return failure("Invalid regular expression: " + e.getDescription());
+        } catch (Exception e) {
+            return failure("Failed to search files: " + e.getMessage());
+        }
+    }
+
+    @Tool(description = "Find files by name under the current working directory (like find -name). "
+            + "Returns paths relative to the current directory. Skips paths excluded by .gitignore.")
+    public String findFiles(
+            @ToolParam(description = "Glob on file names, e.g. *.java, or on relative paths when it contains '/', e.g. src/**/*Test.java", required = false) String glob,
+            @ToolParam(description = "Maximum paths to return (default 200, max 1000)", required = false) Integer maxResults,
+            ToolContext toolContext) {
+        ShellSession session = sessions.resolve(toolContext);
+        try {
+            Path root = pathResolver.base(session);
+            ExchangeTrace.from(toolContext).dependsOnTree(root);
+            int limit = Math.min(Math.max(maxResults == null ? DEFAULT_FIND_RESULTS : maxResults, 1), MAX_FIND_RESULTS);
+
+            List<String> found = searchIndex.findFiles(root, glob, limit + 1).orElse(null);
+            if (found == null) {
+                found = contentSearcher.findFiles(root, glob, limit + 1);
+            }
+            if (found.isEmpty()) {
+                return "No files matching " + (glob == null || glob.isBlank() ? "*" : glob);
+            }
+            boolean truncated = found.size() > limit;
+            StringBuilder out = new StringBuilder();
+            for (String path : truncated ? found.subList(0, limit) : found) {
+                out.append(path).append('\n');
+            }
+            return out.append(truncated ? "-- stopped after " : "-- ").append(Math.min(found.size(), limit))
+                    .append(" files --").toString();
+        } catch (IllegalArgumentException e) {
+            return failure("Invalid glob: " + e.getMessage());
+        } catch (Exception e) {
+            return failure("Failed to find files: " + e.getMessage());
+        }
+    }
+
+    @Tool(description = "Show what is using disk space under the current working directory (like du). "
+            + "Returns the total size and file count and the heaviest directories and files, largest first.")
+    public String diskUsage(
+            @ToolParam(description = "Number of entries to return (default 20, max 200)", required = false) Integer top,
+            @ToolParam(description = "How many directory levels below the current directory to report (default 1, max 8)", required = false) Integer depth,
+            ToolContext toolContext) {
+        ShellSession session = sessions.resolve(toolContext);
+        try {
+            Path root = pathResolver.base(session);
+            ExchangeTrace.from(toolContext).dependsOnTree(root);
+            appendWriters.flush(root);
+            int limit = Math.min(Math.max(top == null ? DEFAULT_USAGE_ENTRIES : top, 1), MAX_USAGE_ENTRIES);
+            int levels = Math.min(Math.max(depth == null ? 1 : depth, 1), MAX_USAGE_DEPTH);
+
+            long started = System.nanoTime();
+            DiskUsageAnalyzer.Usage usage = diskUsageAnalyzer.measure(root, limit, levels);
+            long elapsedMillis = (System.nanoTime() - started) / 1_000_000;
+
+            StringBuilder out = new StringBuilder();
+            out.append("Total: ").append(humanSize(usage.bytes())).append(" in ").append(usage.files())
+                    .append(" files, ").append(usage.directories()).append(" directories\n");
+            for (DiskUsageAnalyzer.Entry entry : usage.heaviest()) {
+                double share = usage.bytes() == 0 ? 0 : 100.0 * entry.bytes() / usage.bytes();
+                out.append(String.format("%10s %5.1f%%  %s", humanSize(entry.bytes()), share, root.relativize(entry.path())));
+                if (entry.directory()) {
+                    out.append("/  (").append(entry.files()).append(" files)");
+                }
+                out.append('\n');
+            }
+            out.append("-- ").append(usage.listed()).append(" directories read, ").append(usage.reused())
+                    .append(" unchanged since the last scan");
+            if (usage.unreadable() > 0) {
+                out.append(", ").append(usage.unreadable()).append(" unreadable");
+            }
+            return out.append(", ").append(elapsedMillis).append(" ms --").toString();
+        } catch (Exception e) {
+            return failure("Failed to measure disk usage: " + e.getMessage());
+        }
+    }
+
     @Tool(description = "Remove a file or directory (recursive). Only paths under the current working directory are allowed.")
-    public String removePath(String target) {
+    public String removePath(String target, ToolContext toolContext) {
+        ShellSession session = sessions.resolve(toolContext);
+        ExchangeTrace.from(toolContext).mutated();
         try {
             if (target == null || target.isBlank()) {
-                return "No path provided.";
+                return failure("No path provided.");
             }
 
-            // Expand ~ and $VARs (your expandPath method), then resolve against currentDirectory
-            String expanded = expandPath(target);
-            Path base = Paths.get(currentDirectory).toAbsolutePath().normalize();
-            Path candidate = Paths.get(expanded);
-            Path resolved = candidate.isAbsolute()
-                    ? candidate.normalize()
-                    : base.resolve(candidate).normalize();
+            // Expand ~ and $VARs, then resolve against currentDirectory
+            Path resolved = pathResolver.resolve(session, target);
 
             // Safety: only allow deleting within currentDirectory subtree
-            if (!resolved.startsWith(base)) {
-                return "Refusing to delete outside current working directory: " + resolved;
+            if (!pathResolver.isWithinBase(session, resolved)) {
+                return failure("Refusing to delete outside current working directory: " + resolved);
             }
 
             if (!Files.exists(resolved)) {
-                return "Path does not exist: " + resolved.toAbsolutePath();
+                return failure("Path does not exist: " + resolved.toAbsolutePath());
             }
 
+            appendWriters.flush(resolved);
+
             // If it's a directory, delete recursively (do not follow directory symlinks)
-            final DeletionCounter counter = new DeletionCounter();
             if (Files.isDirectory(resolved, LinkOption.NOFOLLOW_LINKS)) {
-                Files.walkFileTree(resolved, new SimpleFileVisitor<>() {
-                    @Override
-                    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-                        try {
-                            Files.deleteIfExists(file);
-                            counter.inc();
-                        } catch (IOException e) {
-                            throw new IOException("Failed to delete file: " + file + " - " + e.getMessage(), e);
-                        }
-                        return FileVisitResult.CONTINUE;
-                    }
-
-                    @Override
-                    public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
-                        if (exc != null) throw exc;
-                        try {
-                            Files.deleteIfExists(dir);
-                            counter.inc();
-                        } catch (IOException e) {
-                            throw new IOException("Failed to delete directory: " + dir + " - " + e.getMessage(), e);
-                        }
-                        return FileVisitResult.CONTINUE;
-                    }
-                });
-                return "Removed directory tree: " + resolved + " (" + counter.count + " entries deleted)";
+                TreeOperations.Running operation = treeOperations.start(session.getId(), "remove", resolved);
+                TreeProgress progress = operation.progress();
+                try {
+                    parallelFileTree.delete(resolved, progress);
+                } catch (CancellationException e) {
+                    return failure("Cancelled removing " + resolved + " after " + progress.getEntries() + " entries deleted");
+                } finally {
+                    treeOperations.finish(operation);
+                    changed(resolved);
+                }
+                return "Removed directory tree: " + resolved + " (" + progress.getEntries() + " entries deleted)";
             } else {
                 // Regular file or symlink: delete the path itself
                 Files.delete(resolved);
+                changed(resolved);
                 return "Removed: " + resolved.toAbsolutePath();
             }
         } catch (Exception e) {
-            return "Failed to remove path: " + e.getMessage();
+            return failure("Failed to remove path: " + e.getMessage());
         }
     }
 
     @Tool(description = "Rename or move a file/directory within the current working directory")
-    public String renamePath(String oldName, String newName) {
+    public String renamePath(String oldName, String newName, ToolContext toolContext) {
+        ShellSession session = sessions.resolve(toolContext);
+        ExchangeTrace.from(toolContext).mutated();
         try {
             if (oldName == null || oldName.isBlank() || newName == null || newName.isBlank()) {
-                return "Both source and destination names must be provided.";
+                return failure("Both source and destination names must be provided.");
             }
 
-            // Expand environment vars / ~
-            String expandedOld = expandPath(oldName);
-            String expandedNew = expandPath(newName);
-
-            Path base = Paths.get(currentDirectory).toAbsolutePath().normalize();
-            Path oldPath = Paths.get(expandedOld);
-            Path newPath = Paths.get(expandedNew);
-
-            // Resolve relative paths
-            Path resolvedOld = oldPath.isAbsolute() ? oldPath.normalize() : base.resolve(oldPath).normalize();
-            Path resolvedNew = newPath.isAbsolute() ? newPath.normalize() : base.resolve(newPath).normalize();
+            // Expand environment vars / ~ and resolve relative paths
+            Path resolvedOld = pathResolver.resolve(session, oldName);
+            Path resolvedNew = pathResolver.resolve(session, newName);
 
             // Safety: only allow inside currentDirectory
-            if (!resolvedOld.startsWith(base) || !resolvedNew.startsWith(base)) {
-                return "Refusing to rename outside current working directory.";
+            if (!pathResolver.isWithinBase(session, resolvedOld) || !pathResolver.isWithinBase(session, resolvedNew)) {
+                return failure("Refusing to rename outside current working directory.");
             }
 
             if (!Files.exists(resolvedOld)) {
-                return "Source does not exist: " + resolvedOld.toAbsolutePath();
+                return failure("Source does not exist: " + resolvedOld.toAbsolutePath());
             }
 
             if (Files.exists(resolvedNew)) {
-                return "Destination already exists: " + resolvedNew.toAbsolutePath();
+                return failure("Destination already exists: " + resolvedNew.toAbsolutePath());
             }
 
             // Ensure parent dirs exist
             Files.createDirectories(resolvedNew.getParent());
 
+            appendWriters.flush(resolvedOld);
             Files.move(resolvedOld, resolvedNew);
+            changed(resolvedOld, resolvedNew);
             return "Renamed " + resolvedOld.toAbsolutePath() + " → " + resolvedNew.toAbsolutePath();
         } catch (Exception e) {
-            return "Failed to rename: " + e.getMessage();
+            return failure("Failed to rename: " + e.getMessage());
         }
     }
 
     @Tool(description = "Create a new directory. Absolute paths are honored; relative paths are resolved against the current working directory (mkdir -p).")
-    public String makeDirectory(String dirName) {
+    public String makeDirectory(String dirName, ToolContext toolContext) {
+        ShellSession session = sessions.resolve(toolContext);
+        ExchangeTrace.from(toolContext).mutated();
         try {
             if (dirName == null || dirName.isBlank()) {
-                return "Directory name must be provided.";
+                return failure("Directory name must be provided.");
             }
 
-            // Expand ~ and env vars (e.g., ~/kog_tmp, $HOME/kog_tmp)
-            String expanded = expandPath(dirName);
-
-            Path base = Paths.get(currentDirectory).toAbsolutePath().normalize();
-            Path candidate = Paths.get(expanded);
-
-            // If absolute (e.g., /Users/you/kog_tmp), use as-is; else resolve under currentDirectory
-            Path resolved = candidate.isAbsolute()
-                    ? candidate.normalize()
-                    : base.resolve(candidate).normalize();
+            // Expand ~ and env vars (e.g., ~/kog_tmp, $HOME/kog_tmp); absolute paths (e.g., /Users/you/kog_tmp)
+            // are used as-is, relative ones resolve under currentDirectory
+            Path resolved = pathResolver.resolve(session, dirName);
 
             if (Files.exists(resolved)) {
                 if (Files.isDirectory(resolved)) {
-                    return "Directory already exists: " + resolved.toAbsolutePath();
+                    return failure("Directory already exists: " + resolved.toAbsolutePath());
                 } else {
-                    return "A file with the same name already exists: " + resolved.toAbsolutePath();
+                    return failure("A file with the same name already exists: " + resolved.toAbsolutePath());
                 }
             }
 
             Files.createDirectories(resolved);
+            changed(resolved);
 
             // Match your desired UX message
             return "The directory `" + resolved.getFileName() + "` has been created successfully.";
         } catch (Exception e) {
-            return "Failed to create directory: " + e.getMessage();
+            return failure("Failed to create directory: " + e.getMessage());
         }
     }
 
 
     @Tool(description = "Create a new empty file under the current working directory")
-    public String createFile(String fileName) {
+    public String createFile(String fileName, ToolContext toolContext) {
+        ShellSession session = sessions.resolve(toolContext);
+        ExchangeTrace.from(toolContext).mutated();
         try {
             if (fileName == null || fileName.isBlank()) {
-                return "File name must be provided.";
+                return failure("File name must be provided.");
             }
 
-            // Expand ~ and environment variables
-            String expanded = expandPath(fileName);
-
-            Path base = Paths.get(currentDirectory).toAbsolutePath().normalize();
-            Path candidate = Paths.get(expanded);
-
-            // Resolve relative path against currentDirectory
-            Path resolved = candidate.isAbsolute()
-                    ? candidate.normalize()
-                    : base.resolve(candidate).normalize();
+            // Expand ~ and environment variables, resolve relative path against currentDirectory
+            Path resolved = pathResolver.resolve(session, fileName);
 
             // Safety: only allow creating inside currentDirectory
-            if (!resolved.startsWith(base)) {
-                return "Refusing to create file outside current working directory: " + resolved;
+            if (!pathResolver.isWithinBase(session, resolved)) {
+                return failure("Refusing to create file outside current working directory: " + resolved);
             }
 
             if (Files.exists(resolved)) {
-                return "File already exists: " + resolved.toAbsolutePath();
+                return failure("File already exists: " + resolved.toAbsolutePath());
             }
 
             // Make sure parent directories exist
@@ -336,34 +537,29 @@ public class SystemTools {
 
             // Create the new file
             Files.createFile(resolved);
+            changed(resolved);
 
             return "Created file: " + resolved.toAbsolutePath();
         } catch (Exception e) {
-            return "Failed to create file: " + e.getMessage();
+            return failure("Failed to create file: " + e.getMessage());
         }
     }
 
     @Tool(description = "Write text content into a file under the current working directory (overwrites existing content)")
-    public String writeFile(String fileName, String content) {
+    public String writeFile(String fileName, String content, ToolContext toolContext) {
+        ShellSession session = sessions.resolve(toolContext);
+        ExchangeTrace.from(toolContext).mutated();
         try {
             if (fileName == null || fileName.isBlank()) {
-                return "File name must be provided.";
+                return failure("File name must be provided.");
             }
 
-            // Expand ~ and environment variables
-            String expanded = expandPath(fileName);
-
-            Path base = Paths.get(currentDirectory).toAbsolutePath().normalize();
-            Path candidate = Paths.get(expanded);
-
-            // Resolve relative path against currentDirectory
-            Path resolved = candidate.isAbsolute()
-                    ? candidate.normalize()
-                    : base.resolve(candidate).normalize();
+            // Expand ~ and environment variables, resolve relative path against currentDirectory
+            Path resolved = pathResolver.resolve(session, fileName);
 
             // Safety: only allow inside currentDirectory
-            if (!resolved.startsWith(base)) {
-                return "Refusing to write file outside current working directory: " + resolved;
+            if (!pathResolver.isWithinBase(session, resolved)) {
+                return failure("Refusing to write file outside current working directory: " + resolved);
             }
 
             // Ensure parent directories exist
@@ -372,41 +568,147 @@ public class SystemTools {
             }
 
             // Write content (overwrites existing file)
-            Files.writeString(resolved, content == null ? "" : content, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+            appendWriters.flush(resolved);
+            byte[] bytes = (content == null ? "" : content).getBytes(StandardCharsets.UTF_8);
+            Files.write(resolved, bytes, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+            metrics.bytesWritten(bytes.length);
+            changed(resolved);
 
             return "Wrote file: " + resolved.toAbsolutePath();
         } catch (Exception e) {
-            return "Failed to write file: " + e.getMessage();
+            return failure("Failed to write file: " + e.getMessage());
         }
     }
 
 
 
-    @Tool(description = "Move or rename a file/directory. Absolute paths are honored; relatives resolve against current working directory. Set overwrite=true to replace existing target.")
-    public String movePath(String source, String target, boolean overwrite) {
+    @Tool(description = "Edit a file in place by replacing one exact occurrence of oldText with newText. "
+            + "Prefer this over writeFile for small changes to existing files: only the changed text is sent. "
+            + "oldText must match exactly once, including whitespace; add surrounding lines to make it unique.")
+    public String editFile(
+            @ToolParam(description = "File path, relative to the current working directory") String fileName,
+            @ToolParam(description = "Exact text to replace, including indentation") String oldText,
+            @ToolParam(description = "Replacement text (empty to delete oldText)") String newText,
+            ToolContext toolContext) {
+        ShellSession session = sessions.resolve(toolContext);
+        ExchangeTrace.from(toolContext).mutated();
         try {
-            if (source == null || source.isBlank() || target == null || target.isBlank()) {
-                return "Source and target must be provided.";
-            }
+            Path resolved = resolveForEdit(session, fileName);
+            FilePatcher.Result result = filePatcher.replace(resolved, oldText, newText);
+            changed(resolved);
+            return "Edited " + resolved + " (" + result.linesRemoved() + " lines replaced by " + result.linesAdded() + ")";
+        } catch (FilePatcher.ConflictException e) {
+            return failure("Edit not applied: " + e.getMessage());
+        } catch (Exception e) {
+            return failure("Failed to edit file: " + e.getMessage());
+        }
+    }
 
-            // Expand ~ and $VARS
-            String srcExpanded = expandPath(source);
-            String dstExpanded = expandPath(target);
+    @Tool(description = "Replace lines firstLine..lastLine (1-based, inclusive) of a file with newText. "
+            + "Use lastLine = firstLine - 1 to insert before firstLine, and empty newText to delete the lines. "
+            + "Pass expectedText (the current content of those lines) to guard against editing the wrong lines.")
+    public String replaceLines(
+            @ToolParam(description = "File path, relative to the current working directory") String fileName,
+            @ToolParam(description = "First line to replace (1-based)") Long firstLine,
+            @ToolParam(description = "Last line to replace (inclusive)") Long lastLine,
+            @ToolParam(description = "Replacement lines") String newText,
+            @ToolParam(description = "Current content of the lines; the edit is refused if it differs", required = false) String expectedText,
+            ToolContext toolContext) {
+        ShellSession session = sessions.resolve(toolContext);
+        ExchangeTrace.from(toolContext).mutated();
+        try {
+            if (firstLine == null || lastLine == null) {
+                return failure("firstLine and lastLine must be provided.");
+            }
+            Path resolved = resolveForEdit(session, fileName);
+            FilePatcher.Result result = filePatcher.replaceLines(resolved, firstLine, lastLine, newText, expectedText);
+            changed(resolved);
+            return "Edited " + resolved + " (" + result.linesRemoved() + " lines replaced by " + result.linesAdded() + ")";
+        } catch (FilePatcher.ConflictException e) {
+            return failure("Edit not applied: " + e.getMessage());
+        } catch (Exception e) {
+            return failure("Failed to edit file: " + e.getMessage());
+        }
+    }
 
-            Path base = Paths.get(currentDirectory).toAbsolutePath().normalize();
+    @Tool(description = "Apply a unified diff (diff -u / git diff format) to files under the current working directory. "
+            + "Context and removed lines must match the files; a hunk whose line numbers are slightly off is applied where "
+            + "it matches nearby, as patch does. If any hunk does not apply, no file is changed.")
+    public String applyPatch(
+            @ToolParam(description = "Unified diff with ---/+++ file headers and @@ hunks; paths are relative to the current directory") String patch,
+            ToolContext toolContext) {
+        ShellSession session = sessions.resolve(toolContext);
+        ExchangeTrace.from(toolContext).mutated();
+        try {
+            List<FilePatcher.Result> results = filePatcher.applyPatch(patch, name -> {
+                try {
+                    return resolveForEdit(session, name);
+                } catch (IOException e) {
+                    throw new IllegalArgumentException(e.getMessage());
+                }
+            });
+            StringBuilder out = new StringBuilder("Patch applied:");
+            for (FilePatcher.Result result : results) {
+                changed(result.file());
+                out.append("\n").append(result.file()).append(": ");
+                if (result.created()) out.append("created, ");
+                if (result.deleted()) out.append("deleted, ");
+                out.append(result.hunks()).append(" hunks, -").append(result.linesRemoved())
+                        .append(" +").append(result.linesAdded());
+                for (String note : result.notes()) {
+                    out.append("; ").append(note);
+                }
+            }
+            return out.toString();
+        } catch (FilePatcher.ConflictException e) {
+            return failure("Patch not applied: " + e.getMessage());
+        } catch (Exception e) {
+            return failure("Failed to apply patch: " + e.getMessage());
+        }
+    }
 
-            Path src = Paths.get(srcExpanded);
-            Path dst = Paths.get(dstExpanded);
+    /**
+     * Resolve a file for the edit tools; like writeFile, only paths under the current directory are allowed.
+     * An existing file is resolved through symlinks, so the edit replaces the file a link points to rather
+     * than the link, and the real location must be under the current directory too.
+     */
+    private Path resolveForEdit(ShellSession session, String fileName) throws IOException {
+        if (fileName == null || fileName.isBlank()) {
+            throw new IOException("File name must be provided.");
+        }
+        Path resolved = pathResolver.resolve(session, fileName);
+        if (!pathResolver.isWithinBase(session, resolved)) {
+            throw new IOException("Refusing to edit file outside current working directory: " + resolved);
+        }
+        if (Files.exists(resolved)) {
+            Path real = resolved.toRealPath();
+            if (!real.startsWith(pathResolver.base(session).toRealPath())) {
+                throw new IOException("Refusing to edit file outside current working directory: " + resolved + " links to " + real);
+            }
+            resolved = real;
+        }
+        appendWriters.flush(resolved);
+        return resolved;
+    }
+
+    @Tool(description = "Move or rename a file/directory. Absolute paths are honored; relatives resolve against current working directory. Set overwrite=true to replace existing target.")
+    public String movePath(String source, String target, boolean overwrite, ToolContext toolContext) {
+        ShellSession session = sessions.resolve(toolContext);
+        ExchangeTrace.from(toolContext).mutated();
+        try {
+            if (source == null || source.isBlank() || target == null || target.isBlank()) {
+                return failure("Source and target must be provided.");
+            }
 
-            // Use absolute as-is; otherwise resolve under currentDirectory
-            src = src.isAbsolute() ? src.normalize() : base.resolve(src).normalize();
-            dst = dst.isAbsolute() ? dst.normalize() : base.resolve(dst).normalize();
+            // Expand ~ and $VARS; use absolute as-is, otherwise resolve under currentDirectory
+            Path src = pathResolver.resolve(session, source);
+            Path dst = pathResolver.resolve(session, target);
 
             if (!Files.exists(src)) {
-                return "Source does not exist: " + src.toAbsolutePath();
+                return failure("Source does not exist: " + src.toAbsolutePath());
             }
             if (Files.exists(dst) && !overwrite) {
-                return "Target already exists: " + dst.toAbsolutePath();
+                return failure("Target already exists: " + dst.toAbsolutePath());
             }
 
             // Ensure parent dir exists
@@ -414,6 +716,8 @@ public class SystemTools {
                 Files.createDirectories(dst.getParent());
             }
 
+            appendWriters.flush(src);
+
             // Try a direct move first
             try {
                 if (overwrite) {
@@ -422,117 +726,228 @@ public class SystemTools {
                     Files.move(src, dst);
                 }
             } catch (IOException moveErr) {
+                if (!ParallelFileTree.isCrossDevice(src, moveErr)) throw moveErr;
                 // Fallback for cross-device moves: copy then delete
-                copyRecursive(src, dst, overwrite);
-                deleteRecursive(src);
+                TreeOperations.Running operation = treeOperations.start(session.getId(), "move", src);
+                TreeProgress progress = operation.progress();
+                try {
+                    parallelFileTree.copy(src, dst, overwrite, true, progress);
+                    long copied = progress.getEntries();
+                    parallelFileTree.delete(src, progress);
+                    return "Moved: " + src.toAbsolutePath() + " → " + dst.toAbsolutePath() + " (copied " + copied
+                            + " entries, " + progress.getBytes() + " bytes, then removed the source)";
+                } catch (CancellationException e) {
+                    return failure("Cancelled moving " + src + " after " + progress.getEntries() + " entries ("
+                            + progress.getBytes() + " bytes); the source and a partial copy at " + dst + " remain");
+                } finally {
+                    treeOperations.finish(operation);
+                    changed(src, dst);
+                }
             }
+            changed(src, dst);
 
             return "Moved: " + src.toAbsolutePath() + " → " + dst.toAbsolutePath();
         } catch (Exception e) {
-            return "Failed to move: " + e.getMessage();
+            return failure("Failed to move: " + e.getMessage());
         }
     }
 
-    /** Copy file or directory recursively. Overwrites target if requested. */
-    private static void copyRecursive(Path src, Path dst, boolean overwrite) throws IOException {
-        if (Files.isDirectory(src, LinkOption.NOFOLLOW_LINKS)) {
-            // Copy directory tree
-            try (Stream<Path> paths = Files.walk(src)) {
-                for (Path p : (Iterable<Path>) paths::iterator) {
-                    Path rel = src.relativize(p);
-                    Path targetPath = dst.resolve(rel);
-                    if (Files.isDirectory(p, LinkOption.NOFOLLOW_LINKS)) {
-                        Files.createDirectories(targetPath);
-                    } else {
-                        Files.createDirectories(targetPath.getParent());
-                        if (overwrite) {
-                            Files.copy(p, targetPath, StandardCopyOption.REPLACE_EXISTING, LinkOption.NOFOLLOW_LINKS);
-                        } else {
-                            Files.copy(p, targetPath, LinkOption.NOFOLLOW_LINKS);
-                        }
-                    }
-                }
-            }
-        } else {
-            // Copy single file or symlink target as a file copy
-            Files.createDirectories(dst.getParent());
-            if (overwrite) {
-                Files.copy(src, dst, StandardCopyOption.REPLACE_EXISTING, LinkOption.NOFOLLOW_LINKS);
-            } else {
-                Files.copy(src, dst, LinkOption.NOFOLLOW_LINKS);
-            }
+    @Tool(description = "List the recursive removes and moves still running in this session, with entries and bytes done so far")
+    public String listTreeOperations(ToolContext toolContext) {
+        ExchangeTrace.from(toolContext).readLiveState();
+        List<TreeOperations.Running> running = treeOperations.list(sessions.resolve(toolContext).getId());
+        if (running.isEmpty()) {
+            return "No tree operations running.";
+        }
+        long now = System.currentTimeMillis();
+        StringBuilder out = new StringBuilder();
+        for (TreeOperations.Running operation : running) {
+            if (out.length() > 0) out.append('\n');
+            TreeProgress progress = operation.progress();
+            out.append(operation.id()).append(": ").append(operation.description()).append(' ').append(operation.path())
+                    .append(", ").append(progress.getEntries()).append(" entries, ").append(progress.getBytes())
+                    .append(" bytes, ").append((now - operation.startedAtMillis()) / 1000).append(" s")
+                    .append(progress.isCancelled() ? " (cancelling)" : "");
         }
+        return out.toString();
     }
 
-    /** Delete file or directory recursively (does not follow directory symlinks). */
-    private static void deleteRecursive(Path path) throws IOException {
-        if (!Files.exists(path)) return;
-        if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
-            Files.walkFileTree(path, new SimpleFileVisitor<>() {
-                @Override
-                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-                    Files.deleteIfExists(file);
-                    return FileVisitResult.CONTINUE;
+    @Tool(description = "Cancel a running recursive remove or move by the id listTreeOperations reports; "
+            + "entries already processed stay processed")
+    public String cancelTreeOperation(String id, ToolContext toolContext) {
+        ExchangeTrace.from(toolContext).mutated();
+        return treeOperations.cancel(sessions.resolve(toolContext).getId(), id)
+                .map(operation -> "Cancelling " + operation.id() + " (" + operation.description() + " " + operation.path()
+                        + ") after " + operation.progress().getEntries() + " entries")
+                .orElseGet(() -> failure("No running tree operation " + id + " in this session."));
+    }
+
+    @Tool(description = "Delete, move or copy every file under the current working directory that matches a glob and optional "
+            + "age and size limits, in one call. Returns counts and failures. Use dryRun=true to see what would be affected first.")
+    public String bulkFileOperation(
+            @ToolParam(description = "delete, move or copy") String operation,
+            @ToolParam(description = "Glob on file names, e.g. *.tmp, or on relative paths when it contains '/', e.g. logs/**/*.log") String glob,
+            @ToolParam(description = "Destination directory for move and copy; relative paths under it are kept", required = false) String target,
+            @ToolParam(description = "Only files last modified longer ago than this, e.g. 7d, 12h, 30m", required = false) String olderThan,
+            @ToolParam(description = "Only files last modified more recently than this, e.g. 1h", required = false) String newerThan,
+            @ToolParam(description = "Only files at least this large, e.g. 10M", required = false) String minSize,
+            @ToolParam(description = "Only files at most this large, e.g. 1k", required = false) String maxSize,
+            @ToolParam(description = "Include subdirectories (default true)", required = false) Boolean recursive,
+            @ToolParam(description = "Replace existing files at the destination (default false)", required = false) Boolean overwrite,
+            @ToolParam(description = "Only report what would be done (default false)", required = false) Boolean dryRun,
+            ToolContext toolContext) {
+        ShellSession session = sessions.resolve(toolContext);
+        boolean preview = Boolean.TRUE.equals(dryRun);
+        if (preview) {
+            ExchangeTrace.from(toolContext).dependsOnTree(pathResolver.base(session));
+        } else {
+            ExchangeTrace.from(toolContext).mutated();
+        }
+        try {
+            if (glob == null || glob.isBlank()) {
+                return failure("A glob must be provided (use * to match every file).");
+            }
+            BulkFileOperations.Operation op;
+            try {
+                op = BulkFileOperations.Operation.valueOf(operation == null ? "" : operation.trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                return failure("Unknown operation '" + operation + "'. Use delete, move or copy.");
+            }
+            Path root = pathResolver.base(session);
+            Path destination = null;
+            if (op != BulkFileOperations.Operation.DELETE) {
+                if (target == null || target.isBlank()) {
+                    return failure("A target directory must be provided for " + op.name().toLowerCase() + ".");
+                }
+                destination = pathResolver.resolve(session, target);
+                // Safety: same containment rule as the single-path tools
+                if (!pathResolver.isWithinBase(session, destination)) {
+                    return failure("Refusing to " + op.name().toLowerCase() + " files outside current working directory: " + destination);
+                }
+                // Relative paths are kept under the target, so the current directory itself would map files onto themselves
+                if (destination.equals(root)) {
+                    return failure("Target must be a subdirectory of the current working directory.");
                 }
-                @Override
-                public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
-                    if (exc != null) throw exc;
-                    Files.deleteIfExists(dir);
-                    return FileVisitResult.CONTINUE;
+            }
+            BulkFileOperations.Criteria criteria = new BulkFileOperations.Criteria(glob, !Boolean.FALSE.equals(recursive),
+                    BulkFileOperations.parseAge(olderThan), BulkFileOperations.parseAge(newerThan),
+                    BulkFileOperations.parseSize(minSize), BulkFileOperations.parseSize(maxSize));
+
+            appendWriters.flush(root);
+            BulkFileOperations.Plan plan = bulkFileOperations.plan(root, criteria, destination);
+            String verb = op.name().toLowerCase();
+            if (plan.files().isEmpty()) {
+                return "No files match " + glob;
+            }
+            if (preview) {
+                StringBuilder out = new StringBuilder("Would ").append(verb).append(' ').append(plan.files().size())
+                        .append(" files (").append(humanSize(plan.bytes())).append(")")
+                        .append(destination == null ? "" : " into " + root.relativize(destination)).append(":\n");
+                for (Path file : plan.files().subList(0, Math.min(plan.files().size(), BULK_LISTED_PATHS))) {
+                    out.append(root.relativize(file)).append('\n');
+                }
+                if (plan.files().size() > BULK_LISTED_PATHS) {
+                    out.append("-- and ").append(plan.files().size() - BULK_LISTED_PATHS).append(" more --\n");
                 }
+                return out.toString();
+            }
+
+            long started = System.nanoTime();
+            BulkFileOperations.Result result = bulkFileOperations.execute(plan, op, destination,
+                    Boolean.TRUE.equals(overwrite));
+            long elapsedMillis = (System.nanoTime() - started) / 1_000_000;
+            if (op == BulkFileOperations.Operation.COPY) {
+                metrics.bytesWritten(result.bytes());
+            }
+            changed(plan.files().toArray(Path[]::new));
+            if (destination != null) {
+                changed(destination);
+            }
+
+            StringBuilder out = new StringBuilder(switch (op) {
+                case DELETE -> "Deleted ";
+                case MOVE -> "Moved ";
+                case COPY -> "Copied ";
             });
-        } else {
-            Files.deleteIfExists(path);
+            out.append(result.done()).append(" of ").append(plan.files().size()).append(" files (")
+                    .append(humanSize(result.bytes())).append(")")
+                    .append(destination == null ? "" : " into " + root.relativize(destination))
+                    .append(" in ").append(elapsedMillis).append(" ms");
+            if (!result.failures().isEmpty()) {
+                out.append("\n").append(result.failures().size()).append(" failed:");
+                for (BulkFileOperations.Failure failure : result.failures().subList(0,
+                        Math.min(result.failures().size(), BULK_LISTED_PATHS))) {
+                    out.append("\n").append(root.relativize(failure.file())).append(": ").append(failure.reason());
+                }
+                if (result.failures().size() > BULK_LISTED_PATHS) {
+                    out.append("\n-- and ").append(result.failures().size() - BULK_LISTED_PATHS).append(" more --");
+                }
+            }
+            return out.toString();
+        } catch (IllegalArgumentException e) {
+            // Bad sizes, ages and globs
+            return failure("Invalid bulk operation: " + e.getMessage());
+        } catch (Exception e) {
+            return failure("Failed to run bulk operation: " + e.getMessage());
         }
     }
 
-
-
-
-    @Tool(description = "Append text content to a file under the current working directory (creates file if missing)")
-    public String appendFile(String fileName, String content) {
+    @Tool(description = "Append text content to a file under the current working directory (creates the file and any "
+            + "missing parent directories). "
+            + "Appends to the same file from concurrent calls keep their order.")
+    public String appendFile(
+            String fileName,
+            String content,
+            @ToolParam(description = "Force this and earlier appends to disk before returning (default false)", required = false) Boolean sync,
+            ToolContext toolContext) {
+        ShellSession session = sessions.resolve(toolContext);
+        ExchangeTrace.from(toolContext).mutated();
         try {
             if (fileName == null || fileName.isBlank()) {
-                return "File name must be provided.";
+                return failure("File name must be provided.");
             }
 
-            // Expand ~ and environment variables
-            String expanded = expandPath(fileName);
-
-            Path base = Paths.get(currentDirectory).toAbsolutePath().normalize();
-            Path candidate = Paths.get(expanded);
-
-            // Resolve relative path against currentDirectory
-            Path resolved = candidate.isAbsolute()
-                    ? candidate.normalize()
-                    : base.resolve(candidate).normalize();
+            // Expand ~ and environment variables, resolve relative path against currentDirectory
+            Path resolved = pathResolver.resolve(session, fileName);
 
             // Safety: only allow inside currentDirectory
-            if (!resolved.startsWith(base)) {
-                return "Refusing to append to file outside current working directory: " + resolved;
-            }
-
-            // Ensure parent directories exist
-            if (resolved.getParent() != null) {
-                Files.createDirectories(resolved.getParent());
+            if (!pathResolver.isWithinBase(session, resolved)) {
+                return failure("Refusing to append to file outside current working directory: " + resolved);
             }
 
-            // Append content (create if missing)
-            Files.writeString(
-                    resolved,
-                    (content == null ? "" : content) + System.lineSeparator(),
-                    StandardOpenOption.CREATE,
-                    StandardOpenOption.APPEND
-            );
+            // Append content through the pooled handle (creates file and parent directories if missing)
+            byte[] line = ((content == null ? "" : content) + System.lineSeparator()).getBytes(StandardCharsets.UTF_8);
+            appendWriters.append(resolved, line, Boolean.TRUE.equals(sync));
+            metrics.bytesWritten(line.length);
+            changed(resolved);
 
             return "Appended to file: " + resolved.toAbsolutePath();
         } catch (Exception e) {
-            return "Failed to append to file: " + e.getMessage();
+            return failure("Failed to append to file: " + e.getMessage());
         }
     }
 
-    private static final class DeletionCounter {
-        int count = 0;
-        void inc() { count++; }
+    /** Tell the search index and the disk usage cache that {@code paths} were created, modified or removed. */
+    private void changed(Path... paths) {
+        searchIndex.changed(paths);
+        diskUsageAnalyzer.changed(paths);
+        directoryLister.changed(paths);
+    }
+
+    /** Answer the model with {@code message} and have the call timed as an error. */
+    private static String failure(String message) {
+        return ToolCallStatus.current().fail(message);
+    }
+
+    private static String humanSize(long bytes) {
+        if (bytes < 1024) return bytes + " B";
+        String units = "KMGTPE";
+        double value = bytes;
+        int unit = -1;
+        while (value >= 1024 && unit < units.length() - 1) {
+            value /= 1024;
+            unit++;
+        }
+        return String.format("%.1f %siB", value, units.charAt(unit));
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,317 @@
+package com.clockworkideas.kog.shell.service.tools;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Structural summary of a tool result that is too large to send whole: the detected format and an outline
+ * (headings, declarations, top-level keys, log levels...) with line numbers where they apply, numbered as the
+ * {@link ToolResultStore} pages them. The format comes from the file name when there is one, otherwise from the
+ * first lines. Everything here is a single pass over the text; JSON is only parsed when it is small enough to do
+ * so cheaply.
+ */
+final class TextStructure {
+
+    private static final ObjectMapper JSON = new ObjectMapper();
+    private static final int MAX_JSON_PARSE_CHARS = 4 * 1024 * 1024;
+    private static final int MAX_OUTLINE_LINE = 120;
+    private static final int SNIFF_LINES = 40;
+
+    private static final Pattern MARKDOWN_HEADING = Pattern.compile("^#{1,4}\\s+\\S.*");
+    private static final Pattern DECLARATION = Pattern.compile(
+            "^(?: {0,4}|\\t?)(?:@\\w+\\s+)*(?:(?:public|protected|private|internal|static|final|abstract|sealed|export|default|async|pub|open|data)\\s+)*"
+                    + "(?:class|interface|enum|record|def|fn|func|function|struct|trait|impl|object|module|namespace|type)\\s+\\w.*");
+    private static final Pattern METHOD = Pattern.compile(
+            "^(?: {2,4}|\\t)(?:(?:public|protected|private|static|final|abstract|synchronized|override|suspend)\\s+)+[\\w<>\\[\\],.? ]+\\(.*");
+    private static final Pattern XML_ELEMENT = Pattern.compile("^\\s{0,4}<([A-Za-z][\\w:.-]*)");
+    private static final Pattern HTML_HEADING = Pattern.compile("<h([1-3])[^>]*>(.*?)</h\\1>", Pattern.CASE_INSENSITIVE);
+    private static final Pattern CONFIG_KEY = Pattern.compile("^([A-Za-z_][\\w.\\-]*)\\s*[:=]");
+    private static final Pattern INI_SECTION = Pattern.compile("^\\[[^\\]]+\\]\\s*$");
+    private static final Pattern LOG_LINE = Pattern.compile("^\\[?\\d{4}-\\d{2}-\\d{2}[ T]\\d{2}:\\d{2}");
+    private static final Pattern LOG_LEVEL = Pattern.compile("\\b(FATAL|ERROR|WARN|WARNING|INFO|DEBUG|TRACE)\\b");
+    private static final Pattern TAGS = Pattern.compile("<[^>]+>");
+    private static final Pattern LINE_BREAK = Pattern.compile("\r?\n");
+
+    private static final Map<String, String> EXTENSIONS = Map.ofEntries(
+            Map.entry("json", "JSON"), Map.entry("xml", "XML"), Map.entry("pom", "XML"), Map.entry("xsd", "XML"),
+            Map.entry("svg", "XML"), Map.entry("html", "HTML"), Map.entry("htm", "HTML"), Map.entry("md", "Markdown"),
+            Map.entry("markdown", "Markdown"), Map.entry("yml", "YAML"), Map.entry("yaml", "YAML"), Map.entry("csv", "CSV"),
+            Map.entry("tsv", "TSV"), Map.entry("properties", "config"), Map.entry("ini", "config"), Map.entry("toml", "config"),
+            Map.entry("conf", "config"), Map.entry("cfg", "config"), Map.entry("env", "config"), Map.entry("log", "log"),
+            Map.entry("java", "Java source"), Map.entry("kt", "Kotlin source"), Map.entry("kts", "Kotlin source"),
+            Map.entry("scala", "Scala source"), Map.entry("groovy", "Groovy source"), Map.entry("js", "JavaScript source"),
+            Map.entry("jsx", "JavaScript source"), Map.entry("ts", "TypeScript source"), Map.entry("tsx", "TypeScript source"),
+            Map.entry("py", "Python source"), Map.entry("go", "Go source"), Map.entry("rs", "Rust source"),
+            Map.entry("c", "C source"), Map.entry("h", "C source"), Map.entry("cc", "C++ source"), Map.entry("cpp", "C++ source"),
+            Map.entry("hpp", "C++ source"), Map.entry("cs", "C# source"), Map.entry("rb", "Ruby source"),
+            Map.entry("php", "PHP source"), Map.entry("swift", "Swift source"), Map.entry("sh", "shell script"));
+
+    /** Detected format and outline entries, most significant first. */
+    record Structure(String format, List<String> outline) {
+    }
+
+    private TextStructure() {
+    }
+
+    /** Describe {@code text}, which came from {@code fileName} if that is not null; at most {@code maxOutline} entries. */
+    static Structure describe(String text, String fileName, int maxOutline) {
+        String format = detect(text, fileName);
+        List<String> outline = switch (format) {
+            case "JSON" -> jsonOutline(text);
+            case "XML" -> matchingLines(text, XML_ELEMENT, maxOutline, true);
+            case "HTML" -> htmlOutline(text, maxOutline);
+            case "Markdown" -> matchingLines(text, MARKDOWN_HEADING, maxOutline, false);
+            case "YAML", "config" -> configOutline(text, maxOutline);
+            case "CSV", "TSV" -> tableOutline(text, format.equals("CSV") ? ',' : '\t');
+            case "log" -> logOutline(text);
+            case "directory listing" -> listingOutline(text);
+            case "text" -> List.of();
+            default -> sourceOutline(text, maxOutline);
+        };
+        if (outline.size() > maxOutline) {
+            List<String> capped = new ArrayList<>(outline.subList(0, maxOutline));
+            capped.add("... " + (outline.size() - maxOutline) + " more");
+            outline = capped;
+        }
+        return new Structure(format, outline);
+    }
+
+    static String detect(String text, String fileName) {
+        if (fileName != null) {
+            String name = fileName.toLowerCase(Locale.ROOT);
+            int dot = name.lastIndexOf('.');
+            String format = dot < 0 ? null : EXTENSIONS.get(name.substring(dot + 1));
+            if (format != null) return format;
+        }
+        List<String> sample = firstLines(text, SNIFF_LINES);
+        if (sample.isEmpty()) return "text";
+        // Listings start with "[DIR]", which would otherwise pass for a JSON array
+        if (isListingEntry(sample.get(0))) return "directory listing";
+        String first = sample.get(0).strip();
+        if (first.startsWith("{") || first.startsWith("[") && !LOG_LINE.matcher(first).find()) return "JSON";
+        if (first.startsWith("<")) {
+            String head = text.substring(0, Math.min(text.length(), 1024)).toLowerCase(Locale.ROOT);
+            return head.contains("<html") || head.contains("<!doctype html") ? "HTML" : "XML";
+        }
+        int listing = 0;
+        int logs = 0;
+        int headings = 0;
+        int declarations = 0;
+        for (String line : sample) {
+            if (isListingEntry(line)) listing++;
+            if (LOG_LINE.matcher(line).find()) logs++;
+            if (MARKDOWN_HEADING.matcher(line).matches()) headings++;
+            if (DECLARATION.matcher(line).matches() || METHOD.matcher(line).matches()) declarations++;
+        }
+        if (listing > 0) return "directory listing";
+        if (logs * 2 >= sample.size()) return "log";
+        if (headings > 0 && headings * 10 >= sample.size() / 2) return "Markdown";
+        if (declarations >= 2) return "source";
+        if (sameSeparatorCount(sample, ',')) return "CSV";
+        if (sameSeparatorCount(sample, '\t')) return "TSV";
+        return "text";
+    }
+
+    private static List<String> jsonOutline(String text) {
+        if (text.length() > MAX_JSON_PARSE_CHARS) return List.of();
+        JsonNode root;
+        try {
+            root = JSON.readTree(text);
+        } catch (Exception e) {
+            return List.of("not valid JSON: " + shorten(e.getMessage().lines().findFirst().orElse("")));
+        }
+        List<String> outline = new ArrayList<>();
+        if (root.isArray()) {
+            outline.add("array of " + root.size() + " elements");
+            if (!root.isEmpty() && root.get(0).isObject()) {
+                outline.add("element keys: " + shorten(String.join(", ", fieldNames(root.get(0)))));
+            }
+        } else if (root.isObject()) {
+            for (Iterator<Map.Entry<String, JsonNode>> it = root.fields(); it.hasNext(); ) {
+                Map.Entry<String, JsonNode> field = it.next();
+                outline.add(shorten(field.getKey()) + ": " + jsonType(field.getValue()));
+            }
+        }
+        return outline;
+    }
+
+    private static String jsonType(JsonNode node) {
+        if (node.isObject()) return "object with " + node.size() + " keys";
+        if (node.isArray()) return "array of " + node.size();
+        if (node.isTextual()) return "string (" + node.asText().length() + " chars)";
+        return node.getNodeType().name().toLowerCase(Locale.ROOT);
+    }
+
+    private static List<String> fieldNames(JsonNode node) {
+        List<String> names = new ArrayList<>();
+        node.fieldNames().forEachRemaining(names::add);
+        return names;
+    }
+
+    private static List<String> htmlOutline(String text, int max) {
+        List<String> outline = new ArrayList<>();
+        int line = 1;
+        int counted = 0;
+        Matcher m = HTML_HEADING.matcher(text);
+        while (m.find() && outline.size() <= max) {
+            line += countLines(text, counted, m.start());
+            counted = m.start();
+            String title = TAGS.matcher(m.group(2)).replaceAll("").strip();
+            outline.add("L" + line + " h" + m.group(1) + " " + shorten(title));
+        }
+        return outline;
+    }
+
+    private static List<String> configOutline(String text, int max) {
+        List<String> outline = new ArrayList<>();
+        int number = 0;
+        for (String line : (Iterable<String>) lines(text)::iterator) {
+            number++;
+            if (INI_SECTION.matcher(line).matches()) {
+                outline.add("L" + number + " " + shorten(line.strip()));
+            } else {
+                Matcher m = CONFIG_KEY.matcher(line);
+                if (m.find()) outline.add("L" + number + " " + m.group(1));
+            }
+            if (outline.size() > max) break;
+        }
+        return outline;
+    }
+
+    private static List<String> tableOutline(String text, char separator) {
+        List<String> lines = firstLines(text, 1);
+        long rows = lines(text).count() - 1;
+        if (lines.isEmpty()) return List.of();
+        String header = lines.get(0);
+        int columns = count(header, separator) + 1;
+        return List.of(columns + " columns, " + rows + " rows", "header: " + shorten(header));
+    }
+
+    private static List<String> logOutline(String text) {
+        Map<String, int[]> levels = new LinkedHashMap<>();
+        String firstStamp = null;
+        String lastStamp = null;
+        int number = 0;
+        for (String line : (Iterable<String>) lines(text)::iterator) {
+            number++;
+            if (LOG_LINE.matcher(line).find()) {
+                if (firstStamp == null) firstStamp = line;
+                lastStamp = line;
+            }
+            Matcher m = LOG_LEVEL.matcher(line);
+            if (m.find()) {
+                String level = m.group(1).equals("WARNING") ? "WARN" : m.group(1);
+                int[] seen = levels.get(level);
+                if (seen == null) levels.put(level, seen = new int[]{0, number});
+                seen[0]++;
+            }
+        }
+        List<String> outline = new ArrayList<>();
+        for (String level : List.of("FATAL", "ERROR", "WARN", "INFO", "DEBUG", "TRACE")) {
+            int[] seen = levels.get(level);
+            if (seen != null) outline.add(level + ": " + seen[0] + " lines, first at L" + seen[1]);
+        }
+        if (firstStamp != null) outline.add("first: " + shorten(firstStamp));
+        if (lastStamp != null && !lastStamp.equals(firstStamp)) outline.add("last: " + shorten(lastStamp));
+        return outline;
+    }
+
+    private static List<String> listingOutline(String text) {
+        int directories = 0;
+        int links = 0;
+        int files = 0;
+        String footer = null;
+        for (String line : (Iterable<String>) lines(text)::iterator) {
+            if (line.startsWith("[DIR]  ")) directories++;
+            else if (line.startsWith("[LNK]  ")) links++;
+            else if (line.startsWith("-- ")) footer = line;
+            else if (!line.isBlank()) files++;
+        }
+        List<String> outline = new ArrayList<>();
+        outline.add(directories + " directories, " + files + " files, " + links + " links");
+        if (footer != null) outline.add(footer);
+        return outline;
+    }
+
+    private static List<String> sourceOutline(String text, int max) {
+        List<String> outline = new ArrayList<>();
+        int number = 0;
+        for (String line : (Iterable<String>) lines(text)::iterator) {
+            number++;
+            if (DECLARATION.matcher(line).matches() || METHOD.matcher(line).matches()) {
+                outline.add("L" + number + " " + shorten(line.strip()));
+                if (outline.size() > max) break;
+            }
+        }
+        return outline;
+    }
+
+    private static List<String> matchingLines(String text, Pattern pattern, int max, boolean skipClosing) {
+        List<String> outline = new ArrayList<>();
+        int number = 0;
+        for (String line : (Iterable<String>) lines(text)::iterator) {
+            number++;
+            if (pattern.matcher(line).find() && !(skipClosing && line.strip().startsWith("</"))) {
+                outline.add("L" + number + " " + shorten(line.strip()));
+                if (outline.size() > max) break;
+            }
+        }
+        return outline;
+    }
+
+    /**
+     * Lines split on line feeds only, as {@link ToolResultStore} numbers them, so outline line numbers can be
+     * passed to {@code readToolResult} (a lone carriage return does not start a line there either).
+     */
+    private static Stream<String> lines(String text) {
+        return LINE_BREAK.splitAsStream(text);
+    }
+
+    private static boolean isListingEntry(String line) {
+        return line.startsWith("[DIR]  ") || line.startsWith("[LNK]  ");
+    }
+
+    private static boolean sameSeparatorCount(List<String> sample, char separator) {
+        if (sample.size() < 3) return false;
+        int expected = count(sample.get(0), separator);
+        if (expected == 0) return false;
+        for (String line : sample) {
+            if (!line.isBlank() && count(line, separator) != expected) return false;
+        }
+        return true;
+    }
+
+    private static List<String> firstLines(String text, int limit) {
+        return lines(text).filter(line -> !line.isBlank()).limit(limit).toList();
+    }
+
+    private static int count(String line, char c) {
+        int n = 0;
+        for (int i = 0; i < line.length(); i++) {
+            if (line.charAt(i) == c) n++;
+        }
+        return n;
+    }
+
+    private static int countLines(String text, int from, int to) {
+        int n = 0;
+        for (int i = from; i < to; i++) {
+            if (text.charAt(i) == '\n') n++;
+        }
+        return n;
+    }
+
+    private static String shorten(String s) {
+        return s.length() <= MAX_OUTLINE_LINE ? s : s.substring(0, MAX_OUTLINE_LINE - 3) + "...";
+    }
+}
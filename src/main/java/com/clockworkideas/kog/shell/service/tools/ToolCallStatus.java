@@ -0,0 +1,41 @@
+package com.clockworkideas.kog.shell.service.tools;
+
+/**
+ * Outcome of the tool call running on the current thread. The tools answer a failure with a message for the
+ * model rather than an exception, and mark it here with {@link #fail}; {@link InstrumentedToolCallback} times
+ * the call as an error when it is marked. Whether a call failed is never guessed from its result text.
+ * <p>
+ * Tools run synchronously on the thread that calls them, so each thread reuses one instance, reset before every
+ * call; recording an outcome allocates nothing.
+ */
+public final class ToolCallStatus {
+
+    private static final ThreadLocal<ToolCallStatus> CURRENT = ThreadLocal.withInitial(ToolCallStatus::new);
+
+    private boolean failed;
+
+    private ToolCallStatus() {
+    }
+
+    /** Status of the call running on this thread. */
+    public static ToolCallStatus current() {
+        return CURRENT.get();
+    }
+
+    /** Start a call on this thread with a clean status. */
+    static ToolCallStatus begin() {
+        ToolCallStatus status = CURRENT.get();
+        status.failed = false;
+        return status;
+    }
+
+    /** Mark the call failed and return {@code message}, which is still what the model is answered with. */
+    public String fail(String message) {
+        failed = true;
+        return message;
+    }
+
+    public boolean isFailed() {
+        return failed;
+    }
+}
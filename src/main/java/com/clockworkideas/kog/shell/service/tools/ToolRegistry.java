@@ -0,0 +1,70 @@
+package com.clockworkideas.kog.shell.service.tools;
+
+import com.clockworkideas.kog.shell.service.metrics.KogMetrics;
+import org.springframework.ai.tool.ToolCallback;
+import org.springframework.ai.tool.method.MethodToolCallbackProvider;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The tool callbacks offered to the model: every {@code @Tool} method of {@link SystemTools} and
+ * {@link ToolResultTools}, wrapped so each call is timed per tool, counted on the exchange and has its result
+ * kept within the token budget by the {@link ToolResultShaper}. Callers pass these to the ChatClient per request rather
+ * than registering {@link SystemTools} as default tools, which would bypass the wrappers.
+ * <p>
+ * The callbacks (and {@link SystemTools} itself) are built on first use: generating the JSON schemas is one of
+ * the slower steps of startup and a run that never reaches the model does not need them.
+ */
+@Component
+public class ToolRegistry {
+
+    private final ObjectProvider<SystemTools> systemTools;
+    private final ObjectProvider<ToolResultTools> resultTools;
+    private final ToolResultShaper shaper;
+    private final KogMetrics metrics;
+    private volatile Tools tools;
+
+    private record Tools(Map<String, ToolCallback> byName, List<ToolCallback> all) {
+    }
+
+    public ToolRegistry(ObjectProvider<SystemTools> systemTools, ObjectProvider<ToolResultTools> resultTools,
+                        ToolResultShaper shaper, KogMetrics metrics) {
+        this.systemTools = systemTools;
+        this.resultTools = resultTools;
+        this.shaper = shaper;
+        this.metrics = metrics;
+    }
+
+    /** All tools, in declaration order. */
+    public List<ToolCallback> callbacks() {
+        return tools().all();
+    }
+
+    /** The tool called {@code name}, or null. */
+    public ToolCallback find(String name) {
+        return tools().byName().get(name);
+    }
+
+    private Tools tools() {
+        Tools current = tools;
+        if (current != null) return current;
+        synchronized (this) {
+            if (tools == null) {
+                Map<String, ToolCallback> callbacks = new LinkedHashMap<>();
+                ToolCallback[] methods = MethodToolCallbackProvider.builder()
+                        .toolObjects(systemTools.getObject(), resultTools.getObject()).build().getToolCallbacks();
+                for (ToolCallback callback : methods) {
+                    String name = callback.getToolDefinition().name();
+                    callbacks.put(name, new InstrumentedToolCallback(callback,
+                            metrics.toolTimer(name, "success"), metrics.toolTimer(name, "error"), shaper));
+                }
+                tools = new Tools(callbacks, List.copyOf(callbacks.values()));
+            }
+            return tools;
+        }
+    }
+}
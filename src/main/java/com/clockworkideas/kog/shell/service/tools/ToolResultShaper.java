@@ -0,0 +1,259 @@
+package com.clockworkideas.kog.shell.service.tools;
+
+import com.clockworkideas.kog.shell.service.metrics.KogMetrics;
+import com.clockworkideas.kog.shell.service.session.ShellSessionRegistry;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.model.ToolContext;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Keeps tool output sent to the model within a token budget: {@code kog.tools.result.max-tokens} per call and
+ * {@code kog.tools.result.turn-tokens} per exchange, charged on the exchange's {@link ExchangeTrace}. Tokens are
+ * estimated as characters / 4, as elsewhere.
+ * <p>
+ * A result that fits is passed through unchanged. One that does not is stored whole in the
+ * {@link ToolResultStore} and replaced by a summary of the same shape every time: size and detected format, an
+ * outline from {@link TextStructure}, the first and last lines that fit, and a handle to page through the rest
+ * with {@code readToolResult}. Once the exchange's budget is spent, results are cut down to that summary alone,
+ * so a turn costs at most the turn budget plus a few hundred tokens per further call.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class ToolResultShaper {
+
+    /** Results below this size are never shortened, and a shortened result may use this much past an empty budget. */
+    static final int MIN_TOKENS = 256;
+
+    private static final ObjectMapper JSON = new ObjectMapper();
+    private static final Set<String> EXEMPT = Set.of("readToolResult");
+    private static final int MAX_OUTLINE_ENTRIES = 40;
+
+    private final ToolResultStore store;
+    private final KogMetrics metrics;
+
+    @Value("${kog.tools.result.enabled:true}")
+    private boolean enabled = true;
+
+    @Value("${kog.tools.result.max-tokens:4000}")
+    private int maxTokens = 4000;
+
+    @Value("${kog.tools.result.turn-tokens:20000}")
+    private int turnTokens = 20_000;
+
+    /** Estimated tokens of {@code chars} characters of tool output. */
+    static int tokens(int chars) {
+        return (chars + 3) / 4;
+    }
+
+    /**
+     * The result of {@code tool} as it should be sent to the model. {@code result} is the callback's output, a
+     * JSON-encoded string for every tool here; anything else is passed through unchanged.
+     */
+    public String shape(String tool, String toolInput, String result, ToolContext toolContext) {
+        if (!enabled || result == null || EXEMPT.contains(tool)) return result;
+        ExchangeTrace trace = ExchangeTrace.from(toolContext);
+        int estimate = tokens(result.length());
+        // Small results, failure messages among them, always pass whole
+        if (estimate <= MIN_TOKENS) {
+            trace.adjustResultTokens(estimate);
+            return result;
+        }
+        int granted = trace.reserveResultTokens(Math.min(estimate, maxTokens), turnTokens);
+        if (granted >= estimate) return result;
+
+        String text = decode(result);
+        if (text == null) {
+            trace.adjustResultTokens(estimate - granted);
+            return result;
+        }
+        ToolResultStore.Stored stored = store.put(sessionId(toolContext), tool, text);
+        // Budget in decoded characters: escaping (quotes, line breaks) grows the text by the same ratio as the whole
+        long budgetChars = (long) Math.max(granted, MIN_TOKENS) * 4 * text.length() / result.length();
+        String excerpt = excerpt(stored, fileName(toolInput), budgetChars, granted == 0);
+        String shaped = encode(excerpt);
+        int sent = tokens(shaped.length());
+        trace.adjustResultTokens(sent - granted);
+        metrics.toolResultTokensSaved(estimate - sent);
+        log.debug("Shortened {} result from ~{} to ~{} tokens ({} granted), stored as {}",
+                tool, estimate, sent, granted, stored.handle());
+        return shaped;
+    }
+
+    /**
+     * Lines {@code startLine}.. of a stored result, as many as the budget allows and at most {@code lineCount}
+     * (all that fit when null), with a header and a pointer to the next page. A line longer than the budget is
+     * returned in parts: {@code startChar} (1-based, default 1) is where in {@code startLine} the part starts.
+     */
+    public String page(ToolContext toolContext, String handle, Integer startLine, Integer lineCount, Integer startChar) {
+        ToolCallStatus status = ToolCallStatus.current();
+        Optional<ToolResultStore.Stored> found = store.get(sessionId(toolContext), handle);
+        if (found.isEmpty()) {
+            return status.fail("Failed to read tool result " + handle + ": unknown or expired handle; call the original tool again");
+        }
+        ToolResultStore.Stored stored = found.get();
+        int total = stored.lineCount();
+        int first = startLine == null ? 1 : startLine;
+        if (first < 1 || first > total) {
+            return status.fail("Failed to read tool result " + handle + ": startLine must be between 1 and " + total);
+        }
+        int offset = startChar == null ? 0 : startChar - 1;
+        int width = stored.lineChars(first);
+        if (offset < 0 || offset > 0 && offset >= width) {
+            return status.fail("Failed to read tool result " + handle + ": startChar must be between 1 and " + Math.max(1, width)
+                    + " for line " + first);
+        }
+        int wanted = lineCount == null || lineCount < 1 ? Integer.MAX_VALUE : lineCount;
+
+        ExchangeTrace trace = ExchangeTrace.from(toolContext);
+        int granted = enabled ? trace.reserveResultTokens(maxTokens, turnTokens) : Integer.MAX_VALUE / 4;
+        long budgetChars = (long) Math.max(granted, MIN_TOKENS) * 4 - 160;
+
+        StringBuilder out = new StringBuilder()
+                .append('[').append(stored.handle()).append(" (").append(stored.tool()).append("): ");
+        if (offset > 0 || stored.lineLength(first) > budgetChars) {
+            // Part of one long line, so paging makes progress however long the line is
+            String part = stored.chars(first, offset, (int) Math.min(budgetChars, Integer.MAX_VALUE));
+            int end = offset + part.length();
+            out.append("line ").append(first).append(" of ").append(total).append(", chars ").append(offset + 1)
+                    .append('-').append(end).append(" of ").append(width).append("]\n").append(part).append('\n');
+            if (end < width) {
+                continuation(out, stored, first, end + 1);
+            } else if (first < total) {
+                continuation(out, stored, first + 1, 1);
+            }
+        } else {
+            int last = first;
+            long chars = stored.lineLength(first);
+            while (last < total && last - first + 1 < wanted && chars + stored.lineLength(last + 1) <= budgetChars) {
+                last++;
+                chars += stored.lineLength(last);
+            }
+            out.append("lines ").append(first).append('-').append(last).append(" of ").append(total).append("]\n")
+                    .append(stored.lines(first, last)).append('\n');
+            if (last < total) {
+                continuation(out, stored, last + 1, 1);
+            }
+        }
+        if (enabled) trace.adjustResultTokens(tokens(out.length()) - granted);
+        return out.toString();
+    }
+
+    private String excerpt(ToolResultStore.Stored stored, String fileName, long budgetChars, boolean summaryOnly) {
+        String text = stored.text();
+        int total = stored.lineCount();
+        TextStructure.Structure structure = TextStructure.describe(text, fileName, MAX_OUTLINE_ENTRIES);
+
+        StringBuilder out = new StringBuilder()
+                .append("[Result of ").append(stored.tool()).append(" shortened to fit the token budget: ")
+                .append(total).append(total == 1 ? " line, " : " lines, ").append(text.length()).append(" chars (~")
+                .append(tokens(text.length())).append(" tokens), format ").append(structure.format()).append(".]\n");
+
+        // The outline gets at most a quarter of the budget; the rest goes to the head and tail of the text
+        long outlineChars = budgetChars / 4;
+        if (!structure.outline().isEmpty()) {
+            StringBuilder outline = new StringBuilder("Outline:\n");
+            for (String entry : structure.outline()) {
+                if (outline.length() + entry.length() + 3 > outlineChars) {
+                    outline.append("  ...\n");
+                    break;
+                }
+                outline.append("  ").append(entry).append('\n');
+            }
+            out.append(outline);
+        }
+
+        int head = 0;
+        int tail = total + 1;
+        int headPart = 0;
+        if (!summaryOnly) {
+            // Reserve room for the separators and the continuation footer
+            long remaining = budgetChars - out.length() - 240;
+            long headChars = remaining * 2 / 3;
+            long used = 0;
+            while (head + 1 < tail && used + stored.lineLength(head + 1) <= headChars) {
+                head++;
+                used += stored.lineLength(head);
+            }
+            if (head == 0 && headChars > 0) {
+                // The first line alone is over budget (minified JSON, say): show its start instead of nothing
+                headPart = (int) Math.min(headChars, Integer.MAX_VALUE);
+                used = headPart;
+            }
+            long tailChars = remaining - used;
+            used = 0;
+            while (tail - 1 > head + 1 && used + stored.lineLength(tail - 1) <= tailChars) {
+                tail--;
+                used += stored.lineLength(tail);
+            }
+        }
+        int nextChar = 1;
+        if (head > 0) {
+            out.append("--- lines 1-").append(head).append(" ---\n").append(stored.lines(1, head)).append('\n');
+        } else if (headPart > 0) {
+            String part = stored.chars(1, 0, headPart);
+            nextChar = part.length() + 1;
+            out.append("--- line 1, chars 1-").append(part.length()).append(" of ").append(stored.lineChars(1))
+                    .append(" ---\n").append(part).append('\n');
+        }
+        if (tail <= total) {
+            out.append("--- ").append(tail - head - 1).append(" lines omitted ---\n");
+            out.append("--- lines ").append(tail).append('-').append(total).append(" ---\n")
+                    .append(stored.lines(tail, total)).append('\n');
+        }
+        continuation(out, stored, head + 1, nextChar);
+        return out.toString();
+    }
+
+    private static void continuation(StringBuilder out, ToolResultStore.Stored stored, int nextLine, int nextChar) {
+        out.append("[More: readToolResult(handle=\"").append(stored.handle()).append("\", startLine=").append(nextLine);
+        if (nextChar > 1) {
+            out.append(", startChar=").append(nextChar).append(") returns the rest of line ").append(nextLine);
+        } else {
+            out.append(") returns the next lines");
+        }
+        out.append("; the outline's L numbers are line numbers.]");
+    }
+
+    private static String sessionId(ToolContext toolContext) {
+        Object id = toolContext == null ? null : toolContext.getContext().get(ShellSessionRegistry.SESSION_ID);
+        return id == null ? ShellSessionRegistry.DEFAULT_SESSION : id.toString();
+    }
+
+    /** The {@code fileName} argument of the call, used as a format hint. */
+    private static String fileName(String toolInput) {
+        if (toolInput == null || !toolInput.contains("fileName")) return null;
+        try {
+            JsonNode name = JSON.readTree(toolInput).get("fileName");
+            return name == null || !name.isTextual() ? null : name.asText();
+        } catch (JsonProcessingException e) {
+            return null;
+        }
+    }
+
+    /** The text of a JSON string result, or null for any other result. */
+    private static String decode(String result) {
+        if (!result.startsWith("\"")) return null;
+        try {
+            return JSON.readValue(result, String.class);
+        } catch (JsonProcessingException e) {
+            return null;
+        }
+    }
+
+    private static String encode(String text) {
+        try {
+            return JSON.writeValueAsString(text);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package com.clockworkideas.kog.shell.service.tools;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Optional;
+
+/**
+ * Full text of tool results that were cut down before being sent to the model, kept so the model can page
+ * through the rest with {@code readToolResult}. Handles are random and only resolve for the session that
+ * produced them. Eviction is LRU on the total size ({@code kog.tools.result.store-max-chars}) plus a TTL
+ * ({@code kog.tools.result.store-ttl}).
+ */
+@Component
+public class ToolResultStore {
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+    private static final String HANDLE_CHARS = "abcdefghijklmnopqrstuvwxyz0123456789";
+
+    @Value("${kog.tools.result.store-max-chars:33554432}")
+    private long maxChars = 32L * 1024 * 1024;
+
+    @Value("${kog.tools.result.store-ttl:30m}")
+    private Duration ttl = Duration.ofMinutes(30);
+
+    private final LinkedHashMap<String, Stored> results = new LinkedHashMap<>(16, 0.75f, true);
+    private long storedChars;
+
+    /**
+     * A stored result and the offsets of its lines. Lines are numbered as in the text (split on line feeds), so
+     * they agree with the line numbers of the {@link TextStructure} outline; a line too long to send whole is
+     * read in parts with {@link #chars}.
+     */
+    public static final class Stored {
+        private final String handle;
+        private final String sessionId;
+        private final String tool;
+        private final String text;
+        private final int[] lineStarts;
+        private final long storedAtMillis;
+
+        private Stored(String handle, String sessionId, String tool, String text) {
+            this.handle = handle;
+            this.sessionId = sessionId;
+            this.tool = tool;
+            this.text = text;
+            this.lineStarts = lineStarts(text);
+            this.storedAtMillis = System.currentTimeMillis();
+        }
+
+        public String handle() {
+            return handle;
+        }
+
+        public String tool() {
+            return tool;
+        }
+
+        public String text() {
+            return text;
+        }
+
+        public int lineCount() {
+            return lineStarts.length;
+        }
+
+        /** Lines {@code first}..{@code last} (1-based, inclusive), without the final line break. */
+        public String lines(int first, int last) {
+            int from = lineStarts[first - 1];
+            int to = last >= lineStarts.length ? text.length() : lineStarts[last];
+            if (to > from && text.charAt(to - 1) == '\n') to--;
+            return text.substring(from, to);
+        }
+
+        /** Length of line {@code line} (1-based) including its line break. */
+        public int lineLength(int line) {
+            int to = line >= lineStarts.length ? text.length() : lineStarts[line];
+            return to - lineStarts[line - 1];
+        }
+
+        /** Length of line {@code line} (1-based) without its line break. */
+        public int lineChars(int line) {
+            int length = lineLength(line);
+            return length > 0 && text.charAt(lineStarts[line - 1] + length - 1) == '\n' ? length - 1 : length;
+        }
+
+        /**
+         * Up to {@code count} characters of line {@code line} (1-based) from {@code offset} (0-based), without the
+         * line break; at least one character when any are left, and never half of a surrogate pair.
+         */
+        public String chars(int line, int offset, int count) {
+            int start = lineStarts[line - 1];
+            int end = start + lineChars(line);
+            int from = Math.min(start + offset, end);
+            int to = (int) Math.min(end, (long) from + Math.max(1, count));
+            if (to < end && to - from > 1 && Character.isHighSurrogate(text.charAt(to - 1))) to--;
+            return text.substring(from, to);
+        }
+
+        private static int[] lineStarts(String text) {
+            int[] starts = new int[Math.max(16, text.length() / 40)];
+            int count = 0;
+            int start = 0;
+            while (start < text.length() || count == 0) {
+                if (count == starts.length) starts = Arrays.copyOf(starts, count * 2);
+                starts[count++] = start;
+                int newline = text.indexOf('\n', start);
+                if (newline < 0 || newline + 1 >= text.length()) break;
+                start = newline + 1;
+            }
+            return Arrays.copyOf(starts, count);
+        }
+    }
+
+    /** Keep {@code text} for {@code sessionId} and return its handle. */
+    public Stored put(String sessionId, String tool, String text) {
+        String handle;
+        synchronized (results) {
+            do {
+                StringBuilder id = new StringBuilder("r");
+                for (int i = 0; i < 8; i++) id.append(HANDLE_CHARS.charAt(RANDOM.nextInt(HANDLE_CHARS.length())));
+                handle = id.toString();
+            } while (results.containsKey(handle));
+            Stored stored = new Stored(handle, sessionId, tool, text);
+            results.put(handle, stored);
+            storedChars += text.length();
+            evict();
+            return stored;
+        }
+    }
+
+    /** The result behind {@code handle}, if it is still stored and belongs to {@code sessionId}. */
+    public Optional<Stored> get(String sessionId, String handle) {
+        if (handle == null) return Optional.empty();
+        synchronized (results) {
+            Stored stored = results.get(handle.trim());
+            if (stored == null || !stored.sessionId.equals(sessionId)) return Optional.empty();
+            if (stored.storedAtMillis < System.currentTimeMillis() - ttl.toMillis()) {
+                results.remove(stored.handle);
+                storedChars -= stored.text.length();
+                return Optional.empty();
+            }
+            return Optional.of(stored);
+        }
+    }
+
+    public int size() {
+        synchronized (results) {
+            return results.size();
+        }
+    }
+
+    /** Drop expired results, then the least recently used ones until under the size limit (keeping the newest). */
+    private void evict() {
+        long cutoff = System.currentTimeMillis() - ttl.toMillis();
+        Iterator<Stored> it = results.values().iterator();
+        while (it.hasNext() && results.size() > 1) {
+            Stored stored = it.next();
+            if (storedChars <= maxChars && stored.storedAtMillis >= cutoff) continue;
+            it.remove();
+            storedChars -= stored.text.length();
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.clockworkideas.kog.shell.service.tools;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.ai.chat.model.ToolContext;
+import org.springframework.ai.tool.annotation.Tool;
+import org.springframework.ai.tool.annotation.ToolParam;
+import org.springframework.stereotype.Component;
+
+/**
+ * Lets the model page through a tool result that {@link ToolResultShaper} shortened. Kept apart from
+ * {@link SystemTools} since it reads the result store rather than the file system.
+ */
+@Component
+@RequiredArgsConstructor
+public class ToolResultTools {
+
+    private final ToolResultShaper shaper;
+
+    @Tool(description = "Read more of a tool result that was shortened to fit the token budget, by the handle "
+            + "given in it. Returns as many lines from startLine as the budget allows and where to continue; "
+            + "a line too long for one call is returned in parts, continued with startChar.")
+    public String readToolResult(
+            @ToolParam(description = "Handle from the shortened result, e.g. r1a2b3c4d") String handle,
+            @ToolParam(description = "1-based first line (default 1)", required = false) Integer startLine,
+            @ToolParam(description = "Most lines to return (default: as many as fit)", required = false) Integer lineCount,
+            @ToolParam(description = "1-based character in startLine to continue a long line from (default 1)", required = false) Integer startChar,
+            ToolContext toolContext) {
+        return shaper.page(toolContext, handle, startLine, lineCount, startChar);
+    }
+}
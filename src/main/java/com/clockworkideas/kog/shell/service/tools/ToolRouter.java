@@ -0,0 +1,163 @@
+package com.clockworkideas.kog.shell.service.tools;
+
+import com.clockworkideas.kog.shell.service.metrics.KogMetrics;
+import org.springframework.ai.tool.ToolCallback;
+import org.springframework.ai.tool.definition.ToolDefinition;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Chooses which tool definitions to send with a prompt. Every offered tool costs its name, description and
+ * JSON schema in input tokens on every model request, so a prompt that only asks for the time should not
+ * carry the schemas of ten file-mutating tools.
+ * <p>
+ * Prompts are classified locally by keyword into groups (time, navigation, reading, mutation) and only the
+ * tools of the matched groups are offered, plus {@code getCurrentDirectory}, {@code readToolResult} and any
+ * tool not assigned to a group. A prompt that matches no group gets every tool. If the model still asks for a tool it was not
+ * offered, the {@link Route} widens to every tool and the request is repeated.
+ */
+@Component
+public class ToolRouter {
+
+    private enum Group {
+        TIME("\\b(time|date|day|today|tonight|tomorrow|yesterday|clock|hour|hours|week|month|year|weekday)\\b",
+                "getCurrentDateTimeLocal"),
+        NAVIGATION("\\b(cd|chdir|directory|directories|dir|folder|folders|go to|navigate|cwd|pwd|where am i|ls|list|up one level)\\b",
+                "setCurrentDirectory", "changeDirectory", "listCurrentDirectory"),
+        READ("\\b(read|show|cat|print|open|view|display|content|contents|look|find|search|grep|where|which|list|ls|"
+                + "file|files|line|lines|head|tail|count|how many|size|contain|contains|mention|mentions|tree|"
+                + "du|disk|space|usage|big|bigger|biggest|large|larger|largest|heavy|heaviest)\\b",
+                "listCurrentDirectory", "readFile", "readFileWindow", "searchFiles", "findFiles", "diskUsage"),
+        MUTATE("\\b(write|create|make|mkdir|touch|add|append|edit|change|modify|update|replace|insert|fix|patch|diff|"
+                + "delete|remove|rm|rename|move|mv|copy|save|put|refactor|overwrite|empty|clean|cancel|abort|progress)\\b",
+                "listCurrentDirectory", "readFile", "readFileWindow", "searchFiles", "findFiles", "diskUsage",
+                "writeFile", "appendFile", "createFile", "editFile", "replaceLines", "applyPatch",
+                "makeDirectory", "removePath", "renamePath", "movePath", "bulkFileOperation",
+                "listTreeOperations", "cancelTreeOperation");
+
+        final Pattern intent;
+        final List<String> tools;
+
+        Group(String intent, String... tools) {
+            this.intent = Pattern.compile(intent, Pattern.CASE_INSENSITIVE);
+            this.tools = List.of(tools);
+        }
+    }
+
+    private static final Set<String> ALWAYS = Set.of("getCurrentDirectory", "readToolResult");
+
+    @Value("${kog.tools.router.enabled:true}")
+    private boolean enabled = true;
+
+    private final ToolRegistry registry;
+    private final KogMetrics metrics;
+    private volatile SchemaSizes schemaSizes;
+
+    /** Estimated input tokens of each tool definition and of all of them together. */
+    private record SchemaSizes(Map<String, Integer> tokens, int all) {
+    }
+
+    public ToolRouter(ToolRegistry registry, KogMetrics metrics) {
+        this.registry = registry;
+        this.metrics = metrics;
+    }
+
+    /** Sized on first use, once the registry has built the tool definitions. */
+    private SchemaSizes schemaSizes() {
+        SchemaSizes sizes = schemaSizes;
+        if (sizes != null) return sizes;
+        Map<String, Integer> tokens = new HashMap<>();
+        int total = 0;
+        for (ToolCallback callback : registry.callbacks()) {
+            ToolDefinition definition = callback.getToolDefinition();
+            // About four characters per token; the provider's exact framing is not known here
+            int estimate = (definition.name().length() + definition.description().length() + definition.inputSchema().length()) / 4;
+            tokens.put(definition.name(), estimate);
+            total += estimate;
+        }
+        sizes = new SchemaSizes(Map.copyOf(tokens), total);
+        schemaSizes = sizes;
+        return sizes;
+    }
+
+    /** Pick the tools for {@code prompt}. */
+    public Route route(String prompt) {
+        if (!enabled || prompt == null) {
+            return new Route(null);
+        }
+        Set<Group> groups = EnumSet.noneOf(Group.class);
+        for (Group group : Group.values()) {
+            if (group.intent.matcher(prompt).find()) groups.add(group);
+        }
+        if (groups.isEmpty()) {
+            return new Route(null);
+        }
+        Set<String> names = new HashSet<>(ALWAYS);
+        groups.forEach(group -> names.addAll(group.tools));
+        Set<String> grouped = new HashSet<>(ALWAYS);
+        for (Group group : Group.values()) grouped.addAll(group.tools);
+        List<ToolCallback> offered = new ArrayList<>();
+        for (ToolCallback callback : registry.callbacks()) {
+            String name = callback.getToolDefinition().name();
+            if (names.contains(name) || !grouped.contains(name)) offered.add(callback);
+        }
+        return offered.size() == registry.callbacks().size() ? new Route(null) : new Route(offered);
+    }
+
+    /**
+     * The tools offered during one exchange. Starts with the routed subset and widens to every tool once the
+     * model asks for one outside it.
+     */
+    public final class Route {
+        private volatile List<ToolCallback> offered;
+        private volatile Set<String> names;
+
+        private Route(List<ToolCallback> offered) {
+            setOffered(offered);
+        }
+
+        public List<ToolCallback> callbacks() {
+            return offered;
+        }
+
+        /** Whether every tool in {@code requested} was offered. */
+        public boolean offers(Collection<String> requested) {
+            return names == null || names.containsAll(requested);
+        }
+
+        /** Offer every tool from now on. */
+        public void widen() {
+            if (names == null) return;
+            setOffered(null);
+            metrics.toolRouteWidened();
+        }
+
+        /** Record how many schema tokens this request saved compared with sending every tool. */
+        public void requested() {
+            SchemaSizes sizes = schemaSizes();
+            int sent = 0;
+            for (ToolCallback callback : offered) sent += sizes.tokens().getOrDefault(callback.getToolDefinition().name(), 0);
+            metrics.toolSchemaTokensSaved(sizes.all() - sent);
+        }
+
+        private void setOffered(List<ToolCallback> subset) {
+            this.offered = subset == null ? registry.callbacks() : List.copyOf(subset);
+            Set<String> offeredNames = null;
+            if (subset != null) {
+                offeredNames = new HashSet<>();
+                for (ToolCallback callback : subset) offeredNames.add(callback.getToolDefinition().name());
+            }
+            this.names = offeredNames;
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.clockworkideas.kog.shell.service.tools;
+
+import org.springframework.stereotype.Component;
+
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Recursive deletes, copies and moves currently running, with their {@link TreeProgress}, so another call in
+ * the same session can see how far they got and cancel them. Operations register on start and are removed
+ * when they end, however they end.
+ */
+@Component
+public class TreeOperations {
+
+    /** A running operation; {@code id} is unique for the life of the process. */
+    public record Running(String id, String sessionId, String description, Path path, TreeProgress progress,
+                          long startedAtMillis) {
+    }
+
+    private final Map<String, Running> running = new ConcurrentHashMap<>();
+    private final AtomicLong nextId = new AtomicLong();
+
+    /** Register an operation on {@code path} for {@code sessionId}; pass the result to {@link #finish} when done. */
+    public Running start(String sessionId, String description, Path path) {
+        Running operation = new Running("op" + nextId.incrementAndGet(), sessionId, description, path,
+                new TreeProgress(), System.currentTimeMillis());
+        running.put(operation.id(), operation);
+        return operation;
+    }
+
+    public void finish(Running operation) {
+        running.remove(operation.id());
+    }
+
+    /** Operations running for {@code sessionId}, oldest first. */
+    public List<Running> list(String sessionId) {
+        return running.values().stream()
+                .filter(operation -> operation.sessionId().equals(sessionId))
+                .sorted(Comparator.comparingLong(Running::startedAtMillis))
+                .toList();
+    }
+
+    /** Ask the operation {@code id} of {@code sessionId} to stop at its next entry; empty if it is not running. */
+    public Optional<Running> cancel(String sessionId, String id) {
+        Running operation = id == null ? null : running.get(id.trim());
+        if (operation == null || !operation.sessionId().equals(sessionId)) return Optional.empty();
+        operation.progress().cancel();
+        return Optional.of(operation);
+    }
+}
@@ -0,0 +1,47 @@
+package com.clockworkideas.kog.shell.service.tools;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Thread-safe progress and cancellation for a {@link ParallelFileTree} operation. Counters may be read
+ * from any thread while the operation runs; {@link #cancel()} stops it at the next entry boundary.
+ */
+public class TreeProgress {
+
+    private final LongAdder entries = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private volatile boolean cancelled;
+
+    /** Files, links and directories deleted or copied so far. */
+    public long getEntries() {
+        return entries.sum();
+    }
+
+    /** File content bytes copied so far. */
+    public long getBytes() {
+        return bytes.sum();
+    }
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    void entryDone() {
+        entries.increment();
+    }
+
+    void bytesDone(long count) {
+        bytes.add(count);
+    }
+
+    void checkCancelled() {
+        if (cancelled) {
+            throw new CancellationException("Operation cancelled after " + getEntries() + " entries");
+        }
+    }
+}
@@ -0,0 +1,552 @@
+package com.clockworkideas.kog.shell.service.tools;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Persistent trigram index over the files under one root directory.
+ * <p>
+ * Posting lists live in an on-disk {@link TrigramSegment} that is memory-mapped, plus a small on-heap delta
+ * for documents indexed since the segment was last written. A changed file gets a new document id and its
+ * old id is dropped from the live set; when the delta grows past a threshold, or dead ids outnumber live
+ * ones, it is merged into a new segment and the live documents are renumbered. Changes arrive as dirty paths
+ * (from the file watcher and the mutating tools) and are applied before the next query, so the index is
+ * updated incrementally rather than rebuilt.
+ */
+@Slf4j
+final class TrigramIndex {
+
+    /** Files above this size are listed but not trigram-indexed; queries always scan them. */
+    static final long MAX_INDEXED_BYTES = 4L << 20;
+    private static final int DOCS_VERSION = 2;
+    private static final long MERGE_POSTINGS = 4_000_000;
+    private static final int MERGE_DEAD_DOCS = 4096;
+
+    private enum Kind { INDEXED, UNINDEXED, UNSEARCHABLE }
+
+    private record Doc(String path, long size, long modifiedMillis, Kind kind) {
+    }
+
+    private final Path root;
+    private final Path storage;
+    private final int maxFiles;
+    private final DirectoryWatcher watcher;
+    private final ParallelFileTree parallelFileTree;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final List<Doc> docs = new ArrayList<>();
+    private final TreeMap<String, Integer> byPath = new TreeMap<>();
+    private final BitSet live = new BitSet();
+    private TrigramSegment segment = TrigramSegment.EMPTY;
+    private final Map<Integer, IntList> delta = new HashMap<>();
+    private long deltaPostings;
+    private boolean docsDirty;
+    /** Written into both the segment and the document table; a pair whose generations differ is discarded. */
+    private int generation;
+
+    private final Set<Path> dirty = ConcurrentHashMap.newKeySet();
+    private volatile boolean fullyWatched = true;
+    private volatile boolean closed;
+
+    TrigramIndex(Path root, Path storage, int maxFiles, DirectoryWatcher watcher, ParallelFileTree parallelFileTree) {
+        this.root = root;
+        this.storage = storage;
+        this.maxFiles = maxFiles;
+        this.watcher = watcher;
+        this.parallelFileTree = parallelFileTree;
+    }
+
+    Path root() {
+        return root;
+    }
+
+    boolean isFullyWatched() {
+        return fullyWatched;
+    }
+
+    /** Load the persisted index, if any, and bring it up to date with the tree. */
+    void open() throws IOException {
+        lock.writeLock().lock();
+        try {
+            loadPersisted();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        reconcile(root);
+    }
+
+    void markDirty(Path path) {
+        dirty.add(path);
+    }
+
+    /**
+     * Re-check every file under {@code dir} against the index: new or changed files are (re)indexed and
+     * documents whose files are gone are dropped. Unchanged files cost one stat.
+     */
+    void reconcile(Path dir) throws IOException {
+        List<Path> files = new ArrayList<>();
+        List<BasicFileAttributes> attributes = new ArrayList<>();
+        List<Path> watched = new ArrayList<>();
+        try {
+            walk(dir, rulesFor(dir), files, attributes, watched);
+            if (closed) {
+                // Closed while walking: whatever this walk registered would never be released
+                watcher.unwatchAll(this);
+                return;
+            }
+            if (files.size() > maxFiles) {
+                throw new IOException("Too many files to index under " + dir + " (" + files.size() + " > " + maxFiles + ")");
+            }
+        } catch (IOException e) {
+            // Give the watches this walk took back to the shared budget; the tree will not be indexed
+            watched.forEach(d -> watcher.unwatch(d, this));
+            throw e;
+        }
+
+        String prefix = relative(dir);
+        List<Path> changed = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        lock.readLock().lock();
+        try {
+            for (int i = 0; i < files.size(); i++) {
+                String rel = relative(files.get(i));
+                seen.add(rel);
+                Integer id = byPath.get(rel);
+                BasicFileAttributes attrs = attributes.get(i);
+                if (id == null || docs.get(id).size() != attrs.size()
+                        || docs.get(id).modifiedMillis() != attrs.lastModifiedTime().toMillis()) {
+                    changed.add(files.get(i));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        lock.writeLock().lock();
+        try {
+            for (Map.Entry<String, Integer> entry : under(prefix).entrySet()) {
+                if (!seen.contains(entry.getKey())) {
+                    live.clear(entry.getValue());
+                    docsDirty = true;
+                }
+            }
+            under(prefix).keySet().removeIf(path -> !seen.contains(path));
+        } finally {
+            lock.writeLock().unlock();
+        }
+        index(changed);
+    }
+
+    /** Apply queued changes from the watcher and the mutating tools. */
+    void applyDirty() throws IOException {
+        if (dirty.isEmpty()) return;
+        List<Path> paths = new ArrayList<>(dirty);
+        dirty.removeAll(paths);
+        List<Path> files = new ArrayList<>();
+        for (Path path : paths) {
+            if (!path.startsWith(root)) continue;
+            BasicFileAttributes attrs;
+            try {
+                attrs = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            } catch (NoSuchFileException e) {
+                remove(path);
+                continue;
+            }
+            if (path.equals(root)) {
+                reconcile(root);
+                continue;
+            }
+            Path parent = path.getParent();
+            if (rulesFor(parent).enter(parent).isIgnored(path, attrs.isDirectory())) {
+                remove(path);
+            } else if (attrs.isDirectory()) {
+                reconcile(path);
+            } else if (attrs.isRegularFile()) {
+                files.add(path);
+            }
+        }
+        index(files);
+    }
+
+    /** Paths (relative to the root) of live files under {@code dir} matching {@code glob}. */
+    List<String> findFiles(Path dir, String glob, int limit) {
+        PathMatcher matcher = glob == null || glob.isBlank() ? null : FileSystems.getDefault().getPathMatcher("glob:" + glob);
+        boolean onPath = glob != null && glob.contains("/");
+        String prefix = relative(dir);
+        List<String> found = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            for (Map.Entry<String, Integer> entry : under(prefix).entrySet()) {
+                if (!live.get(entry.getValue())) continue;
+                Path rel = Path.of(entry.getKey());
+                Path candidate = onPath ? (prefix.isEmpty() ? rel : Path.of(prefix).relativize(rel)) : rel.getFileName();
+                if (matcher == null || matcher.matches(candidate)) {
+                    found.add(entry.getKey());
+                    if (found.size() >= limit) break;
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return found;
+    }
+
+    /**
+     * Files under {@code dir} that may contain every trigram of {@code literals}; files too large to index
+     * are always included. Exact matching is up to the caller.
+     */
+    List<Path> candidates(Path dir, List<String> literals, boolean ignoreCase) {
+        int[] trigrams = Trigrams.required(literals, ignoreCase);
+        String prefix = relative(dir);
+        List<Path> result = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            BitSet matching = trigrams.length == 0 ? null : intersect(trigrams);
+            for (Map.Entry<String, Integer> entry : under(prefix).entrySet()) {
+                int id = entry.getValue();
+                if (!live.get(id)) continue;
+                Kind kind = docs.get(id).kind();
+                if (kind == Kind.UNINDEXED || (kind == Kind.INDEXED && (matching == null || matching.get(id)))) {
+                    result.add(root.resolve(entry.getKey()));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return result;
+    }
+
+    int liveDocuments() {
+        lock.readLock().lock();
+        try {
+            return live.cardinality();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** Merge the delta into a new segment and write the document table. */
+    void save() throws IOException {
+        lock.writeLock().lock();
+        try {
+            if (deltaPostings > 0 || docsDirty) {
+                merge();
+                writeDocs();
+                docsDirty = false;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /** Release every directory watch this index holds; a closed index takes no new ones. */
+    void close() {
+        closed = true;
+        watcher.unwatchAll(this);
+    }
+
+    // --- internals ---------------------------------------------------------------------------------
+
+    private BitSet intersect(int[] trigrams) {
+        // Start from the rarest trigram, then probe the others
+        int rarest = trigrams[0];
+        int rarestCount = Integer.MAX_VALUE;
+        for (int t : trigrams) {
+            IntList d = delta.get(t);
+            int count = segment.count(t) + (d == null ? 0 : d.size());
+            if (count < rarestCount) {
+                rarest = t;
+                rarestCount = count;
+            }
+        }
+        BitSet result = new BitSet();
+        if (rarestCount == 0) return result;
+        IntList start = new IntList(rarestCount);
+        segment.postings(rarest, start);
+        IntList rarestDelta = delta.get(rarest);
+        for (int i = 0; rarestDelta != null && i < rarestDelta.size(); i++) start.add(rarestDelta.get(i));
+
+        for (int i = 0; i < start.size(); i++) {
+            int doc = start.get(i);
+            if (!live.get(doc)) continue;
+            boolean all = true;
+            for (int t : trigrams) {
+                if (t == rarest) continue;
+                IntList d = delta.get(t);
+                if (!(d != null && d.containsSorted(doc)) && !segment.contains(t, doc)) {
+                    all = false;
+                    break;
+                }
+            }
+            if (all) result.set(doc);
+        }
+        return result;
+    }
+
+    private void index(List<Path> files) throws IOException {
+        if (files.isEmpty()) return;
+        // Extract trigrams in parallel; only the bookkeeping below runs under the write lock
+        List<Extracted> extracted = parallelFileTree.invoke(new ExtractTask(files, 0, files.size()));
+        lock.writeLock().lock();
+        try {
+            for (Extracted e : extracted) {
+                if (e == null) continue;
+                String rel = relative(e.file());
+                Integer old = byPath.get(rel);
+                if (old != null) live.clear(old);
+                int id = docs.size();
+                docs.add(new Doc(rel, e.size(), e.modifiedMillis(), e.kind()));
+                byPath.put(rel, id);
+                live.set(id);
+                for (int t : e.trigrams()) {
+                    delta.computeIfAbsent(t, k -> new IntList(4)).add(id);
+                }
+                deltaPostings += e.trigrams().length;
+            }
+            docsDirty = true;
+            int dead = docs.size() - live.cardinality();
+            if (deltaPostings >= MERGE_POSTINGS || (dead >= MERGE_DEAD_DOCS && dead > docs.size() / 2)) {
+                merge();
+                writeDocs();
+                docsDirty = false;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void remove(Path path) {
+        String rel = relative(path);
+        lock.writeLock().lock();
+        try {
+            Integer id = byPath.remove(rel);
+            if (id != null) live.clear(id);
+            NavigableMap<String, Integer> children = byPath.subMap(rel + "/", true, rel + "0", false);
+            children.values().forEach(live::clear);
+            children.clear();
+            docsDirty = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Write the delta and the current segment into a new segment, renumbering the live documents to
+     * {@code 0..n-1} in their current order so the document table only ever holds live entries.
+     */
+    private void merge() throws IOException {
+        Files.createDirectories(storage);
+        Path file = storage.resolve("segment.bin");
+        int[] renumber = new int[docs.size()];
+        List<Doc> kept = new ArrayList<>(live.cardinality());
+        for (int id = 0; id < docs.size(); id++) {
+            renumber[id] = live.get(id) ? kept.size() : -1;
+            if (live.get(id)) kept.add(docs.get(id));
+        }
+        TrigramSegment.write(file, segment, delta, renumber, generation + 1);
+        generation++;
+        segment = TrigramSegment.open(file);
+        delta.clear();
+        deltaPostings = 0;
+
+        docs.clear();
+        docs.addAll(kept);
+        live.clear();
+        live.set(0, kept.size());
+        byPath.replaceAll((path, id) -> renumber[id]);
+    }
+
+    private void writeDocs() throws IOException {
+        Path file = storage.resolve("docs.bin");
+        Path tmp = storage.resolve("docs.bin.tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(DOCS_VERSION);
+            out.writeUTF(root.toString());
+            out.writeInt(generation);
+            out.writeInt(docs.size());
+            for (int id = 0; id < docs.size(); id++) {
+                Doc doc = docs.get(id);
+                out.writeBoolean(live.get(id));
+                out.writeUTF(doc.path());
+                out.writeLong(doc.size());
+                out.writeLong(doc.modifiedMillis());
+                out.writeByte(doc.kind().ordinal());
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void loadPersisted() {
+        Path docsFile = storage.resolve("docs.bin");
+        Path segmentFile = storage.resolve("segment.bin");
+        if (!Files.isRegularFile(docsFile) || !Files.isRegularFile(segmentFile)) return;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(docsFile)))) {
+            if (in.readInt() != DOCS_VERSION || !in.readUTF().equals(root.toString())) return;
+            int docsGeneration = in.readInt();
+            // Even if this pair is discarded, the next one is written with a generation neither file has
+            generation = docsGeneration;
+            int count = in.readInt();
+            for (int id = 0; id < count; id++) {
+                boolean alive = in.readBoolean();
+                Doc doc = new Doc(in.readUTF(), in.readLong(), in.readLong(), Kind.values()[in.readByte()]);
+                docs.add(doc);
+                if (alive) {
+                    live.set(id);
+                    byPath.put(doc.path(), id);
+                }
+            }
+            segment = TrigramSegment.open(segmentFile);
+            // The two files are renamed into place one after the other; a crash in between leaves a mismatched pair
+            if (segment.generation() != docsGeneration) {
+                generation = Math.max(generation, segment.generation());
+                throw new IOException("segment is generation " + segment.generation() + " but the document table is "
+                        + docsGeneration);
+            }
+            log.info("Loaded trigram index for {} ({} files)", root, byPath.size());
+        } catch (IOException | RuntimeException e) {
+            log.warn("Discarding unreadable trigram index for {}: {}", root, e.getMessage());
+            docs.clear();
+            byPath.clear();
+            live.clear();
+            segment = TrigramSegment.EMPTY;
+        }
+    }
+
+    /** Collect the files under {@code dir}, registering watches first; {@code watched} gets the ones newly registered. */
+    private void walk(Path dir, IgnoreRules inherited, List<Path> files, List<BasicFileAttributes> attributes,
+                      List<Path> watched) throws IOException {
+        IgnoreRules rules = inherited.enter(dir);
+        boolean known = watcher.isWatched(dir, this);
+        if (!watcher.watch(dir, this)) fullyWatched = false;
+        else if (!known) watched.add(dir);
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+            for (Path entry : entries) {
+                if (files.size() > maxFiles) return;
+                BasicFileAttributes attrs;
+                try {
+                    attrs = Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                } catch (IOException e) {
+                    continue;
+                }
+                if (attrs.isSymbolicLink() || rules.isIgnored(entry, attrs.isDirectory())) continue;
+                if (attrs.isDirectory()) {
+                    walk(entry, rules, files, attributes, watched);
+                } else if (attrs.isRegularFile()) {
+                    files.add(entry);
+                    attributes.add(attrs);
+                }
+            }
+        } catch (IOException e) {
+            if (dir.equals(root)) throw e;
+        }
+    }
+
+    /** Ignore rules inherited by {@code dir}: everything from the root down to its parent, entered in order. */
+    private IgnoreRules rulesFor(Path dir) {
+        IgnoreRules rules = IgnoreRules.NONE;
+        if (dir.equals(root)) return rules;
+        Path current = root;
+        for (Path part : root.relativize(dir)) {
+            rules = rules.enter(current);
+            current = current.resolve(part);
+        }
+        return rules;
+    }
+
+    private NavigableMap<String, Integer> under(String prefix) {
+        return prefix.isEmpty() ? byPath : byPath.subMap(prefix + "/", true, prefix + "0", false);
+    }
+
+    private String relative(Path path) {
+        return root.relativize(path).toString();
+    }
+
+    private record Extracted(Path file, long size, long modifiedMillis, Kind kind, int[] trigrams) {
+    }
+
+    private static final class ExtractTask extends RecursiveTask<List<Extracted>> {
+        private static final long serialVersionUID = 1L;
+
+        private final transient List<Path> files;
+        private final int from;
+        private final int to;
+
+        ExtractTask(List<Path> files, int from, int to) {
+            this.files = files;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected List<Extracted> compute() {
+            if (to - from > 32) {
+                int mid = (from + to) >>> 1;
+                ExtractTask left = new ExtractTask(files, from, mid);
+                left.fork();
+                List<Extracted> right = new ExtractTask(files, mid, to).compute();
+                List<Extracted> result = left.join();
+                result.addAll(right);
+                return result;
+            }
+            List<Extracted> result = new ArrayList<>(to - from);
+            for (int i = from; i < to; i++) {
+                result.add(extract(files.get(i)));
+            }
+            return result;
+        }
+
+        private static Extracted extract(Path file) {
+            try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+                BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                long size = ch.size();
+                long modified = attrs.lastModifiedTime().toMillis();
+                if (size > ContentSearcher.MAX_FILE_BYTES) {
+                    return new Extracted(file, size, modified, Kind.UNSEARCHABLE, new int[0]);
+                }
+                if (size > MAX_INDEXED_BYTES) {
+                    return new Extracted(file, size, modified, Kind.UNINDEXED, new int[0]);
+                }
+                ByteBuffer bytes = size == 0 ? ByteBuffer.allocate(0) : ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                int probe = (int) Math.min(size, 8192);
+                for (int i = 0; i < probe; i++) {
+                    if (bytes.get(i) == 0) {
+                        return new Extracted(file, size, modified, Kind.UNSEARCHABLE, new int[0]);
+                    }
+                }
+                return new Extracted(file, size, modified, Kind.INDEXED, Trigrams.of(bytes, (int) size));
+            } catch (IOException e) {
+                // Vanished or unreadable; the next change event will retry
+                return null;
+            }
+        }
+    }
+}
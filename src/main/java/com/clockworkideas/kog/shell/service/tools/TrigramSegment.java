@@ -0,0 +1,204 @@
+package com.clockworkideas.kog.shell.service.tools;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+
+/**
+ * Immutable, memory-mapped trigram posting lists. Layout (little-endian):
+ * <pre>
+ * int magic, int version, int keyCount, int generation, long postingCount
+ * int[postingCount] postings   -- document ids, ascending per trigram
+ * int[keyCount]     keys       -- trigrams, ascending
+ * int[keyCount + 1] offsets    -- start of each trigram's postings
+ * </pre>
+ * Lookups binary-search the mapped key table, so the posting data never lives on the Java heap.
+ * A segment is limited to what fits in a single 2 GiB mapping.
+ */
+final class TrigramSegment {
+
+    private static final int MAGIC = 0x4B4F4733;
+    private static final int VERSION = 2;
+    private static final int HEADER_BYTES = 24;
+
+    static final TrigramSegment EMPTY = new TrigramSegment(null, 0, 0, 0);
+
+    private final ByteBuffer buffer;
+    private final int keyCount;
+    private final int generation;
+    private final long postingCount;
+
+    private TrigramSegment(ByteBuffer buffer, int keyCount, int generation, long postingCount) {
+        this.buffer = buffer;
+        this.keyCount = keyCount;
+        this.generation = generation;
+        this.postingCount = postingCount;
+    }
+
+    static TrigramSegment open(Path file) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer mapped = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            mapped.order(ByteOrder.LITTLE_ENDIAN);
+            if (ch.size() < HEADER_BYTES || mapped.getInt(0) != MAGIC || mapped.getInt(4) != VERSION) {
+                throw new IOException("Not a trigram segment: " + file);
+            }
+            return new TrigramSegment(mapped, mapped.getInt(8), mapped.getInt(12), mapped.getLong(16));
+        }
+    }
+
+    /** Generation stamped by the index when it wrote this segment, matched against its document table. */
+    int generation() {
+        return generation;
+    }
+
+    int keyCount() {
+        return keyCount;
+    }
+
+    int keyAt(int i) {
+        return buffer.getInt(keysBase() + i * 4);
+    }
+
+    /** Index of {@code trigram} in the key table, or {@code -1}. */
+    int find(int trigram) {
+        int lo = 0;
+        int hi = keyCount - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int key = keyAt(mid);
+            if (key < trigram) lo = mid + 1;
+            else if (key > trigram) hi = mid - 1;
+            else return mid;
+        }
+        return -1;
+    }
+
+    int postingStart(int keyIndex) {
+        return buffer.getInt(offsetsBase() + keyIndex * 4);
+    }
+
+    int postingEnd(int keyIndex) {
+        return buffer.getInt(offsetsBase() + (keyIndex + 1) * 4);
+    }
+
+    int posting(int position) {
+        return buffer.getInt(HEADER_BYTES + position * 4);
+    }
+
+    int count(int trigram) {
+        int k = find(trigram);
+        return k < 0 ? 0 : postingEnd(k) - postingStart(k);
+    }
+
+    boolean contains(int trigram, int doc) {
+        int k = find(trigram);
+        if (k < 0) return false;
+        int lo = postingStart(k);
+        int hi = postingEnd(k) - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int value = posting(mid);
+            if (value < doc) lo = mid + 1;
+            else if (value > doc) hi = mid - 1;
+            else return true;
+        }
+        return false;
+    }
+
+    void postings(int trigram, IntList out) {
+        int k = find(trigram);
+        if (k < 0) return;
+        for (int p = postingStart(k), end = postingEnd(k); p < end; p++) out.add(posting(p));
+    }
+
+    private int keysBase() {
+        return (int) (HEADER_BYTES + postingCount * 4);
+    }
+
+    private int offsetsBase() {
+        return keysBase() + keyCount * 4;
+    }
+
+    /**
+     * Write a new segment that merges {@code base} with {@code delta}, renumbering each document {@code d} to
+     * {@code renumber[d]} and dropping those mapped to {@code -1}. Every id in {@code delta} must be greater than
+     * every id in {@code base}, and the renumbering must preserve order, so that concatenation keeps each posting
+     * list sorted. The file is written next to {@code file} and atomically moved into place.
+     */
+    static void write(Path file, TrigramSegment base, Map<Integer, IntList> delta, int[] renumber, int generation) throws IOException {
+        int[] deltaKeys = delta.keySet().stream().mapToInt(Integer::intValue).sorted().toArray();
+        IntList keys = new IntList(base.keyCount + deltaKeys.length);
+        IntList offsets = new IntList(base.keyCount + deltaKeys.length + 1);
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            final ByteBuffer buf = ByteBuffer.allocate(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+            out.position(HEADER_BYTES);
+            long written = 0;
+            int i = 0;
+            int j = 0;
+            while (i < base.keyCount || j < deltaKeys.length) {
+                int baseKey = i < base.keyCount ? base.keyAt(i) : Integer.MAX_VALUE;
+                int deltaKey = j < deltaKeys.length ? deltaKeys[j] : Integer.MAX_VALUE;
+                int key = Math.min(baseKey, deltaKey);
+                long before = written;
+                if (baseKey == key) {
+                    for (int p = base.postingStart(i), end = base.postingEnd(i); p < end; p++) {
+                        int doc = base.posting(p);
+                        if (renumber[doc] >= 0) {
+                            written++;
+                            put(out, buf, renumber[doc]);
+                        }
+                    }
+                    i++;
+                }
+                if (deltaKey == key) {
+                    IntList docs = delta.get(key);
+                    for (int p = 0; p < docs.size(); p++) {
+                        int doc = docs.get(p);
+                        if (renumber[doc] >= 0) {
+                            written++;
+                            put(out, buf, renumber[doc]);
+                        }
+                    }
+                    j++;
+                }
+                if (written > before) {
+                    keys.add(key);
+                    offsets.add((int) before);
+                }
+                if (written > (Integer.MAX_VALUE - HEADER_BYTES) / 4 / 2) {
+                    throw new IOException("Trigram index too large for a single segment");
+                }
+            }
+            offsets.add((int) written);
+            for (int k = 0; k < keys.size(); k++) put(out, buf, keys.get(k));
+            for (int k = 0; k < offsets.size(); k++) put(out, buf, offsets.get(k));
+            drain(out, buf);
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).putInt(keys.size()).putInt(generation).putLong(written).flip();
+            out.write(header, 0);
+            out.force(false);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void put(FileChannel out, ByteBuffer buf, int value) throws IOException {
+        if (buf.remaining() < 4) drain(out, buf);
+        buf.putInt(value);
+    }
+
+    private static void drain(FileChannel out, ByteBuffer buf) throws IOException {
+        buf.flip();
+        while (buf.hasRemaining()) out.write(buf);
+        buf.clear();
+    }
+}
@@ -0,0 +1,174 @@
+package com.clockworkideas.kog.shell.service.tools;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Trigram extraction for the content index. Trigrams are three consecutive bytes packed into 24 bits with
+ * ASCII letters folded to lower case, so one index serves both case-sensitive and case-insensitive queries;
+ * exact matching is left to the verification scan.
+ */
+final class Trigrams {
+
+    private static final ThreadLocal<BitSet> SEEN = ThreadLocal.withInitial(() -> new BitSet(1 << 24));
+
+    private Trigrams() {
+    }
+
+    static int fold(byte b) {
+        return b >= 'A' && b <= 'Z' ? (b + 32) & 0xFF : b & 0xFF;
+    }
+
+    /** Distinct trigrams of {@code bytes[0, limit)}, ascending. */
+    static int[] of(ByteBuffer bytes, int limit) {
+        BitSet seen = SEEN.get();
+        IntList found = new IntList(Math.min(limit, 4096));
+        if (limit >= 3) {
+            int t = (fold(bytes.get(0)) << 8) | fold(bytes.get(1));
+            for (int i = 2; i < limit; i++) {
+                t = ((t << 8) | fold(bytes.get(i))) & 0xFFFFFF;
+                if (!seen.get(t)) {
+                    seen.set(t);
+                    found.add(t);
+                }
+            }
+        }
+        int[] result = found.toArray();
+        for (int t : result) seen.clear(t);
+        Arrays.sort(result);
+        return result;
+    }
+
+    /**
+     * Trigrams that every match of the given literals must contain. With {@code ignoreCase}, trigrams that
+     * touch non-ASCII bytes are dropped because the index only folds ASCII.
+     */
+    static int[] required(List<String> literals, boolean ignoreCase) {
+        IntList out = new IntList();
+        for (String literal : literals) {
+            byte[] bytes = literal.getBytes(StandardCharsets.UTF_8);
+            for (int i = 0; i + 2 < bytes.length; i++) {
+                if (ignoreCase && (bytes[i] < 0 || bytes[i + 1] < 0 || bytes[i + 2] < 0)) continue;
+                out.add((fold(bytes[i]) << 16) | (fold(bytes[i + 1]) << 8) | fold(bytes[i + 2]));
+            }
+        }
+        return Arrays.stream(out.toArray()).distinct().toArray();
+    }
+
+    /**
+     * Literal runs that any match of {@code regex} must contain, or an empty list if none can be derived.
+     * Conservative: alternation, {@code \Q..\E}, inline flags other than {@code (?i)} and anything inside groups
+     * or character classes is skipped, escapes such as {@code \x41} or {@code \k<name>} end a run, and a character
+     * followed by an optional quantifier is dropped from its run.
+     */
+    static List<String> requiredLiterals(String regex) {
+        List<String> runs = new ArrayList<>();
+        if (regex.contains("|") || regex.contains("\\Q") || hasInlineFlagsOtherThanCase(regex)) return runs;
+        StringBuilder run = new StringBuilder();
+        int depth = 0;
+        for (int i = 0; i < regex.length(); i++) {
+            char c = regex.charAt(i);
+            if (depth > 0) {
+                if (c == '\\') i++;
+                else if (c == '(') depth++;
+                else if (c == ')') depth--;
+                continue;
+            }
+            switch (c) {
+                case '\\' -> {
+                    char next = i + 1 < regex.length() ? regex.charAt(i + 1) : 0;
+                    if (next != 0 && !Character.isLetterOrDigit(next)) {
+                        run.append(next);
+                        i++;
+                    } else {
+                        // A class, anchor, back reference or character code: not literal text
+                        flush(run, runs);
+                        i = next == 0 ? i : endOfEscape(regex, i + 1);
+                    }
+                }
+                case '(' -> {
+                    flush(run, runs);
+                    depth = 1;
+                }
+                case '[' -> {
+                    flush(run, runs);
+                    // Skip the class, including a literal ']' right after '[' or '[^'
+                    int j = i + 1;
+                    if (j < regex.length() && regex.charAt(j) == '^') j++;
+                    if (j < regex.length() && regex.charAt(j) == ']') j++;
+                    while (j < regex.length() && regex.charAt(j) != ']') {
+                        if (regex.charAt(j) == '\\') j++;
+                        j++;
+                    }
+                    i = j;
+                }
+                case '?', '*', '{' -> {
+                    // The preceding atom is optional
+                    if (run.length() > 0) run.setLength(run.length() - 1);
+                    flush(run, runs);
+                    if (c == '{') {
+                        while (i < regex.length() && regex.charAt(i) != '}') i++;
+                    }
+                }
+                case '+', '.', '^', '$' -> flush(run, runs);
+                default -> run.append(c);
+            }
+        }
+        flush(run, runs);
+        return runs;
+    }
+
+    /** Index of the last character of the escape whose letter or digit is at {@code at}. */
+    private static int endOfEscape(String regex, int at) {
+        char letter = regex.charAt(at);
+        char next = at + 1 < regex.length() ? regex.charAt(at + 1) : 0;
+        return switch (letter) {
+            case 'x' -> next == '{' ? closing(regex, at + 1, '}') : Math.min(regex.length() - 1, at + 2);
+            case 'u' -> Math.min(regex.length() - 1, at + 4);
+            case 'c' -> Math.min(regex.length() - 1, at + 1);
+            case '0' -> {
+                int end = at;
+                while (end + 1 < regex.length() && end - at < 3 && regex.charAt(end + 1) >= '0' && regex.charAt(end + 1) <= '7') end++;
+                yield end;
+            }
+            case '1', '2', '3', '4', '5', '6', '7', '8', '9' -> {
+                int end = at;
+                while (end + 1 < regex.length() && Character.isDigit(regex.charAt(end + 1))) end++;
+                yield end;
+            }
+            case 'k' -> next == '<' ? closing(regex, at + 1, '>') : at;
+            case 'p', 'P' -> next == '{' ? closing(regex, at + 1, '}') : Math.min(regex.length() - 1, at + 1);
+            case 'N', 'b', 'B' -> next == '{' ? closing(regex, at + 1, '}') : at;
+            default -> at;
+        };
+    }
+
+    private static int closing(String regex, int from, char close) {
+        int end = regex.indexOf(close, from);
+        return end < 0 ? regex.length() - 1 : end;
+    }
+
+    /**
+     * Whether the pattern sets any inline flag but {@code i}, e.g. {@code (?x)} (whitespace and comments are not
+     * literal) or {@code (?s:..)}. Case-insensitivity is fine: the caller folds case whenever {@code (?} appears.
+     */
+    private static boolean hasInlineFlagsOtherThanCase(String regex) {
+        for (int at = regex.indexOf("(?"); at >= 0; at = regex.indexOf("(?", at + 2)) {
+            int end = at + 2;
+            while (end < regex.length() && (Character.isLetter(regex.charAt(end)) || regex.charAt(end) == '-')) end++;
+            if (end == at + 2 || end == regex.length()) continue;
+            char close = regex.charAt(end);
+            if ((close == ')' || close == ':') && !regex.substring(at + 2, end).equals("i")) return true;
+        }
+        return false;
+    }
+
+    private static void flush(StringBuilder run, List<String> runs) {
+        if (run.length() >= 3) runs.add(run.toString());
+        run.setLength(0);
+    }
+}
@@ -0,0 +1,119 @@
+package com.clockworkideas.kog.shell.service.tools;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AppendWriterPoolTest {
+
+    private static final int THREADS = 4;
+    private static final int LINES = 2000;
+
+    @TempDir
+    Path dir;
+
+    private static AppendWriterPool pool(Duration flushInterval, int maxOpen) throws ReflectiveOperationException {
+        AppendWriterPool pool = new AppendWriterPool();
+        set(pool, "flushInterval", flushInterval);
+        set(pool, "maxOpen", maxOpen);
+        return pool;
+    }
+
+    private static void set(Object target, String name, Object value) throws ReflectiveOperationException {
+        Field field = target.getClass().getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(target, value);
+    }
+
+    @Test
+    void keepsEachAppendersOrderWhileHandlesAreEvicted() throws Exception {
+        // One open handle for two files: nearly every append evicts the other file's handle, with appends queued
+        AppendWriterPool pool = pool(Duration.ofMillis(20), 1);
+        Path log = dir.resolve("run.log");
+        Path journal = dir.resolve("journal.log");
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<?>> done = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                int thread = t;
+                done.add(executor.submit(() -> {
+                    for (int i = 0; i < LINES; i++) {
+                        pool.append(log, (thread + ":" + i + "\n").getBytes(StandardCharsets.UTF_8), false);
+                        pool.append(journal, (thread + ":" + i + "\n").getBytes(StandardCharsets.UTF_8), false);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : done) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        pool.flush(dir);
+        pool.shutdown();
+
+        for (Path file : List.of(log, journal)) {
+            List<String> lines = Files.readAllLines(file);
+            assertEquals(THREADS * LINES, lines.size(), file + " line count");
+            int[] next = new int[THREADS];
+            for (String line : lines) {
+                String[] parts = line.split(":");
+                int thread = Integer.parseInt(parts[0]);
+                int i = Integer.parseInt(parts[1]);
+                assertEquals(next[thread], i, file + ": thread " + thread + " out of order");
+                next[thread]++;
+            }
+        }
+        assertTrue(pool.getBatches() > 0);
+    }
+
+    @Test
+    void reportsDeferredAppendsLostWhenAnEvictedHandleWritesThem() throws Exception {
+        AppendWriterPool pool = pool(Duration.ofHours(1), 1);
+        // A regular file where the directory should be: the deferred append cannot be written
+        Files.writeString(dir.resolve("sub"), "");
+        Path lostFile = dir.resolve("sub/a.log");
+        pool.append(lostFile, "lost\n".getBytes(StandardCharsets.UTF_8), false);
+        Thread.sleep(5);
+        // Opening a second handle evicts the first, whose close writes the failing batch
+        pool.append(dir.resolve("b.log"), "kept\n".getBytes(StandardCharsets.UTF_8), false);
+
+        IOException e = assertThrows(IOException.class, () -> pool.flush(lostFile));
+        assertTrue(e.getMessage().startsWith("1 earlier append to " + lostFile), e.getMessage());
+        // Reported once
+        assertDoesNotThrow(() -> pool.flush(lostFile));
+        pool.shutdown();
+    }
+
+    @Test
+    void nextAppendReportsWhatAClosedHandleLost() throws Exception {
+        AppendWriterPool pool = pool(Duration.ofHours(1), 1);
+        Files.writeString(dir.resolve("sub"), "");
+        Path lostFile = dir.resolve("sub/a.log");
+        pool.append(lostFile, "lost\n".getBytes(StandardCharsets.UTF_8), false);
+        Thread.sleep(5);
+        pool.append(dir.resolve("b.log"), "kept\n".getBytes(StandardCharsets.UTF_8), false);
+
+        IOException e = assertThrows(IOException.class,
+                () -> pool.append(lostFile, "again\n".getBytes(StandardCharsets.UTF_8), false));
+        assertTrue(e.getMessage().contains("could not be written"), e.getMessage());
+        pool.shutdown();
+    }
+}
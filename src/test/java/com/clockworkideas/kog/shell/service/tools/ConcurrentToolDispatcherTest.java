@@ -0,0 +1,60 @@
+package com.clockworkideas.kog.shell.service.tools;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ConcurrentToolDispatcherTest {
+
+    private static final Path CWD = Path.of("/work");
+
+    private static AssistantMessage.ToolCall call(String name, String arguments) {
+        return new AssistantMessage.ToolCall(name + "-id", "function", name, arguments);
+    }
+
+    private static List<ConcurrentToolDispatcher.Planned> plan(AssistantMessage.ToolCall... calls) {
+        return ConcurrentToolDispatcher.plan(List.of(calls), CWD);
+    }
+
+    @Test
+    void independentCallsDoNotConflict() {
+        List<ConcurrentToolDispatcher.Planned> planned = plan(
+                call("writeFile", "{\"fileName\":\"a.txt\"}"),
+                call("readFile", "{\"fileName\":\"b.txt\"}"));
+        assertFalse(planned.get(0).conflictsWith(planned.get(1)));
+    }
+
+    @Test
+    void readAfterWriteOfSameFileConflicts() {
+        List<ConcurrentToolDispatcher.Planned> planned = plan(
+                call("writeFile", "{\"fileName\":\"a.txt\"}"),
+                call("readFile", "{\"fileName\":\"/work/a.txt\"}"));
+        assertTrue(planned.get(0).conflictsWith(planned.get(1)));
+    }
+
+    @Test
+    void relativePathsAfterChangeDirectoryOverlapEverything() {
+        // After the cd, a.txt is sub/a.txt: the write and the read touch the same file
+        List<ConcurrentToolDispatcher.Planned> planned = plan(
+                call("changeDirectory", "{\"newPath\":\"sub\"}"),
+                call("writeFile", "{\"fileName\":\"a.txt\"}"),
+                call("readFile", "{\"fileName\":\"sub/a.txt\"}"));
+        assertTrue(planned.get(0).conflictsWith(planned.get(1)));
+        assertTrue(planned.get(0).conflictsWith(planned.get(2)));
+        assertTrue(planned.get(1).conflictsWith(planned.get(2)));
+    }
+
+    @Test
+    void absolutePathsAfterChangeDirectoryKeepTheirPlace() {
+        List<ConcurrentToolDispatcher.Planned> planned = plan(
+                call("changeDirectory", "{\"newPath\":\"sub\"}"),
+                call("writeFile", "{\"fileName\":\"/work/a.txt\"}"),
+                call("readFile", "{\"fileName\":\"/work/b.txt\"}"));
+        assertFalse(planned.get(1).conflictsWith(planned.get(2)));
+    }
+}
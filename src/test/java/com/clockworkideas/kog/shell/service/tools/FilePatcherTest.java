@@ -0,0 +1,229 @@
+package com.clockworkideas.kog.shell.service.tools;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FilePatcherTest {
+
+    @TempDir
+    Path dir;
+
+    private final FilePatcher patcher = new FilePatcher(new FileWindowReader());
+
+    /** Lines "line 1" .. "line n", each terminated by {@code eol}. */
+    private static String numbered(int n, String eol) {
+        return IntStream.rangeClosed(1, n).mapToObj(i -> "line " + i + eol).collect(Collectors.joining());
+    }
+
+    private Path write(String name, String content) throws IOException {
+        return Files.writeString(dir.resolve(name), content);
+    }
+
+    private List<FilePatcher.Result> apply(String patch) throws IOException {
+        return patcher.applyPatch(patch, dir::resolve);
+    }
+
+    @Test
+    void appliesHunkAtItsStatedLine() throws IOException {
+        Path file = write("a.txt", numbered(10, "\n"));
+        List<FilePatcher.Result> results = apply("""
+                --- a/a.txt
+                +++ b/a.txt
+                @@ -4,3 +4,3 @@
+                 line 4
+                -line 5
+                +five
+                 line 6
+                """);
+        assertEquals(numbered(10, "\n").replace("line 5\n", "five\n"), Files.readString(file));
+        assertEquals(1, results.get(0).linesRemoved());
+        assertEquals(1, results.get(0).linesAdded());
+        assertEquals(List.of(), results.get(0).notes());
+    }
+
+    @Test
+    void appliesHunkWhoseLineNumbersAreOff() throws IOException {
+        Path file = write("a.txt", numbered(30, "\n"));
+        // The header says line 4, the text is at line 14
+        List<FilePatcher.Result> results = apply("""
+                --- a/a.txt
+                +++ b/a.txt
+                @@ -4,3 +4,3 @@
+                 line 14
+                -line 15
+                +fifteen
+                 line 16
+                """);
+        assertEquals(numbered(30, "\n").replace("line 15\n", "fifteen\n"), Files.readString(file));
+        assertEquals(List.of("hunk 1 applied at line 14 (offset 10 lines)"), results.get(0).notes());
+    }
+
+    @Test
+    void prefersTheNearestMatchingOffset() throws IOException {
+        Path file = write("a.txt", "x\ny\nx\ny\nx\ny\n");
+        apply("""
+                --- a/a.txt
+                +++ b/a.txt
+                @@ -4,1 +4,1 @@
+                -x
+                +z
+                """);
+        // Line 3 and line 5 are both one line away; the earlier one wins, like patch
+        assertEquals("x\ny\nz\ny\nx\ny\n", Files.readString(file));
+    }
+
+    @Test
+    void ignoresEdgeContextLinesWithFuzz() throws IOException {
+        Path file = write("a.txt", numbered(10, "\n").replace("line 4\n", "line four\n"));
+        List<FilePatcher.Result> results = apply("""
+                --- a/a.txt
+                +++ b/a.txt
+                @@ -4,3 +4,3 @@
+                 line 4
+                -line 5
+                +five
+                 line 6
+                """);
+        assertEquals(numbered(10, "\n").replace("line 4\n", "line four\n").replace("line 5\n", "five\n"),
+                Files.readString(file));
+        assertEquals(List.of("hunk 1 applied at line 4 with fuzz 1"), results.get(0).notes());
+    }
+
+    @Test
+    void neverIgnoresRemovedLines() throws IOException {
+        String original = numbered(10, "\n");
+        Path file = write("a.txt", original);
+        FilePatcher.ConflictException e = assertThrows(FilePatcher.ConflictException.class, () -> apply("""
+                --- a/a.txt
+                +++ b/a.txt
+                @@ -4,3 +4,3 @@
+                 line 4
+                -line five
+                +five
+                 line 6
+                """));
+        assertTrue(e.getMessage().contains("does not apply at line 5: expected \"line five\" but found \"line 5\""), e.getMessage());
+        assertEquals(original, Files.readString(file));
+    }
+
+    @Test
+    void insertionWithoutContextIsNotMoved() throws IOException {
+        Path file = write("a.txt", numbered(3, "\n"));
+        FilePatcher.ConflictException e = assertThrows(FilePatcher.ConflictException.class, () -> apply("""
+                --- a/a.txt
+                +++ b/a.txt
+                @@ -9,0 +10,1 @@
+                +added
+                """));
+        assertTrue(e.getMessage().contains("starts at line 9 but the file has only 3 lines"), e.getMessage());
+        assertEquals(numbered(3, "\n"), Files.readString(file));
+    }
+
+    @Test
+    void keepsCrlfLineEndings() throws IOException {
+        Path file = write("a.txt", numbered(5, "\r\n"));
+        apply("""
+                --- a/a.txt
+                +++ b/a.txt
+                @@ -2,3 +2,4 @@
+                 line 2
+                -line 3
+                +three
+                +three and a half
+                 line 4
+                """);
+        assertEquals("line 1\r\nline 2\r\nthree\r\nthree and a half\r\nline 4\r\nline 5\r\n", Files.readString(file));
+    }
+
+    @Test
+    void createsFileWithDefaultPermissions() throws IOException {
+        apply("""
+                --- /dev/null
+                +++ b/sub/new.txt
+                @@ -0,0 +1,2 @@
+                +first
+                +second
+                """);
+        Path created = dir.resolve("sub/new.txt");
+        assertEquals("first\nsecond\n", Files.readString(created));
+        Path plain = Files.createFile(dir.resolve("plain.txt"));
+        assertEquals(Files.getPosixFilePermissions(plain), Files.getPosixFilePermissions(created));
+    }
+
+    @Test
+    void deletesFileAndLeavesNoTemporaryFile() throws IOException {
+        write("gone.txt", "a\nb\n");
+        List<FilePatcher.Result> results = apply("""
+                --- a/gone.txt
+                +++ /dev/null
+                @@ -1,2 +0,0 @@
+                -a
+                -b
+                """);
+        assertTrue(results.get(0).deleted());
+        try (Stream<Path> left = Files.list(dir)) {
+            assertEquals(List.of(), left.toList());
+        }
+    }
+
+    @Test
+    void conflictInOneFileLeavesEveryFileUntouched() throws IOException {
+        Path first = write("first.txt", numbered(5, "\n"));
+        Path second = write("second.txt", numbered(5, "\n"));
+        assertThrows(FilePatcher.ConflictException.class, () -> apply("""
+                --- a/first.txt
+                +++ b/first.txt
+                @@ -1,1 +1,1 @@
+                -line 1
+                +one
+                --- a/second.txt
+                +++ b/second.txt
+                @@ -2,1 +2,1 @@
+                -not there
+                +two
+                --- /dev/null
+                +++ b/third.txt
+                @@ -0,0 +1,1 @@
+                +new
+                """));
+        assertEquals(numbered(5, "\n"), Files.readString(first));
+        assertEquals(numbered(5, "\n"), Files.readString(second));
+        assertFalse(Files.exists(dir.resolve("third.txt")));
+        try (Stream<Path> left = Files.list(dir)) {
+            assertEquals(2, left.count());
+        }
+    }
+
+    @Test
+    void replaceLinesChecksItsRange() throws IOException {
+        Path file = write("a.txt", numbered(3, "\n"));
+        assertThrows(FilePatcher.ConflictException.class, () -> patcher.replaceLines(file, 0, 1, "x", null));
+        FilePatcher.ConflictException past = assertThrows(FilePatcher.ConflictException.class,
+                () -> patcher.replaceLines(file, 3, 4, "x", null));
+        assertTrue(past.getMessage().contains("File has no line 4"), past.getMessage());
+        assertThrows(FilePatcher.ConflictException.class, () -> patcher.replaceLines(file, 5, 4, "x", null));
+        FilePatcher.ConflictException wrong = assertThrows(FilePatcher.ConflictException.class,
+                () -> patcher.replaceLines(file, 2, 2, "x", "line two"));
+        assertTrue(wrong.getMessage().startsWith("Line 2 is \"line 2\""), wrong.getMessage());
+        assertEquals(numbered(3, "\n"), Files.readString(file));
+
+        // Inserting after the last line is in range
+        patcher.replaceLines(file, 4, 3, "line 4", null);
+        assertEquals(numbered(4, "\n"), Files.readString(file));
+        patcher.replaceLines(file, 2, 3, "middle", "line 2\nline 3\n");
+        assertEquals("line 1\nmiddle\nline 4\n", Files.readString(file));
+    }
+}
@@ -0,0 +1,88 @@
+package com.clockworkideas.kog.shell.service.tools;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FileWindowReaderTest {
+
+    @TempDir
+    Path dir;
+
+    private final FileWindowReader reader = new FileWindowReader();
+
+    /** {@code lines} lines of {@code width} bytes each, newline included. */
+    private Path lines(String name, int lines, int width) throws IOException {
+        StringBuilder out = new StringBuilder(lines * width);
+        for (int i = 0; i < lines; i++) {
+            String number = Integer.toString(i);
+            out.append(number).append("x".repeat(width - 1 - number.length())).append('\n');
+        }
+        return Files.writeString(dir.resolve(name), out);
+    }
+
+    @Test
+    void byteWindowOfSmallFileIsNotTruncated() throws IOException {
+        Path file = Files.writeString(dir.resolve("small.txt"), "hello\n");
+        FileWindowReader.Window window = reader.readBytes(file, 0, Integer.MAX_VALUE);
+        assertEquals("hello\n", window.text());
+        assertFalse(window.truncated());
+    }
+
+    @Test
+    void byteWindowIsTruncatedOnlyWhenCapped() throws IOException {
+        Path file = lines("big.txt", 20_000, 100);
+        FileWindowReader.Window capped = reader.readBytes(file, 0, 2 * FileWindowReader.MAX_WINDOW_BYTES);
+        assertTrue(capped.truncated());
+        assertEquals(FileWindowReader.MAX_WINDOW_BYTES, capped.endOffset());
+
+        long size = Files.size(file);
+        FileWindowReader.Window rest = reader.readBytes(file, size - 500, 2 * FileWindowReader.MAX_WINDOW_BYTES);
+        assertFalse(rest.truncated());
+        assertEquals(size, rest.endOffset());
+    }
+
+    @Test
+    void tailOfHugeCountStopsAtTheWindowCap() throws IOException {
+        Path file = lines("big.txt", 20_000, 100);
+        FileWindowReader.Window window = reader.tail(file, Integer.MAX_VALUE);
+        assertTrue(window.truncated());
+        assertTrue(window.text().length() <= FileWindowReader.MAX_WINDOW_BYTES);
+        // Whole lines only, ending with the last one
+        assertEquals(0, window.startOffset() % 100);
+        assertTrue(window.text().startsWith(window.startOffset() / 100 + "x"));
+        assertTrue(window.text().endsWith("19999" + "x".repeat(94) + "\n"));
+    }
+
+    @Test
+    void tailThatFitsIsWhole() throws IOException {
+        Path file = lines("big.txt", 20_000, 100);
+        FileWindowReader.Window window = reader.tail(file, 3);
+        assertFalse(window.truncated());
+        assertEquals(3, window.lineCount());
+        assertTrue(window.text().startsWith("19997"));
+
+        Path small = lines("small.txt", 5, 10);
+        FileWindowReader.Window all = reader.tail(small, 100);
+        assertFalse(all.truncated());
+        assertEquals(0, all.startOffset());
+        assertEquals(5, all.lineCount());
+    }
+
+    @Test
+    void tailOfExactlyTheCapIsWhole() throws IOException {
+        // 2048 lines of 1024 bytes: the last 1024 lines are exactly MAX_WINDOW_BYTES
+        Path file = lines("exact.txt", 2048, 1024);
+        FileWindowReader.Window window = reader.tail(file, 1024);
+        assertFalse(window.truncated());
+        assertEquals(1024, window.lineCount());
+        assertEquals(FileWindowReader.MAX_WINDOW_BYTES, window.endOffset() - window.startOffset());
+    }
+}
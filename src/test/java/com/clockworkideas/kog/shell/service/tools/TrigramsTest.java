@@ -0,0 +1,71 @@
+package com.clockworkideas.kog.shell.service.tools;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TrigramsTest {
+
+    /** Every literal derived from {@code regex} must occur in {@code match}, which the regex finds. */
+    private static void assertNoFalseNegative(String regex, String match) {
+        assertTrue(Pattern.compile(regex).matcher(match).find(), () -> regex + " should match " + match);
+        for (String literal : Trigrams.requiredLiterals(regex)) {
+            assertTrue(match.contains(literal), () -> regex + " requires '" + literal + "', not in " + match);
+        }
+    }
+
+    @Test
+    void plainLiteralsAreRequired() {
+        assertEquals(List.of("foo.bar"), Trigrams.requiredLiterals("foo\\.bar"));
+        assertEquals(List.of("hello", "world"), Trigrams.requiredLiterals("hello\\s+world"));
+        assertEquals(List.of("abc"), Trigrams.requiredLiterals("abcd?"));
+    }
+
+    @Test
+    void hexAndUnicodeEscapesAreNotLiteralText() {
+        assertNoFalseNegative("key\\x41bcdef", "keyAbcdef");
+        assertNoFalseNegative("\\x{41}xyzw", "Axyzw");
+        assertNoFalseNegative("caf\\u00e9terie", "caféterie");
+        assertEquals(List.of("caf", "terie"), Trigrams.requiredLiterals("caf\\u00e9terie"));
+    }
+
+    @Test
+    void octalControlAndBackReferenceEscapesAreNotLiteralText() {
+        assertNoFalseNegative("\\0101bcd", "Abcd");
+        assertNoFalseNegative("\\cJabc", "\nabc");
+        assertNoFalseNegative("(ab)c\\1234", "abcab234");
+    }
+
+    @Test
+    void namedBackReferencesAndPropertiesAreNotLiteralText() {
+        assertNoFalseNegative("(?<word>x)\\k<word>yz", "xxyz");
+        assertNoFalseNegative("\\p{Lu}abc", "Xabc");
+        assertNoFalseNegative("\\pLabc", "Xabc");
+        assertNoFalseNegative("\\N{LATIN SMALL LETTER A}bcd", "abcd");
+    }
+
+    @Test
+    void optionalEscapeDoesNotTrimPrecedingLiteral() {
+        assertNoFalseNegative("abc\\x41?def", "abcdef");
+        assertEquals(List.of("abc", "def"), Trigrams.requiredLiterals("abc\\x41?def"));
+    }
+
+    @Test
+    void inlineFlagsOtherThanCaseYieldNoLiterals() {
+        assertNoFalseNegative("(?x) foo bar", "foobar");
+        assertEquals(List.of(), Trigrams.requiredLiterals("(?x) foo bar"));
+        assertEquals(List.of(), Trigrams.requiredLiterals("(?s)abc.def"));
+        assertEquals(List.of(), Trigrams.requiredLiterals("(?ix)abc def"));
+        assertEquals(List.of(), Trigrams.requiredLiterals("x(?x: a b c )yz"));
+    }
+
+    @Test
+    void caseInsensitiveFlagKeepsLiterals() {
+        assertEquals(List.of("hello"), Trigrams.requiredLiterals("(?i)hello"));
+        assertEquals(List.of("world"), Trigrams.requiredLiterals("(?i:ab)world"));
+    }
+}